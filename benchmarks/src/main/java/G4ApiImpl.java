@@ -0,0 +1,100 @@
+import g4.bench.G4Api;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * G4Api 的实现，位于默认包中，可以直接调用主程序的类（包括包内可见的方法）。
+ */
+public class G4ApiImpl implements G4Api {
+
+    @Override
+    public Object engine(String name) {
+        switch (name) {
+            case "regex":
+                return new G4_Base();
+            case "scan":
+                return new G4Scanner();
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + name);
+        }
+    }
+
+    @Override
+    public Object match(Object engine, byte[] sequence) {
+        return ((G4Engine) engine).match(sequence, 0, sequence.length, 0);
+    }
+
+    @Override
+    public int matchType(Object engine, int type, byte[] sequence) {
+        if (engine instanceof G4_Base) {
+            return ((G4_Base) engine).matchType(type, sequence, 0, sequence.length, 0).size();
+        }
+        return ((G4Scanner) engine).matchType(type, sequence, 0, sequence.length, 0).size();
+    }
+
+    @Override
+    public int size(Object hits) {
+        return ((G4Hits) hits).size();
+    }
+
+    @Override
+    public String convertSequence(String sequence) {
+        return new ConvertSequence().convertSequence(sequence);
+    }
+
+    @Override
+    public byte[] complement(byte[] sequence) {
+        return ConvertSequence.complementOf(sequence, 0, sequence.length);
+    }
+
+    @Override
+    public void reverseComplement(byte[] sequence) {
+        ConvertSequence.reverseComplement(sequence, 0, sequence.length);
+    }
+
+    @Override
+    public long loadFasta(Path fasta, Path cacheDir) throws IOException {
+        try (FastaInput input = new FastaInput(fasta.toString(), cacheDir.toString())) {
+            long total = 0;
+            for (String header : input.getChromosomeHeaders()) {
+                total += input.getSequenceBytes(header).length;
+            }
+            return total;
+        }
+    }
+
+    @Override
+    public void writeBed(Path output, String chromosome, Object hits) throws IOException {
+        try (BedOutput bedOutput = new BedOutput()) {
+            bedOutput.writeBEDFile(output.toString(), chromosome, "+", (G4Hits) hits);
+        }
+    }
+
+    @Override
+    public void run(Path fasta, Path cacheDir, Path outputDir, String engine, String mode, int threads)
+            throws IOException {
+        boolean streaming = mode.equals("--stream");
+        G4Fasta2Bed g4Fasta2Bed = new G4Fasta2Bed(fasta.toString(), cacheDir.toString(), outputDir.toString(),
+                (G4Engine) engine(engine), streaming);
+        g4Fasta2Bed.setThreads(threads);
+        try {
+            switch (mode) {
+                case "-aP":
+                    g4Fasta2Bed.matchG4_All_Paralle();
+                    break;
+                case "-aS":
+                    g4Fasta2Bed.matchG4_All_Serial();
+                    break;
+                case "--stream":
+                    g4Fasta2Bed.matchG4_Stream(true, true);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown mode: " + mode);
+            }
+        } finally {
+            // 释放序列缓存的共享锁和内存映射，缓存文件留给下一次调用复用
+            g4Fasta2Bed.releaseCache(true);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package g4.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BedOutput.writeBEDFile 的基准测试：把一条G富集染色体的全部匹配结果写入新的BED文件。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BedWriteBenchmark {
+
+    private G4Api api;
+    private Object hits;
+    private Path dir;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        api = G4Api.load();
+        byte[] sequence = SyntheticGenome.generate(10_000_000, 0.5, 0.05, 3);
+        hits = api.match(api.engine("scan"), sequence);
+        dir = Files.createTempDirectory("g4-bench-bed");
+        output = dir.resolve("out.bed");
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        Files.deleteIfExists(output);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticGenome.deleteRecursively(dir);
+    }
+
+    /**
+     * 返回写出的行数，便于在结果中核对数据规模。
+     */
+    @Benchmark
+    public int write() throws IOException {
+        api.writeBed(output, "chr1", hits);
+        return api.size(hits);
+    }
+}
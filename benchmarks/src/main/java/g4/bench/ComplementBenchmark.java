@@ -0,0 +1,68 @@
+package g4.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 负链预处理（互补序列）的基准测试。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ComplementBenchmark {
+
+    @Param({ "10000000" })
+    public int length;
+
+    private G4Api api;
+    private String text;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        api = G4Api.load();
+        bytes = SyntheticGenome.generate(length, 0.41, 0.005, 7);
+        text = new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * ConvertSequence.convertSequence（字符串接口）。
+     */
+    @Benchmark
+    public String convertSequence() throws IOException {
+        return api.convertSequence(text);
+    }
+
+    /**
+     * 各匹配路径实际使用的字节数组互补。
+     */
+    @Benchmark
+    public byte[] complementBytes() throws IOException {
+        return api.complement(bytes);
+    }
+
+    /**
+     * 就地反向互补。每次调用都把序列反转一次，偶数次调用后序列复原，不影响其他方法。
+     */
+    @Benchmark
+    public byte[] reverseComplementInPlace() {
+        api.reverseComplement(bytes);
+        return bytes;
+    }
+}
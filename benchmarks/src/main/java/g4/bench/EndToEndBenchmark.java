@@ -0,0 +1,79 @@
+package g4.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端基准测试：从FASTA文件到两条链的BED文件，每次都从空的缓存和输出目录开始。
+ * 用于给帮助信息中 -aP [fast] 与 -aS [slow] 的说法提供数据，并比较两种引擎。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param({ "-aP", "-aS", "--stream" })
+    public String mode;
+
+    @Param({ "regex", "scan" })
+    public String engine;
+
+    @Param({ "4" })
+    public int chromosomes;
+
+    @Param({ "5000000" })
+    public int length;
+
+    @Param({ "0" })
+    public int threads;
+
+    private G4Api api;
+    private Path dir;
+    private Path fasta;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        api = G4Api.load();
+        dir = Files.createTempDirectory("g4-bench-e2e");
+        fasta = dir.resolve("genome.fa");
+        SyntheticGenome.writeFasta(fasta, chromosomes, length, 0.41, 0.005, 11);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        SyntheticGenome.deleteRecursively(dir.resolve("cache"));
+        SyntheticGenome.deleteRecursively(dir.resolve("out"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticGenome.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void run() throws IOException {
+        api.run(fasta, dir.resolve("cache"), dir.resolve("out"), engine, mode, threads);
+    }
+}
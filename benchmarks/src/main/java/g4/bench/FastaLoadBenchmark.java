@@ -0,0 +1,73 @@
+package g4.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FastaInput 的基准测试：冷启动（分割FASTA、生成缓存文件后读出全部染色体）与热启动（复用缓存文件）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FastaLoadBenchmark {
+
+    @Param({ "4" })
+    public int chromosomes;
+
+    @Param({ "5000000" })
+    public int length;
+
+    @Param({ "false", "true" })
+    public boolean warmCache;
+
+    private G4Api api;
+    private Path dir;
+    private Path fasta;
+    private Path cacheDir;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        api = G4Api.load();
+        dir = Files.createTempDirectory("g4-bench-fasta");
+        fasta = dir.resolve("genome.fa");
+        cacheDir = dir.resolve("cache");
+        SyntheticGenome.writeFasta(fasta, chromosomes, length, 0.41, 0.005, 1);
+        api.loadFasta(fasta, cacheDir);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() throws IOException {
+        if (!warmCache) {
+            SyntheticGenome.deleteRecursively(cacheDir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticGenome.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long load() throws IOException {
+        return api.loadFasta(fasta, cacheDir);
+    }
+}
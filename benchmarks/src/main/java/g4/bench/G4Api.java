@@ -0,0 +1,83 @@
+package g4.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 主程序的类都在默认包中，而 JMH 要求基准测试类位于具名包中，具名包又无法引用默认包中的类。
+ * 因此基准测试只通过本接口调用主程序，实现类 G4ApiImpl 位于默认包中，在 load() 时通过反射创建一次，
+ * 之后的调用都是普通的接口调用，不会引入反射开销。
+ */
+public interface G4Api {
+
+    /**
+     * 模式类型名称，顺序与 G4Scanner.TYPES 相同。
+     */
+    String[] TYPES = { "4G", "Bulge", "GVBQ", "4GL15", "PHQS" };
+
+    static G4Api load() {
+        try {
+            return (G4Api) Class.forName("G4ApiImpl").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("G4ApiImpl not found on the class path", e);
+        }
+    }
+
+    /**
+     * 创建匹配引擎。
+     *
+     * @param name "regex"（G4_Base）或 "scan"（G4Scanner）。
+     */
+    Object engine(String name);
+
+    /**
+     * 用引擎匹配整条序列的全部模式类型，返回匹配结果（G4Hits）。
+     */
+    Object match(Object engine, byte[] sequence);
+
+    /**
+     * 用引擎只匹配一种模式类型，返回匹配数。
+     *
+     * @param type 模式类型在 TYPES 中的下标。
+     */
+    int matchType(Object engine, int type, byte[] sequence);
+
+    /**
+     * 返回匹配结果的条数。
+     */
+    int size(Object hits);
+
+    /**
+     * 调用 ConvertSequence.convertSequence。
+     */
+    String convertSequence(String sequence) throws IOException;
+
+    /**
+     * 调用各匹配路径使用的字节数组互补函数 ConvertSequence.complementOf。
+     */
+    byte[] complement(byte[] sequence) throws IOException;
+
+    /**
+     * 调用 ConvertSequence.reverseComplement，就地把序列转换为反向互补序列。
+     */
+    void reverseComplement(byte[] sequence);
+
+    /**
+     * 构造 FastaInput（生成或复用缓存文件）并读出全部染色体，返回碱基总数。
+     */
+    long loadFasta(Path fasta, Path cacheDir) throws IOException;
+
+    /**
+     * 通过 BedOutput.writeBEDFile 把匹配结果写入BED文件并关闭。
+     */
+    void writeBed(Path output, String chromosome, Object hits) throws IOException;
+
+    /**
+     * 端到端运行一次 G4Fasta2Bed。
+     *
+     * @param engine  "regex" 或 "scan"。
+     * @param mode    "-aP"、"-aS" 或 "--stream"。
+     * @param threads 并行方法的线程数。
+     */
+    void run(Path fasta, Path cacheDir, Path outputDir, String engine, String mode, int threads) throws IOException;
+}
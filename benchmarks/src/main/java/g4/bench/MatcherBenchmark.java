@@ -0,0 +1,73 @@
+package g4.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 匹配引擎的基准测试：分别测量每一种模式类型，以及一次匹配全部类型，
+ * 序列的G富集程度由 gc 和 tractRate 控制。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatcherBenchmark {
+
+    @Param({ "regex", "scan" })
+    public String engine;
+
+    @Param({ "4G", "Bulge", "GVBQ", "4GL15", "PHQS" })
+    public String type;
+
+    @Param({ "0.4", "0.6" })
+    public double gc;
+
+    @Param({ "0.005", "0.02" })
+    public double tractRate;
+
+    @Param({ "1000000" })
+    public int length;
+
+    private G4Api api;
+    private Object matcher;
+    private int typeIndex;
+    private byte[] sequence;
+
+    @Setup
+    public void setUp() {
+        api = G4Api.load();
+        matcher = api.engine(engine);
+        typeIndex = Arrays.asList(G4Api.TYPES).indexOf(type);
+        sequence = SyntheticGenome.generate(length, gc, tractRate, 42);
+    }
+
+    /**
+     * 只匹配 type 指定的一种模式。
+     */
+    @Benchmark
+    public int matchType() {
+        return api.matchType(matcher, typeIndex, sequence);
+    }
+
+    /**
+     * 匹配全部五种模式（与 G4Engine.match 相同）。与 type 参数无关，用 -p type=4G 运行即可避免重复。
+     */
+    @Benchmark
+    public Object matchAll() {
+        return api.match(matcher, sequence);
+    }
+}
@@ -0,0 +1,87 @@
+package g4.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * 生成可复现的合成序列，G富集程度可控。
+ * 每个位置以 gc/2 的概率取 G、gc/2 的概率取 C，其余在 A、T 之间均分；
+ * 另外以 tractRate 的概率在该位置插入一段长度为3~5的G串（或C串），用于控制G4结构的密度。
+ */
+public final class SyntheticGenome {
+
+    private SyntheticGenome() {
+    }
+
+    /**
+     * @param length    序列长度。
+     * @param gc        G+C 的比例（0~1）。
+     * @param tractRate 每个位置插入G串或C串的概率。
+     * @param seed      随机种子，相同参数总是生成相同的序列。
+     * @return 大写碱基组成的序列。
+     */
+    public static byte[] generate(int length, double gc, double tractRate, long seed) {
+        Random random = new Random(seed);
+        byte[] sequence = new byte[length];
+        int i = 0;
+        while (i < length) {
+            if (random.nextDouble() < tractRate) {
+                byte base = random.nextBoolean() ? (byte) 'G' : (byte) 'C';
+                int run = 3 + random.nextInt(3);
+                for (int k = 0; k < run && i < length; k++) {
+                    sequence[i++] = base;
+                }
+                continue;
+            }
+            double r = random.nextDouble();
+            if (r < gc / 2) {
+                sequence[i++] = 'G';
+            } else if (r < gc) {
+                sequence[i++] = 'C';
+            } else if (r < (1 + gc) / 2) {
+                sequence[i++] = 'A';
+            } else {
+                sequence[i++] = 'T';
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * 把多条合成染色体写成每行60个碱基的FASTA文件，染色体名为 chr1、chr2……
+     */
+    public static void writeFasta(Path file, int chromosomes, int length, double gc, double tractRate, long seed)
+            throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            for (int c = 0; c < chromosomes; c++) {
+                out.write((">chr" + (c + 1) + "\n").getBytes());
+                byte[] sequence = generate(length, gc, tractRate, seed + c);
+                for (int i = 0; i < sequence.length; i += 60) {
+                    out.write(sequence, i, Math.min(60, sequence.length - i));
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * 递归删除目录。
+     */
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        if (Files.isDirectory(path)) {
+            try (var children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * BgzfCheck类对压缩输出做往返检查：
+ * <ul>
+ * <li>BGZF（BgzfOutputStream）：用 BgzfInputStream 和 JDK 的 GZIPInputStream 读回的数据应与写入的相同，
+ * virtualOffset 给出的虚拟偏移量应指向未压缩数据中的同一位置；</li>
+ * <li>tabix 索引（TabixIndex）：按 tabix 的查询方法（分箱加线性索引）对随机区间查询，
+ * 得到的行应与逐行扫描解压后的文件得到的行相同。</li>
+ * </ul>
+ * 除 BGZF 的读取外，块和索引的解析都在本类中独立实现，不复用被检查的代码。
+ */
+public class BgzfCheck {
+    private static final int MIN_SHIFT = 14;
+    private static final int META_BIN = 37450;
+
+    /**
+     * @param queries tabix 随机查询的次数。
+     * @param seed    随机种子。
+     */
+    static void run(int queries, long seed) throws IOException {
+        Random random = new Random(seed);
+        Path dir = Files.createTempDirectory("g4check");
+        try {
+            checkBgzf(random);
+            checkTabix(random, queries, dir.resolve("tabix"));
+        } finally {
+            DirectoryCleaner.clearDirectory(dir.toString());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * BGZF：不同长度（空、一个字节、块大小附近、多个块）和不同可压缩程度的数据，以不同的方式分段写入。
+     */
+    private static void checkBgzf(Random random) throws IOException {
+        int block = BgzfOutputStream.BLOCK_DATA_SIZE;
+        int[] lengths = { 0, 1, block - 1, block, block + 1, 3 * block, 3 * block + 17, 1 << 20 };
+        for (int length : lengths) {
+            for (int compressible = 0; compressible < 2; compressible++) {
+                byte[] data = new byte[length];
+                if (compressible == 1) {
+                    for (int i = 0; i < length; i++) {
+                        data[i] = (byte) "ACGT\tG\n".charAt(random.nextInt(7));
+                    }
+                } else {
+                    random.nextBytes(data);
+                }
+                ByteArrayOutputStream file = new ByteArrayOutputStream();
+                BgzfOutputStream out = new BgzfOutputStream(file, 2);
+                int written = 0;
+                while (written < length) {
+                    int n = Math.min(length - written, random.nextInt(2 * block));
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            out.write(data[written]);
+                            n = 1;
+                            break;
+                        case 1:
+                            out.write(data, written, n);
+                            break;
+                        default:
+                            out.write(ByteBuffer.wrap(data, written, n));
+                            break;
+                    }
+                    written += n;
+                }
+                out.close();
+                byte[] compressed = file.toByteArray();
+                String context = length + " bytes" + (compressible == 1 ? ", compressible" : ", random");
+
+                try (InputStream in = new BgzfInputStream(new ByteArrayInputStream(compressed), 2)) {
+                    SelfCheck.check(Arrays.equals(data, in.readAllBytes()), "BgzfInputStream round trip / BGZF往返: "
+                            + context);
+                }
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                    SelfCheck.check(Arrays.equals(data, in.readAllBytes()), "GZIPInputStream round trip / gzip往返: "
+                            + context);
+                }
+
+                Map<Long, Long> blockStarts = new HashMap<>();
+                byte[] inflated = inflateBlocks(compressed, blockStarts);
+                SelfCheck.check(Arrays.equals(data, inflated), "BGZF blocks / BGZF块: " + context);
+                for (int k = 0; k < 100; k++) {
+                    long position = k == 0 ? length : k == 1 ? 0 : random.nextInt(length + 1);
+                    long resolved = resolve(out.virtualOffset(position), blockStarts);
+                    SelfCheck.check(resolved == position, "virtual offset of " + position + " resolves to " + resolved
+                            + " / 虚拟偏移量不符: " + context);
+                }
+            }
+        }
+        System.out.println("BGZF round trips: " + lengths.length * 2 + " / BGZF往返: " + lengths.length * 2);
+    }
+
+    /**
+     * tabix：写出几条染色体的结果，其中一条为匹配引擎在随机序列上的结果，其余混有跨越多个箱的长区间，
+     * 然后对随机区间查询。
+     */
+    private static void checkTabix(Random random, int queries, Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Path bed = dir.resolve("hits.bed.gz");
+        Path plain = dir.resolve("hits.bed");
+        String[] names = { "chr1", "chr2", "chrUn_random", "chrM" };
+        int[] lengths = new int[names.length];
+        List<G4Hits> chromosomes = new ArrayList<>();
+        byte[] scanned = ScannerCheck.randomSequence(random, 1 << 19);
+        chromosomes.add(new G4Scanner().match(scanned, 0, scanned.length, 0));
+        lengths[0] = scanned.length;
+        for (int c = 1; c < names.length; c++) {
+            lengths[c] = c == names.length - 1 ? 16569 : (1 << 20) + random.nextInt(1 << 20);
+            chromosomes.add(syntheticHits(random, lengths[c]));
+        }
+        try (BedWriter compressed = new BedWriter(bed.toString(), BedOutput.headerLine());
+                BedWriter uncompressed = new BedWriter(plain.toString(), BedOutput.headerLine(), false)) {
+            for (int c = 0; c < names.length; c++) {
+                compressed.write(names[c], "+", chromosomes.get(c));
+                uncompressed.write(names[c], "+", chromosomes.get(c).sortedByPosition());
+            }
+        }
+
+        Map<Long, Long> blockStarts = new HashMap<>();
+        byte[] text = inflateBlocks(Files.readAllBytes(bed), blockStarts);
+        SelfCheck.check(Arrays.equals(text, Files.readAllBytes(plain)),
+                "BGZF BED differs from the plain sorted BED / 压缩的BED与未压缩的排序BED不同");
+
+        ByteBuffer index;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(Path.of(bed + ".tbi")))) {
+            index = ByteBuffer.wrap(in.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        byte[] magic = new byte[4];
+        index.get(magic);
+        SelfCheck.check(Arrays.equals(magic, new byte[] { 'T', 'B', 'I', 1 }), "tabix magic / tabix 文件头");
+        int references = index.getInt();
+        int[] header = new int[6];
+        for (int i = 0; i < header.length; i++) {
+            header[i] = index.getInt();
+        }
+        SelfCheck.check(references == names.length && Arrays.equals(header, new int[] { 0x10000, 1, 2, 3, '#', 1 }),
+                "tabix header / tabix 文件头: " + references + " " + Arrays.toString(header));
+        byte[] nameBytes = new byte[index.getInt()];
+        index.get(nameBytes);
+        String[] indexedNames = new String(nameBytes, StandardCharsets.UTF_8).split("\0");
+        SelfCheck.check(Arrays.equals(indexedNames, names), "tabix names / tabix 染色体名称: "
+                + Arrays.toString(indexedNames));
+
+        List<Map<Integer, long[]>> bins = new ArrayList<>();
+        List<long[]> linears = new ArrayList<>();
+        for (int r = 0; r < references; r++) {
+            Map<Integer, long[]> referenceBins = new HashMap<>();
+            int binCount = index.getInt();
+            for (int b = 0; b < binCount; b++) {
+                int bin = index.getInt();
+                long[] chunks = new long[2 * index.getInt()];
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i] = index.getLong();
+                }
+                if (bin != META_BIN) {
+                    referenceBins.put(bin, chunks);
+                }
+            }
+            long[] linear = new long[index.getInt()];
+            for (int i = 0; i < linear.length; i++) {
+                linear[i] = index.getLong();
+            }
+            bins.add(referenceBins);
+            linears.add(linear);
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        for (String line : new String(text, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.startsWith("#")) {
+                rows.add(line.split("\t", 4));
+            }
+        }
+        for (int q = 0; q < queries; q++) {
+            int r = random.nextInt(names.length);
+            int begin = random.nextInt(lengths[r] + 1000);
+            int end = begin + 1 + (random.nextInt(4) == 0 ? random.nextInt(1 << 19) : random.nextInt(2000));
+            Set<String> expected = new TreeSet<>();
+            for (String[] row : rows) {
+                if (row[0].equals(names[r]) && Integer.parseInt(row[1]) < end && Integer.parseInt(row[2]) > begin) {
+                    expected.add(String.join("\t", row));
+                }
+            }
+            Set<String> actual = query(text, blockStarts, bins.get(r), linears.get(r), names[r], begin, end);
+            SelfCheck.check(expected.equals(actual), "tabix query / tabix 查询 " + names[r] + ":" + begin + "-" + end
+                    + ": expected " + expected.size() + " rows, got " + actual.size());
+        }
+        System.out.println("Tabix queries: " + queries + " / tabix 查询: " + queries);
+    }
+
+    /**
+     * 按 tabix 的方法查询：与区间重叠的全部箱中，终点不早于线性索引下限的区块，逐行读取并保留重叠的行。
+     */
+    private static Set<String> query(byte[] text, Map<Long, Long> blockStarts, Map<Integer, long[]> bins,
+            long[] linear, String name, int begin, int end) {
+        long minOffset = linear.length == 0 ? 0 : linear[Math.min(begin >> MIN_SHIFT, linear.length - 1)];
+        Set<String> rows = new TreeSet<>();
+        for (int bin : reg2bins(begin, end)) {
+            long[] chunks = bins.get(bin);
+            if (chunks == null) {
+                continue;
+            }
+            for (int i = 0; i < chunks.length; i += 2) {
+                if (chunks[i + 1] <= minOffset) {
+                    continue;
+                }
+                int position = (int) resolve(Math.max(chunks[i], minOffset), blockStarts);
+                int stop = (int) resolve(chunks[i + 1], blockStarts);
+                while (position < stop) {
+                    int newline = position;
+                    while (text[newline] != '\n') {
+                        newline++;
+                    }
+                    String[] row = new String(text, position, newline - position, StandardCharsets.UTF_8).split("\t", 4);
+                    if (row[0].equals(name) && Integer.parseInt(row[1]) < end && Integer.parseInt(row[2]) > begin) {
+                        rows.add(String.join("\t", row));
+                    }
+                    position = newline + 1;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 与 [begin, end) 重叠的全部箱（htslib 的 reg2bins）。
+     */
+    private static List<Integer> reg2bins(int begin, int end) {
+        List<Integer> bins = new ArrayList<>();
+        end--;
+        bins.add(0);
+        int[] firsts = { 1, 9, 73, 585, 4681 };
+        int[] shifts = { 26, 23, 20, 17, 14 };
+        for (int level = 0; level < firsts.length; level++) {
+            for (int k = firsts[level] + (begin >> shifts[level]); k <= firsts[level] + (end >> shifts[level]); k++) {
+                bins.add(k);
+            }
+        }
+        return bins;
+    }
+
+    /**
+     * 随机区间，大多较短，少数长达数十万碱基，落在较高层的箱中。
+     */
+    private static G4Hits syntheticHits(Random random, int length) {
+        byte[] sequence = new byte[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = (byte) "ACGT".charAt(random.nextInt(4));
+        }
+        G4Hits hits = new G4Hits(sequence, 0);
+        int count = 2000 + random.nextInt(2000);
+        for (int i = 0; i < count; i++) {
+            int size = random.nextInt(100) == 0 ? 1 + random.nextInt(300000) : 10 + random.nextInt(60);
+            int start = random.nextInt(length - Math.min(size, length - 1));
+            hits.add(start, Math.min(length, start + size), random.nextInt(G4Scanner.TYPES.length));
+        }
+        return hits;
+    }
+
+    /**
+     * 逐块解压BGZF文件（不借助被检查的读取代码），记录每个块的压缩偏移量对应的未压缩位置。
+     */
+    private static byte[] inflateBlocks(byte[] file, Map<Long, Long> blockStarts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        int offset = 0;
+        while (offset < file.length) {
+            int blockSize = (buffer.getShort(offset + 16) & 0xFFFF) + 1;
+            int size = buffer.getInt(offset + blockSize - 4);
+            byte[] data = new byte[size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(file, offset + 18, blockSize - 26);
+                int n = 0;
+                while (n < size) {
+                    n += inflater.inflate(data, n, size - n);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt BGZF block at offset " + offset, e);
+            } finally {
+                inflater.end();
+            }
+            blockStarts.put((long) offset, (long) out.size());
+            out.write(data);
+            offset += blockSize;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 把虚拟偏移量换算为未压缩数据中的位置；块号不存在时返回 -1。
+     */
+    private static long resolve(long virtualOffset, Map<Long, Long> blockStarts) {
+        Long start = blockStarts.get(virtualOffset >>> 16);
+        return start == null ? -1 : start + (virtualOffset & 0xFFFF);
+    }
+}
@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * CheckpointCheck类对检查点（Checkpoint）做续跑检查：相同签名重新打开时沿用全部单元，分段文件被截断时只沿用完整的单元，
+ * 签名不同或没有 --resume 时从头开始。
+ */
+public class CheckpointCheck {
+    /**
+     * @param seed 随机种子。
+     */
+    static void run(long seed) throws IOException {
+        Random random = new Random(seed);
+        Path dir = Files.createTempDirectory("g4check");
+        try {
+            checkResume(random, dir.resolve("checkpoint"));
+        } finally {
+            DirectoryCleaner.clearDirectory(dir.toString());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * 检查点：写完全部单元后以相同签名重新打开应沿用全部单元；分段文件被截断时只沿用完整的单元，
+     * 补写其余单元后分段文件应与原来相同；签名不同时应从头开始并清空目录。
+     */
+    private static void checkResume(Random random, Path dir) throws IOException {
+        List<String> headers = List.of("chr1", "chr2 description", "chrX", "scaffold_7", "chrM");
+        int[] strands = { RunMetrics.FORWARD, RunMetrics.REVERSE };
+        G4Engine engine = new G4Scanner();
+        List<G4Hits> results = new ArrayList<>();
+        for (int i = 0; i < headers.size(); i++) {
+            byte[] sequence = ScannerCheck.randomSequence(random, 5000 + random.nextInt(20000));
+            results.add(engine.match(sequence, 0, sequence.length, 0));
+        }
+        Map<Integer, byte[]> contents = new HashMap<>();
+        try (Checkpoint checkpoint = new Checkpoint(dir, "sig\tv1", headers, true)) {
+            for (int i = 0; i < headers.size(); i++) {
+                for (int strand : strands) {
+                    checkpoint.write(strand, headers.get(i), results.get(i), strand == RunMetrics.REVERSE);
+                }
+            }
+            for (int strand : strands) {
+                contents.put(strand, Files.readAllBytes(checkpoint.part(strand, headers)));
+            }
+        }
+
+        Path damaged;
+        try (Checkpoint checkpoint = new Checkpoint(dir, "sig\tv1", headers, true)) {
+            SelfCheck.check(checkpoint.completed() == headers.size() * 2, "checkpoint resume kept "
+                    + checkpoint.completed() + " units / 检查点续跑沿用的单元数不符");
+            for (int strand : strands) {
+                SelfCheck.check(Arrays.equals(contents.get(strand), Files.readAllBytes(checkpoint.part(strand, headers))),
+                        "checkpoint part changed / 检查点分段文件改变: " + strand);
+            }
+            damaged = checkpoint.part(RunMetrics.REVERSE, headers);
+        }
+        // 截断负链的分段文件并追加半行，模拟写入时中断
+        byte[] bytes = contents.get(RunMetrics.REVERSE);
+        Files.write(damaged, Arrays.copyOf(bytes, bytes.length / 2));
+        Files.write(damaged, "chrX\t1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (Checkpoint checkpoint = new Checkpoint(dir, "sig\tv1", headers, true)) {
+            int kept = 0;
+            while (kept < headers.size() && checkpoint.isDone(RunMetrics.REVERSE, headers.get(kept))) {
+                kept++;
+            }
+            SelfCheck.check(kept < headers.size() && checkpoint.completed() == headers.size() + kept,
+                    "truncated checkpoint part was kept / 截断的检查点分段文件被沿用");
+            for (int i = kept; i < headers.size(); i++) {
+                checkpoint.write(RunMetrics.REVERSE, headers.get(i), results.get(i), true);
+            }
+            SelfCheck.check(Arrays.equals(bytes, Files.readAllBytes(checkpoint.part(RunMetrics.REVERSE, headers))),
+                    "checkpoint part differs after resuming / 续跑后检查点分段文件不同");
+        }
+
+        try (Checkpoint checkpoint = new Checkpoint(dir, "sig\tv2", headers, true)) {
+            SelfCheck.check(checkpoint.completed() == 0, "checkpoint resumed with another signature / 签名不同时仍然续跑");
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            int count = 0;
+            for (Path ignored : files) {
+                count++;
+            }
+            SelfCheck.check(count == 1, "checkpoint directory not cleared / 检查点目录没有清空: " + count + " files");
+        }
+
+        try (Checkpoint checkpoint = new Checkpoint(dir, "sig\tv2", headers, false)) {
+            SelfCheck.check(checkpoint.completed() == 0, "checkpoint resumed without --resume / 没有 --resume 时仍然续跑");
+        }
+        System.out.println("Checkpoint manifest round trips / 检查点清单往返: ok");
+    }
+}
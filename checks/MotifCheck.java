@@ -0,0 +1,74 @@
+import java.util.Random;
+
+/**
+ * MotifCheck类检查自定义模式（--motifs）：随机生成模式配置（G串数、G串和环的长度范围、缺陷、延伸次数），
+ * 每个配置在一批随机序列上对比 G4Scanner(motifs) 与 G4_Base(motifs) 的输出，并检查 findCut 在该配置下给出的切分点。
+ */
+public class MotifCheck {
+    // 每个随机模式配置检查的序列数
+    private static final int SEQUENCES_PER_MOTIF_SET = 40;
+
+    /**
+     * @param sequences 检查的序列总数，每 SEQUENCES_PER_MOTIF_SET 条一个配置。
+     * @param seed      随机种子，相同的种子生成相同的序列和配置。
+     */
+    static void run(int sequences, long seed) {
+        Random random = new Random(seed);
+        int before = SelfCheck.failures();
+        int motifSets = Math.max(1, sequences / SEQUENCES_PER_MOTIF_SET);
+        for (int m = 0; m < motifSets; m++) {
+            String text = randomMotifs(random);
+            MotifSet motifs = MotifSet.parse(text, "random");
+            G4Engine scanner = new G4Scanner(motifs);
+            G4Engine regex = new G4_Base(motifs);
+            for (int i = 0; i < SEQUENCES_PER_MOTIF_SET; i++) {
+                byte[] sequence = ScannerCheck.randomSequence(random, 20 + random.nextInt(600));
+                ScannerCheck.compare(scanner, regex, sequence, random, text);
+                ScannerCheck.checkCut(scanner, sequence, text);
+            }
+        }
+        System.out.println("Scanner vs regex, random motifs: " + motifSets + " motif sets x "
+                + SEQUENCES_PER_MOTIF_SET + " sequences / 随机模式: " + motifSets + " 个配置, 每个 "
+                + SEQUENCES_PER_MOTIF_SET + " 条序列");
+        if (SelfCheck.failures() > before) {
+            System.out.println("Motif check failed / 自定义模式检查失败");
+        }
+    }
+
+    /**
+     * 随机的 --motifs 配置，1 到 3 个类别，范围保持较小，使正则引擎在随机序列上也能很快完成。
+     */
+    static String randomMotifs(Random random) {
+        StringBuilder text = new StringBuilder();
+        int classes = 1 + random.nextInt(3);
+        for (int c = 0; c < classes; c++) {
+            int defect = random.nextInt(4);
+            int tracts = (defect == 3 ? 2 : 1) + random.nextInt(defect == 3 ? 3 : 4);
+            // 凸起和空位中的G串少一个碱基，仍需至少 2 个
+            int tractMin = (defect == 1 || defect == 2 ? 3 : 2) + random.nextInt(2);
+            String tract = random.nextBoolean() ? tractMin + "+" : tractMin + "-" + (tractMin + random.nextInt(3));
+            int loopMin = random.nextInt(3);
+            int loopMax = Math.max(1, loopMin) + random.nextInt(6);
+            text.append("M").append(c).append(" tracts=").append(tracts).append(" tract=").append(tract)
+                    .append(" loop=").append(loopMin).append('-').append(loopMax);
+            switch (defect) {
+                case 1:
+                    text.append(" defect=bulge:").append(1 + random.nextInt(3));
+                    break;
+                case 2:
+                    text.append(" defect=vacancy");
+                    break;
+                case 3:
+                    text.append(" defect=loop:").append(loopMax + random.nextInt(8));
+                    break;
+                default:
+                    break;
+            }
+            if (random.nextBoolean()) {
+                text.append(" extend=").append(random.nextInt(3));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ResultCacheCheck类对结果缓存（ResultCache）做往返检查：编码后解码应得到相同的结果，改动任意一个字节或截断后应解码失败；
+ * 经过缓存目录写入的结果应能读回，重新打开目录后仍然命中，目录大小不超过上限，其他模式版本的键不会命中。
+ */
+public class ResultCacheCheck {
+    /**
+     * @param count 编码往返的序列数。
+     * @param seed  随机种子。
+     */
+    static void run(int count, long seed) throws IOException {
+        Random random = new Random(seed);
+        Path dir = Files.createTempDirectory("g4check");
+        try {
+            checkResultCache(random, count, dir.resolve("results"));
+        } finally {
+            DirectoryCleaner.clearDirectory(dir.toString());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**
+     * 结果缓存：编码、解码的往返，损坏数据的检测，以及通过缓存目录的读写和淘汰。
+     */
+    private static void checkResultCache(Random random, int count, Path dir) throws IOException {
+        G4Engine engine = new G4Scanner();
+        for (int i = 0; i < count; i++) {
+            byte[] sequence = ScannerCheck.randomSequence(random, 20 + random.nextInt(3000));
+            G4Hits hits = engine.match(sequence, 0, sequence.length, 0);
+            byte[] data = ResultCache.encode(hits);
+            G4Hits decoded = ResultCache.decode(data, sequence, engine.types());
+            SelfCheck.check(decoded != null && sameHits(hits, decoded), "result cache round trip / 结果缓存往返: "
+                    + hits.size() + " hits");
+
+            byte[] corrupt = data.clone();
+            corrupt[random.nextInt(corrupt.length)] ^= (byte) (1 + random.nextInt(255));
+            SelfCheck.check(ResultCache.decode(corrupt, sequence, engine.types()) == null,
+                    "corrupt result cache entry was accepted / 损坏的结果缓存被读取");
+            byte[] truncated = Arrays.copyOf(data, random.nextInt(data.length));
+            SelfCheck.check(ResultCache.decode(truncated, sequence, engine.types()) == null,
+                    "truncated result cache entry was accepted / 截断的结果缓存被读取");
+        }
+
+        // 经过缓存目录：写入、读取、重新打开后读取，以及超过上限时淘汰
+        long maxBytes = 1 << 16;
+        ResultCache cache = new ResultCache(dir, maxBytes);
+        List<byte[]> sequences = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] sequence = ScannerCheck.randomSequence(random, 1000 + random.nextInt(3000));
+            sequences.add(sequence);
+            String key = ResultCache.key(engine.motifVersion(), sequence);
+            G4Hits hits = engine.match(sequence, 0, sequence.length, 0);
+            cache.put(key, hits);
+            G4Hits cached = cache.get(key, sequence, engine.types());
+            SelfCheck.check(cached != null && sameHits(hits, cached), "result cache get after put / 结果缓存写入后读取");
+        }
+        SelfCheck.check(directorySize(dir) <= maxBytes, "result cache exceeds its size limit / 结果缓存超过大小上限: "
+                + directorySize(dir) + " > " + maxBytes);
+        byte[] last = sequences.get(sequences.size() - 1);
+        ResultCache reopened = new ResultCache(dir, maxBytes);
+        G4Hits cached = reopened.get(ResultCache.key(engine.motifVersion(), last), last, engine.types());
+        SelfCheck.check(cached != null && sameHits(engine.match(last, 0, last.length, 0), cached),
+                "result cache entry lost after reopening / 重新打开后结果缓存丢失");
+        SelfCheck.check(reopened.get(ResultCache.key("other", last), last, engine.types()) == null,
+                "result cache hit for another motif version / 其他模式版本命中了结果缓存");
+        System.out.println("Result cache round trips: " + count + " / 结果缓存往返: " + count);
+    }
+
+    private static boolean sameHits(G4Hits expected, G4Hits actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.start(i) != actual.start(i) || expected.end(i) != actual.end(i)
+                    || expected.type(i) != actual.type(i) || !expected.text(i).equals(actual.text(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long directorySize(Path dir) throws IOException {
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+}
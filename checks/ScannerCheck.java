@@ -0,0 +1,125 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ScannerCheck类对比单遍扫描引擎 G4Scanner 与正则引擎 G4_Base 在随机序列上的输出，两者应逐条相同
+ * （相同的起点、终点、类型和顺序）。另外检查安全切分点：在 findCut 给出的各个位置切开后分别匹配各段，
+ * 结果应与整段匹配相同，分块和流式窗口都依赖这一点。
+ */
+public class ScannerCheck {
+    /**
+     * @param sequences 检查的序列数。
+     * @param seed      随机种子，相同的种子生成相同的序列。
+     */
+    static void run(int sequences, long seed) {
+        Random random = new Random(seed);
+        int before = SelfCheck.failures();
+        G4Engine scanner = new G4Scanner();
+        G4Engine regex = new G4_Base();
+        for (int i = 0; i < sequences; i++) {
+            byte[] sequence = randomSequence(random, 20 + random.nextInt(1500));
+            compare(scanner, regex, sequence, random, "built-in");
+            checkCut(scanner, sequence, "built-in");
+        }
+        System.out.println("Scanner vs regex, built-in motifs: " + sequences + " sequences / 内置模式: "
+                + sequences + " 条序列");
+        if (SelfCheck.failures() > before) {
+            System.out.println("Scanner check failed / 匹配引擎检查失败");
+        }
+    }
+
+    /**
+     * 在整条序列和一个随机的子区间（带偏移量）上对比两个引擎。
+     */
+    static void compare(G4Engine expected, G4Engine actual, byte[] sequence, Random random, String motifs) {
+        compareHits(expected.match(sequence, 0, sequence.length, 0), actual.match(sequence, 0, sequence.length, 0),
+                sequence, motifs);
+        int from = random.nextInt(sequence.length);
+        int to = from + random.nextInt(sequence.length - from + 1);
+        int offset = random.nextInt(1 << 20);
+        compareHits(expected.match(sequence, from, to, offset), actual.match(sequence, from, to, offset), sequence,
+                motifs + " [" + from + ", " + to + ") +" + offset);
+    }
+
+    private static void compareHits(G4Hits regex, G4Hits scan, byte[] sequence, String context) {
+        boolean same = regex.size() == scan.size();
+        for (int i = 0; same && i < regex.size(); i++) {
+            same = regex.start(i) == scan.start(i) && regex.end(i) == scan.end(i) && regex.type(i) == scan.type(i);
+        }
+        SelfCheck.check(same, () -> "engines differ / 引擎输出不同 (" + context + "): regex " + rows(regex) + ", scan "
+                + rows(scan) + ", sequence " + new String(sequence, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * 在 findCut 给出的每个切分点处切开，各段分别匹配的结果合起来应与整段相同。
+     */
+    static void checkCut(G4Engine engine, byte[] sequence, String motifs) {
+        List<Integer> cuts = new ArrayList<>();
+        int cut = engine.findCut(sequence, 0, sequence.length);
+        while (cut > 0) {
+            cuts.add(0, cut);
+            cut = engine.findCut(sequence, 0, cut - 1);
+        }
+        if (cuts.isEmpty()) {
+            return;
+        }
+        List<G4Hits> parts = new ArrayList<>();
+        int from = 0;
+        for (int c : cuts) {
+            parts.add(engine.match(sequence, from, c, 0));
+            from = c;
+        }
+        parts.add(engine.match(sequence, from, sequence.length, 0));
+        List<String> whole = rows(engine.match(sequence, 0, sequence.length, 0).sortedByPosition());
+        List<String> split = rows(G4Hits.merge(parts).sortedByPosition());
+        SelfCheck.check(whole.equals(split), () -> "cuts at " + cuts + " change the hits / 在 " + cuts
+                + " 处切开改变了结果 (" + motifs + "): " + whole + " vs " + split);
+    }
+
+    private static List<String> rows(G4Hits hits) {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < hits.size(); i++) {
+            rows.add(hits.start(i) + "-" + hits.end(i) + ":" + hits.type(i));
+        }
+        return rows;
+    }
+
+    /**
+     * 随机序列：G+C 比例和插入G串（或C串）的密度每条不同，偶尔夹有小写区段和 N 区段。
+     */
+    static byte[] randomSequence(Random random, int length) {
+        double gc = 0.3 + 0.6 * random.nextDouble();
+        double tractRate = 0.15 * random.nextDouble();
+        byte[] sequence = new byte[length];
+        int i = 0;
+        while (i < length) {
+            double r = random.nextDouble();
+            if (r < tractRate) {
+                byte base = random.nextBoolean() ? (byte) 'G' : (byte) 'C';
+                int run = 2 + random.nextInt(5);
+                for (int k = 0; k < run && i < length; k++) {
+                    sequence[i++] = base;
+                }
+            } else if (r < tractRate + 0.002) {
+                int run = 1 + random.nextInt(10);
+                for (int k = 0; k < run && i < length; k++) {
+                    sequence[i++] = 'N';
+                }
+            } else {
+                double b = random.nextDouble();
+                sequence[i++] = b < gc / 2 ? (byte) 'G' : b < gc ? (byte) 'C' : b < (1 + gc) / 2 ? (byte) 'A'
+                        : (byte) 'T';
+            }
+        }
+        if (random.nextInt(10) == 0) {
+            int from = random.nextInt(length);
+            int to = from + random.nextInt(length - from + 1);
+            for (int k = from; k < to; k++) {
+                sequence[k] = (byte) Character.toLowerCase(sequence[k]);
+            }
+        }
+        return sequence;
+    }
+}
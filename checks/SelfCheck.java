@@ -0,0 +1,60 @@
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * SelfCheck类运行全部自检：匹配引擎的差分检查（ScannerCheck）、自定义模式下的差分检查（MotifCheck）、
+ * 结果缓存的往返检查（ResultCacheCheck）、BGZF 和 tabix 索引的往返检查（BgzfCheck）以及检查点的续跑检查（CheckpointCheck）。
+ * <p>
+ * 主程序没有测试目录，这些检查与 benchmarks/ 一样放在 src/ 之外，位于默认包中，可以直接调用包内可见的方法。
+ * 与 src/ 一起编译后运行，任何一项不一致时打印差异并以状态 1 退出：
+ * <pre>
+ * javac -encoding UTF-8 -d out src/*.java checks/*.java
+ * java -cp out SelfCheck [序列数] [随机种子]
+ * </pre>
+ */
+public class SelfCheck {
+    // 每项检查最多打印的差异数
+    private static final int MAX_REPORTS = 5;
+
+    private static int failures;
+    private static int checks;
+
+    /**
+     * 记录一项检查，不成立时打印信息。
+     */
+    static void check(boolean ok, String message) {
+        check(ok, () -> message);
+    }
+
+    /**
+     * 与 check(boolean, String) 相同，信息只在检查不成立时生成。
+     */
+    static void check(boolean ok, Supplier<String> message) {
+        checks++;
+        if (!ok) {
+            failures++;
+            if (failures <= MAX_REPORTS) {
+                System.out.println("FAIL: " + message.get());
+            }
+        }
+    }
+
+    static int failures() {
+        return failures;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int sequences = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        long started = System.nanoTime();
+        ScannerCheck.run(sequences, seed);
+        MotifCheck.run(sequences / 4, seed);
+        ResultCacheCheck.run(Math.max(100, sequences / 10), seed);
+        BgzfCheck.run(Math.max(100, sequences / 10), seed);
+        CheckpointCheck.run(seed);
+        long seconds = (System.nanoTime() - started) / 1_000_000_000L;
+        System.out.println(checks + " checks, " + failures + " failed, " + seconds + " s / " + checks + " 项检查, "
+                + failures + " 项失败, " + seconds + " 秒");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+}
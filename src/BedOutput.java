@@ -1,14 +1,17 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * BedOutput 类用于生成 BED 格式的文件。
  * BED 格式是一种常见的基因组数据格式，用于表示基因组中的区间或特征。
+ * 每个输出文件在第一次写入时打开一个 BedWriter，之后一直复用，直到调用 close；
+ * 写入不同文件的线程互不阻塞，写入同一文件的调用由该文件的写出器串行化。
  */
-public class BedOutput {
+public class BedOutput implements Closeable {
     // 定义BED文件的列标题，这些标题对应着每行数据的各个字段
     private static String[] headers = {
             "chromosome", // 染色体编号
@@ -21,6 +24,9 @@ public class BedOutput {
             "G4_type" // 识别到的G4类别
     };
 
+    // 已打开的写出器，按输出路径索引
+    private final Map<String, BedWriter> writers = new LinkedHashMap<>();
+
     /**
      * 将给定的数据写入BED格式的文件。
      * BED格式是一种用于表示基因组数据的常见格式，此函数将二维字符串数组的数据写入到指定路径的文件中，每行代表一个基因组区间。
@@ -39,42 +45,102 @@ public class BedOutput {
      * @throws IOException 如果在写入文件过程中发生I/O错误。
      */
     public void writeBEDFile(String outputPath, String[][] data) throws IOException {
-        boolean hasHeader = false;
-        
-        // 检查文件是否存在及是否有标题
-        try (BufferedReader reader = new BufferedReader(new FileReader(outputPath))) {
-            String firstLine = reader.readLine();
-            if (firstLine != null && firstLine.trim().equals(String.join("\t", headers))) {
-                hasHeader = true;
-            }
-        } catch (IOException e) {
-            // 文件不存在或者读取失败，忽略
+        BedWriter writer = writer(outputPath);
+        synchronized (writer) {
+            writer.write(data);
         }
+    }
 
-        // 使用 BufferedWriter 提高文件写入性能，并指定为追加模式
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath, true))) {
-            // 如果没有标题，写入列头
-            if (!hasHeader) {
-                for (int i = 0; i < headers.length; i++) {
-                    writer.write(headers[i]);
-                    if (i < headers.length - 1) {
-                        writer.write("\t");
-                    }
-                }
-                writer.newLine(); // 写入一行空行作为标题行和数据行的分隔
+    /**
+     * 将一条染色体的匹配结果直接写入BED格式的文件，列与 headers 相同。
+     * 区间ID、长度和序列在写出时才格式化，不经过中间的字符串数组。
+     *
+     * @param outputPath 文件输出的路径，包括文件名和扩展名。
+     * @param chromosome 染色体编号。
+     * @param strand     链的方向（"+" 或 "-"）。
+     * @param hits       匹配结果。
+     * @return 写出的字节数。
+     * @throws IOException 如果在写入文件过程中发生I/O错误。
+     */
+    public long writeBEDFile(String outputPath, String chromosome, String strand, G4Hits hits) throws IOException {
+        return writeBEDFile(outputPath, chromosome, strand, hits, false);
+    }
+
+    /**
+     * 将一条染色体的匹配结果写入BED格式的文件。complement 为 true 时写出匹配文本的互补序列，
+     * 由一次正链扫描的结果写出负链文件时使用。
+     *
+     * @param outputPath 文件输出的路径，包括文件名和扩展名。
+     * @param chromosome 染色体编号。
+     * @param strand     链的方向（"+" 或 "-"）。
+     * @param hits       匹配结果。
+     * @param complement 是否写出互补序列。
+     * @return 写出的字节数。
+     * @throws IOException 如果在写入文件过程中发生I/O错误。
+     */
+    public long writeBEDFile(String outputPath, String chromosome, String strand, G4Hits hits, boolean complement)
+            throws IOException {
+        BedWriter writer = writer(outputPath);
+        synchronized (writer) {
+            return writer.write(chromosome, strand, hits, complement);
+        }
+    }
+
+    /**
+     * 新建（覆盖）BED文件，写入列标题，然后依次写入各个文件中的行，用于把分段写出的结果合并为最终结果。
+     *
+     * @param outputPath 文件输出的路径；以 .gz 结尾时写出BGZF压缩的文件和 tabix 索引。
+     * @param parts      不含列标题的BED文件，按顺序合并。
+     * @throws IOException 如果在读写文件过程中发生I/O错误。
+     */
+    public void concatenate(String outputPath, List<Path> parts) throws IOException {
+        try (BedWriter writer = new BedWriter(outputPath, String.join("\t", headers), false)) {
+            for (Path part : parts) {
+                writer.writeRows(part);
             }
+        }
+    }
+
+    /**
+     * 返回列标题行（不含换行符）。
+     */
+    static String headerLine() {
+        return String.join("\t", headers);
+    }
 
-            // 写入数据行
-            for (String[] row : data) {
-                for (int i = 0; i < row.length; i++) {
-                    writer.write(row[i]);
-                    if (i < row.length - 1) {
-                        writer.write("\t");
-                    }
+    /**
+     * 返回输出文件对应的写出器，第一次使用时以追加模式打开。
+     */
+    private synchronized BedWriter writer(String outputPath) throws IOException {
+        BedWriter writer = writers.get(outputPath);
+        if (writer == null) {
+            writer = new BedWriter(outputPath, String.join("\t", headers));
+            writers.put(outputPath, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * 写出全部缓冲的数据并关闭所有文件。之后再次写入时会重新以追加模式打开文件。
+     *
+     * @throws IOException 如果任何一个文件写入失败。
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (BedWriter writer : writers.values()) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
                 }
-                writer.newLine(); // 每行数据写入完毕后，写入一行空行作为分隔
             }
         }
+        writers.clear();
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     /**
@@ -90,8 +156,7 @@ public class BedOutput {
                 { "chr1", "1000", "1050", "id1", "50", "+", "ATCG", "Type1" },
                 { "chr2", "2000", "2050", "id2", "50", "-", "CGTA", "Type2" }
         };
-        BedOutput bedOutput = new BedOutput();
-        try {
+        try (BedOutput bedOutput = new BedOutput()) {
             bedOutput.writeBEDFile(outputPath, data);
             System.out.println("BED file generated successfully.");
         } catch (IOException e) {
@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * BedSorter类对BED文件做外部排序：行按染色体在FASTA中的顺序、起点、终点排序，三者都相同的行保持原来的顺序，
+ * 因此输入相同时输出逐字节相同。
+ * <p>
+ * 染色体的顺序可以事先给定（FASTA中的顺序），也可以取它们在输入中第一次出现的顺序（合并分片的输出时）。
+ * <p>
+ * 行原样保存为字节数组，占用的内存达到上限时把已读入的行排序后写入临时目录中的一个有序段，
+ * 读完后对全部有序段做 k 路归并，内存占用只取决于上限和段数，与输出的大小无关；没有溢出时直接在内存中排序。
+ */
+public class BedSorter {
+    // 每行除字节本身外的估计开销（数组头、Row 对象和引用）
+    private static final int ROW_OVERHEAD = 64;
+    // 归并时每个有序段的读缓冲区
+    private static final int RUN_BUFFER = 1 << 16;
+
+    private final Map<String, Integer> ranks = new HashMap<>();
+    private final Path tempDir;
+    private final long memoryLimit;
+    // 为 true 时没有给定顺序的染色体按第一次出现的顺序排列
+    private final boolean appearanceOrder;
+
+    /**
+     * 一行及其排序键。
+     */
+    private static final class Row {
+        final byte[] line;
+        final int rank;
+        final String chromosome;
+        final int start;
+        final int end;
+
+        Row(byte[] line, int rank, String chromosome, int start, int end) {
+            this.line = line;
+            this.rank = rank;
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // 不在FASTA中的染色体排在最后，按名称排序
+    private static final Comparator<Row> ORDER = Comparator.<Row>comparingInt(row -> row.rank)
+            .thenComparing(row -> row.chromosome)
+            .thenComparingInt(row -> row.start)
+            .thenComparingInt(row -> row.end);
+
+    /**
+     * @param chromosomes FASTA中的染色体顺序。
+     * @param tempDir     存放有序段的目录，不存在时创建。
+     * @param memoryLimit 内存中行的总大小上限（字节）。
+     */
+    public BedSorter(List<String> chromosomes, Path tempDir, long memoryLimit) {
+        for (String chromosome : chromosomes) {
+            ranks.putIfAbsent(chromosome, ranks.size());
+        }
+        this.tempDir = tempDir;
+        this.memoryLimit = memoryLimit;
+        this.appearanceOrder = false;
+    }
+
+    /**
+     * 染色体按在输入中第一次出现的顺序排列。
+     *
+     * @param tempDir     存放有序段的目录，不存在时创建。
+     * @param memoryLimit 内存中行的总大小上限（字节）。
+     */
+    public BedSorter(Path tempDir, long memoryLimit) {
+        this.tempDir = tempDir;
+        this.memoryLimit = memoryLimit;
+        this.appearanceOrder = true;
+    }
+
+    /**
+     * 排序 input 中的行，写入 output（覆盖；以 .gz 结尾时写出BGZF压缩的文件和 tabix 索引）。
+     *
+     * @param input      要排序的BED文件。
+     * @param output     输出文件。
+     * @param headerLine 列标题行，输入中与之相同的行被跳过，输出的第一行写出列标题；为 null 时不处理列标题。
+     * @return 溢出的有序段数，没有溢出时为0。
+     * @throws IOException 如果读写文件时发生I/O错误，或某一行的前三列格式不正确。
+     */
+    public int sort(Path input, Path output, String headerLine) throws IOException {
+        return sort(List.of(input), output, headerLine);
+    }
+
+    /**
+     * 同上，依次读入多个输入文件，一起排序后写入 output。
+     */
+    public int sort(List<Path> inputs, Path output, String headerLine) throws IOException {
+        byte[] header = headerLine == null ? null : (headerLine + "\n").getBytes(StandardCharsets.UTF_8);
+        List<Row> rows = new ArrayList<>();
+        List<Path> runs = new ArrayList<>();
+        long bytes = 0;
+        try {
+            for (Path input : inputs) {
+                try (LineReader reader = new LineReader(Files.newInputStream(input))) {
+                    byte[] line;
+                    while ((line = reader.next()) != null) {
+                        if (header != null && Arrays.equals(line, header)) {
+                            continue;
+                        }
+                        rows.add(parse(line, input));
+                        bytes += line.length + ROW_OVERHEAD;
+                        if (bytes >= memoryLimit) {
+                            runs.add(spill(rows));
+                            rows.clear();
+                            bytes = 0;
+                        }
+                    }
+                }
+            }
+            try (BedWriter writer = new BedWriter(output.toString(), headerLine, false)) {
+                if (runs.isEmpty()) {
+                    rows.sort(ORDER);
+                    for (Row row : rows) {
+                        writer.writeRow(row.line, row.line.length);
+                    }
+                    return 0;
+                }
+                if (!rows.isEmpty()) {
+                    runs.add(spill(rows));
+                    rows.clear();
+                }
+                merge(runs, writer);
+                return runs.size();
+            }
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * 解析一行的前三列。
+     */
+    private Row parse(byte[] line, Path source) throws IOException {
+        int tab1 = indexOf(line, 0);
+        int tab2 = tab1 < 0 ? -1 : indexOf(line, tab1 + 1);
+        int tab3 = tab2 < 0 ? -1 : indexOf(line, tab2 + 1);
+        if (tab3 < 0) {
+            throw new IOException("Malformed BED row in " + source);
+        }
+        String chromosome = new String(line, 0, tab1, StandardCharsets.UTF_8);
+        int rank = appearanceOrder ? ranks.computeIfAbsent(chromosome, key -> ranks.size())
+                : ranks.getOrDefault(chromosome, Integer.MAX_VALUE);
+        try {
+            int start = Integer.parseInt(new String(line, tab1 + 1, tab2 - tab1 - 1, StandardCharsets.US_ASCII));
+            int end = Integer.parseInt(new String(line, tab2 + 1, tab3 - tab2 - 1, StandardCharsets.US_ASCII));
+            return new Row(line, rank, rank == Integer.MAX_VALUE ? chromosome : "", start, end);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed BED row in " + source);
+        }
+    }
+
+    private static int indexOf(byte[] line, int from) {
+        for (int i = from; i < line.length; i++) {
+            if (line[i] == '\t') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 排序内存中的行（稳定排序）并写入一个新的有序段。
+     */
+    private Path spill(List<Row> rows) throws IOException {
+        rows.sort(ORDER);
+        Files.createDirectories(tempDir);
+        Path run = Files.createTempFile(tempDir, "sort-", ".run");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), RUN_BUFFER)) {
+            for (Row row : rows) {
+                out.write(row.line);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * k 路归并全部有序段。键相同时先取编号小的段，而段按输入的顺序生成，因此整体仍是稳定排序。
+     */
+    private void merge(List<Path> runs, BedWriter writer) throws IOException {
+        List<LineReader> readers = new ArrayList<>();
+        try {
+            // 队列中的元素为 {段的编号}，当前行保存在 heads 中
+            Row[] heads = new Row[runs.size()];
+            PriorityQueue<Integer> queue = new PriorityQueue<>((a, b) -> {
+                int c = ORDER.compare(heads[a], heads[b]);
+                return c != 0 ? c : Integer.compare(a, b);
+            });
+            for (int i = 0; i < runs.size(); i++) {
+                LineReader reader = new LineReader(Files.newInputStream(runs.get(i)));
+                readers.add(reader);
+                byte[] line = reader.next();
+                if (line != null) {
+                    heads[i] = parse(line, runs.get(i));
+                    queue.add(i);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int i = queue.poll();
+                writer.writeRow(heads[i].line, heads[i].line.length);
+                byte[] line = readers.get(i).next();
+                if (line != null) {
+                    heads[i] = parse(line, runs.get(i));
+                    queue.add(i);
+                }
+            }
+        } finally {
+            for (LineReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * 按字节读取行（含换行符），不经过字符解码；最后一行缺少换行符时补上。
+     */
+    private static final class LineReader implements Closeable {
+        private final InputStream in;
+        private byte[] line = new byte[1 << 10];
+
+        LineReader(InputStream in) {
+            this.in = new BufferedInputStream(in, RUN_BUFFER);
+        }
+
+        byte[] next() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = (byte) b;
+                if (b == '\n') {
+                    return Arrays.copyOf(line, length);
+                }
+            }
+            if (length == 0) {
+                return null;
+            }
+            byte[] last = Arrays.copyOf(line, length + 1);
+            last[length] = '\n';
+            return last;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,499 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * BedWriter类是一个BED文件的长期写出器：文件只打开一次，所有行直接编码到直接内存 ByteBuffer 中，
+ * 整数不经过字符串，序列按字节整段复制。写满的缓冲区交给后台I/O线程通过 FileChannel 写入磁盘，
+ * 生成数据的线程只在全部缓冲区都在等待写盘时才会等待。
+ * 每个写出器同一时间只能由一个线程写入；不同文件的写出器相互独立，不共用锁。
+ * <p>
+ * 路径以 .gz 结尾时写出BGZF压缩的文件：I/O线程把缓冲区交给 BgzfOutputStream 并行压缩，
+ * 每条染色体的行按起点、终点排序后写出，关闭时在同一目录生成 tabix 索引（路径加上 .tbi）。
+ * 压缩文件不追加，每次打开时重新写入。
+ * <p>
+ * 也可以写入任意的 WritableByteChannel（如扫描服务的HTTP响应、检查点的分段文件），此时不压缩，也不启动I/O线程：
+ * 行编码到一个较小的堆内缓冲区，写满或 flush 时在调用线程中直接写入通道，适合大量创建、短时间使用的写出器。
+ */
+public class BedWriter implements Closeable {
+    // 每个缓冲区的大小，以及缓冲区的数量（一个正在编码，其余在排队或写盘）
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BUFFER_COUNT = 4;
+    // 写入通道的同步写出器只用一个缓冲区
+    private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
+    // 一个整数最多占用的字节数
+    private static final int INT_BYTES = 11;
+    // 写出互补序列时每次转换的字节数
+    private static final int SCRATCH_SIZE = 1 << 13;
+    // 通知I/O线程结束的标记
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel channel;
+    // 压缩输出及其索引，未压缩时为 null
+    private final BgzfOutputStream bgzf;
+    private final TabixIndex index;
+    private final Path indexPath;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFER_COUNT);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFER_COUNT + 1);
+    // 同步写出器为 null
+    private final Thread ioThread;
+    private final byte[] digits = new byte[INT_BYTES];
+    private byte[] scratch;
+    private ByteBuffer current;
+    // 已编码的字节数
+    private long written;
+    // I/O线程遇到的第一个错误，由写入线程在下一次交换缓冲区或关闭时抛出
+    private volatile IOException failure;
+    private boolean closed;
+
+    /**
+     * 以追加模式打开BED文件；文件不存在或第一行不是列标题时先写入列标题。
+     * 路径以 .gz 结尾时改为新建BGZF压缩的文件，并先写入列标题。
+     *
+     * @param outputPath 文件输出的路径。
+     * @param headerLine 列标题行（不含换行符）。
+     * @throws IOException 如果打开文件时发生I/O错误。
+     */
+    public BedWriter(String outputPath, String headerLine) throws IOException {
+        this(outputPath, headerLine, true);
+    }
+
+    /**
+     * 打开BED文件。
+     *
+     * @param outputPath 文件输出的路径。
+     * @param headerLine 列标题行（不含换行符），为 null 时不写列标题。
+     * @param append     为 false 时清空已有的文件重新写入；压缩文件总是重新写入。
+     * @throws IOException 如果打开文件时发生I/O错误。
+     */
+    public BedWriter(String outputPath, String headerLine, boolean append) throws IOException {
+        Path path = Paths.get(outputPath);
+        boolean compressed = outputPath.endsWith(".gz");
+        boolean hasHeader = headerLine == null;
+        if (!compressed && append && !hasHeader && Files.isRegularFile(path)) {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String firstLine = reader.readLine();
+                hasHeader = firstLine != null && firstLine.trim().equals(headerLine);
+            } catch (IOException e) {
+                // 读取失败时按没有标题处理
+            }
+        }
+        if (compressed) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            bgzf = new BgzfOutputStream(Channels.newOutputStream(channel), Runtime.getRuntime().availableProcessors());
+            index = new TabixIndex();
+            indexPath = Paths.get(outputPath + ".tbi");
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+            bgzf = null;
+            index = null;
+            indexPath = null;
+        }
+        ioThread = startIo("bed-writer-" + path.getFileName());
+
+        if (!hasHeader) {
+            putString(headerLine);
+            put((byte) '\n');
+        }
+    }
+
+    /**
+     * 同步写入一个通道，不压缩，不启动I/O线程，关闭时同时关闭通道。
+     *
+     * @param channel    输出通道。
+     * @param headerLine 列标题行（不含换行符），为 null 时不写列标题。
+     * @throws IOException 如果写出列标题时发生I/O错误。
+     */
+    public BedWriter(WritableByteChannel channel, String headerLine) throws IOException {
+        this.channel = channel;
+        bgzf = null;
+        index = null;
+        indexPath = null;
+        ioThread = null;
+        current = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+
+        if (headerLine != null) {
+            putString(headerLine);
+            put((byte) '\n');
+        }
+    }
+
+    /**
+     * 分配缓冲区并启动I/O线程。
+     */
+    private Thread startIo(String name) {
+        for (int i = 0; i < BUFFER_COUNT - 1; i++) {
+            free.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+        current = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        Thread thread = new Thread(this::drain, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 写出一条染色体的匹配结果，列为：染色体、起点、终点、区间ID、长度、链、序列、G4类别。
+     *
+     * @param chromosome 染色体编号。
+     * @param strand     链的方向（"+" 或 "-"）。
+     * @param hits       匹配结果。
+     * @return 写出的字节数。
+     * @throws IOException 如果此前的写盘操作失败。
+     */
+    public long write(String chromosome, String strand, G4Hits hits) throws IOException {
+        return write(chromosome, strand, hits, false);
+    }
+
+    /**
+     * 写出一条染色体的匹配结果。complement 为 true 时序列列写出匹配文本的互补序列，
+     * 用于由正链的匹配结果直接写出负链BED文件。
+     *
+     * @param chromosome 染色体编号。
+     * @param strand     链的方向（"+" 或 "-"）。
+     * @param hits       匹配结果。
+     * @param complement 是否写出互补序列。
+     * @return 写出的字节数。
+     * @throws IOException 如果此前的写盘操作失败。
+     */
+    public long write(String chromosome, String strand, G4Hits hits, boolean complement) throws IOException {
+        long before = written;
+        byte[] name = chromosome.getBytes(StandardCharsets.UTF_8);
+        byte[] strandBytes = strand.getBytes(StandardCharsets.UTF_8);
+        if (index != null) {
+            hits = hits.sortedByPosition();
+        }
+        byte[] sequence = hits.sequence();
+        for (int i = 0; i < hits.size(); i++) {
+            int start = hits.start(i);
+            int end = hits.end(i);
+            long rowStart = written;
+            put(name, 0, name.length);
+            put((byte) '\t');
+            putInt(start);
+            put((byte) '\t');
+            putInt(end);
+            put((byte) '\t');
+            put(name, 0, name.length);
+            put((byte) '_');
+            putInt(start);
+            put((byte) '_');
+            putInt(end);
+            put((byte) '\t');
+            putInt(end - start);
+            put((byte) '\t');
+            put(strandBytes, 0, strandBytes.length);
+            put((byte) '\t');
+            if (complement) {
+                putComplement(sequence, hits.textOffset(i), end - start);
+            } else {
+                put(sequence, hits.textOffset(i), end - start);
+            }
+            put((byte) '\t');
+            putString(hits.typeName(i));
+            put((byte) '\n');
+            if (index != null) {
+                index.add(chromosome, start, end, rowStart, written);
+            }
+        }
+        return written - before;
+    }
+
+    /**
+     * 写出字符串形式的行，每个数组为一行，各列以制表符分隔。
+     *
+     * @throws IOException 如果此前的写盘操作失败。
+     */
+    public void write(String[][] rows) throws IOException {
+        for (String[] row : rows) {
+            long rowStart = written;
+            for (int i = 0; i < row.length; i++) {
+                putString(row[i]);
+                if (i < row.length - 1) {
+                    put((byte) '\t');
+                }
+            }
+            put((byte) '\n');
+            if (index != null) {
+                index.add(row[0], Integer.parseInt(row[1]), Integer.parseInt(row[2]), rowStart, written);
+            }
+        }
+    }
+
+    /**
+     * 原样写出另一个不含列标题的BED文件中的全部行；压缩输出时逐行解析前三列加入索引，要求各行已经排序。
+     *
+     * @param rows 要写出的BED文件。
+     * @throws IOException 如果读取失败、行格式不正确或此前的写盘操作失败。
+     */
+    public void writeRows(Path rows) throws IOException {
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(rows)) {
+            int n;
+            if (index == null) {
+                while ((n = in.read(buf)) > 0) {
+                    put(buf, 0, n);
+                }
+                return;
+            }
+            byte[] line = new byte[1 << 10];
+            int length = 0;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, length * 2);
+                    }
+                    line[length++] = buf[i];
+                    if (buf[i] == '\n') {
+                        putRow(line, length, rows);
+                        length = 0;
+                    }
+                }
+            }
+            if (length > 0) {
+                throw new IOException("Incomplete BED row at the end of " + rows);
+            }
+        }
+    }
+
+    /**
+     * 原样写出一行（含换行符）；压缩输出时解析前三列加入索引，要求各行已经排序。
+     *
+     * @throws IOException 如果行格式不正确或此前的写盘操作失败。
+     */
+    public void writeRow(byte[] line, int length) throws IOException {
+        if (index == null) {
+            put(line, 0, length);
+        } else {
+            putRow(line, length, null);
+        }
+    }
+
+    /**
+     * 写出一行（含换行符）并加入索引。
+     */
+    private void putRow(byte[] line, int length, Path source) throws IOException {
+        long rowStart = written;
+        put(line, 0, length);
+        int tab1 = indexOf(line, 0, length);
+        int tab2 = tab1 < 0 ? -1 : indexOf(line, tab1 + 1, length);
+        int tab3 = tab2 < 0 ? -1 : indexOf(line, tab2 + 1, length);
+        if (tab3 < 0) {
+            throw new IOException("Malformed BED row" + (source == null ? "" : " in " + source));
+        }
+        String chromosome = new String(line, 0, tab1, StandardCharsets.UTF_8);
+        index.add(chromosome, parseInt(line, tab1 + 1, tab2), parseInt(line, tab2 + 1, tab3), rowStart, written);
+    }
+
+    private static int indexOf(byte[] line, int from, int length) {
+        for (int i = from; i < length; i++) {
+            if (line[i] == '\t') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseInt(byte[] line, int from, int to) throws IOException {
+        if (from >= to) {
+            throw new IOException("Malformed BED coordinate");
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Malformed BED coordinate");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private void put(byte b) throws IOException {
+        if (!current.hasRemaining()) {
+            swap();
+        }
+        current.put(b);
+        written++;
+    }
+
+    private void put(byte[] bytes, int off, int len) throws IOException {
+        written += len;
+        while (len > 0) {
+            if (!current.hasRemaining()) {
+                swap();
+            }
+            int n = Math.min(len, current.remaining());
+            current.put(bytes, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * 经过一个小的暂存数组，写出 [off, off + len) 的互补序列。
+     */
+    private void putComplement(byte[] bytes, int off, int len) throws IOException {
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        while (len > 0) {
+            int n = Math.min(len, scratch.length);
+            ConvertSequence.complement(bytes, off, off + n, scratch, 0);
+            put(scratch, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void putString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        put(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 不经过字符串，写出非负整数的十进制形式。
+     */
+    private void putInt(int value) throws IOException {
+        int pos = INT_BYTES;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        put(digits, pos, INT_BYTES - pos);
+    }
+
+    /**
+     * 把当前缓冲区中已编码的行交给I/O线程，不等待写盘完成；同步写出器直接写入通道。缓冲区为空时不做任何事。
+     *
+     * @throws IOException 如果此前的写盘操作失败。
+     */
+    public void flush() throws IOException {
+        if (current.position() > 0) {
+            swap();
+        }
+    }
+
+    /**
+     * 把写满的缓冲区交给I/O线程，并取一个空闲缓冲区继续编码；同步写出器写入通道后继续使用同一个缓冲区。
+     */
+    private void swap() throws IOException {
+        checkFailure();
+        current.flip();
+        if (ioThread == null) {
+            writeFully(current);
+            current.clear();
+            return;
+        }
+        try {
+            full.put(current);
+            current = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing BED file");
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * I/O线程：依次把写满的缓冲区写入文件（压缩输出时交给 BgzfOutputStream）。
+     * 出错后继续回收缓冲区，保证写入线程不会永远等待。
+     */
+    private void drain() {
+        try {
+            while (true) {
+                ByteBuffer buffer = full.take();
+                if (buffer == END) {
+                    return;
+                }
+                try {
+                    if (failure == null && bgzf != null) {
+                        bgzf.write(buffer);
+                    }
+                    while (failure == null && buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                buffer.clear();
+                free.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 写出剩余的数据，等待I/O线程结束并关闭文件；压缩输出同时写出 tabix 索引。
+     *
+     * @throws IOException 如果任何一次写盘操作失败。
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (ioThread == null) {
+            try {
+                current.flip();
+                writeFully(current);
+            } finally {
+                channel.close();
+            }
+            return;
+        }
+        try {
+            current.flip();
+            full.put(current);
+            full.put(END);
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing BED file");
+        } finally {
+            if (bgzf != null) {
+                try {
+                    bgzf.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            channel.close();
+        }
+        checkFailure();
+        if (index != null) {
+            index.write(indexPath, bgzf::virtualOffset);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * BgzfInputStream类读取 BGZF（bgzip）格式的压缩文件。
+ * BGZF 文件由一串相互独立的 gzip 块组成，每块解压后不超过 64 KiB，块头中记录了块的压缩长度。
+ * 调用线程只负责按顺序切出压缩块，解压交给线程池并行完成，解压后的块按原顺序交给读取方，
+ * 同一时间最多预读 threads * 4 个块，内存占用与文件大小无关。
+ */
+public class BgzfInputStream extends InputStream {
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final ExecutorService pool;
+    private final int readAhead;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final byte[] header = new byte[HEADER_SIZE];
+    private boolean endOfInput;
+    private byte[] current = new byte[0];
+    private int position;
+    private long blockOffset;
+
+    /**
+     * @param in      压缩文件的输入流，读取完毕后由本流关闭。
+     * @param threads 解压线程数。
+     */
+    public BgzfInputStream(InputStream in, int threads) {
+        this.in = in;
+        this.readAhead = Math.max(2, threads * 4);
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "bgzf-inflate");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 判断 gzip 文件头是否带有 BGZF 的 "BC" 扩展字段。
+     *
+     * @param head 文件开头的字节，至少 HEADER_SIZE 个。
+     */
+    static boolean isBgzf(byte[] head, int length) {
+        if (length < HEADER_SIZE || (head[0] & 0xFF) != 0x1F || (head[1] & 0xFF) != 0x8B
+                || (head[3] & 0x04) == 0) {
+            return false;
+        }
+        return head[12] == 'B' && head[13] == 'C' && head[14] == 2 && head[15] == 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == current.length && !nextBlock()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int count = 0;
+        while (count < len) {
+            if (position == current.length && !nextBlock()) {
+                break;
+            }
+            int n = Math.min(len - count, current.length - position);
+            System.arraycopy(current, position, buf, off + count, n);
+            position += n;
+            count += n;
+        }
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * 补足预读的块，然后取出最早提交的块。空块（包括文件末尾的 EOF 标记块）直接跳过。
+     */
+    private boolean nextBlock() throws IOException {
+        while (true) {
+            while (!endOfInput && pending.size() < readAhead) {
+                byte[] block = readBlock();
+                if (block == null) {
+                    endOfInput = true;
+                } else {
+                    long offset = blockOffset;
+                    pending.add(pool.submit(() -> inflate(block, offset)));
+                    blockOffset += block.length;
+                }
+            }
+            Future<byte[]> next = pending.poll();
+            if (next == null) {
+                return false;
+            }
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while inflating BGZF block");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            position = 0;
+            if (current.length > 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 读取一个完整的压缩块（包括块头和块尾）；文件结束时返回 null。
+     */
+    private byte[] readBlock() throws IOException {
+        int n = in.readNBytes(header, 0, HEADER_SIZE);
+        if (n == 0) {
+            return null;
+        }
+        if (n < HEADER_SIZE || !isBgzf(header, n)) {
+            throw new IOException("Invalid BGZF block header at offset " + blockOffset);
+        }
+        int extraLength = (header[10] & 0xFF) | (header[11] & 0xFF) << 8;
+        if (extraLength != 6) {
+            throw new IOException("Unsupported BGZF extra field at offset " + blockOffset);
+        }
+        int blockSize = ((header[16] & 0xFF) | (header[17] & 0xFF) << 8) + 1;
+        if (blockSize < HEADER_SIZE + FOOTER_SIZE) {
+            throw new IOException("Invalid BGZF block size at offset " + blockOffset);
+        }
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, HEADER_SIZE);
+        if (in.readNBytes(block, HEADER_SIZE, blockSize - HEADER_SIZE) < blockSize - HEADER_SIZE) {
+            throw new EOFException("Truncated BGZF block at offset " + blockOffset);
+        }
+        return block;
+    }
+
+    /**
+     * 在线程池中解压一个块并校验长度和 CRC32。
+     */
+    private static byte[] inflate(byte[] block, long offset) throws IOException {
+        int footer = block.length - FOOTER_SIZE;
+        long crc = readInt(block, footer) & 0xFFFFFFFFL;
+        int size = readInt(block, footer + 4);
+        if (size < 0 || size > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid BGZF block length at offset " + offset);
+        }
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, HEADER_SIZE, footer - HEADER_SIZE);
+            int n = 0;
+            while (n < size) {
+                int k = inflater.inflate(data, n, size - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != size) {
+                throw new IOException("Corrupt BGZF block at offset " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block at offset " + offset, e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, size);
+        if (checksum.getValue() != crc) {
+            throw new IOException("CRC mismatch in BGZF block at offset " + offset);
+        }
+        return data;
+    }
+
+    private static int readInt(byte[] bytes, int pos) {
+        return (bytes[pos] & 0xFF) | (bytes[pos + 1] & 0xFF) << 8 | (bytes[pos + 2] & 0xFF) << 16
+                | (bytes[pos + 3] & 0xFF) << 24;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        pool.shutdownNow();
+        in.close();
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * BgzfOutputStream类写出 BGZF（bgzip）格式的压缩文件，可以用 bgzip、tabix、samtools 等工具直接读取。
+ * 数据按固定大小切成块，每块解压后为 BLOCK_DATA_SIZE 字节（最后一块可能更短），
+ * 压缩交给线程池并行完成，压缩后的块按原顺序写出，文件末尾写入标准的 EOF 标记块。
+ * 同一时间最多有 threads * 4 个块在压缩，内存占用与文件大小无关。
+ * <p>
+ * 因为块的大小固定，未压缩数据中的任意位置都可以在关闭后换算为 BGZF 虚拟偏移量（见 virtualOffset），
+ * 生成 tabix 索引时只需要记录每行在未压缩数据中的位置。
+ */
+public class BgzfOutputStream extends OutputStream {
+    // 每块未压缩数据的大小，与 htslib 相同，保证无法压缩的数据加上块头块尾后也不超过 64 KiB
+    static final int BLOCK_DATA_SIZE = 0xFF00;
+    private static final int HEADER_SIZE = 18;
+    private static final int FOOTER_SIZE = 8;
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final byte[] EOF_BLOCK = {
+            0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0, (byte) 0xFF, 6, 0, 'B', 'C', 2, 0, 0x1B, 0, 3, 0, 0, 0, 0, 0,
+            0, 0, 0, 0 };
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final int level;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_DATA_SIZE];
+    private int filled;
+    // 每个已写出块在压缩文件中的起始偏移量，下标为块号；关闭后最后一项为 EOF 块的偏移量
+    private long[] blockOffsets = new long[64];
+    private int blocks;
+    private long compressedSize;
+    private boolean closed;
+
+    /**
+     * @param out     压缩文件的输出流，关闭时一并关闭。
+     * @param threads 压缩线程数。
+     */
+    public BgzfOutputStream(OutputStream out, int threads) {
+        this(out, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param out     压缩文件的输出流，关闭时一并关闭。
+     * @param threads 压缩线程数。
+     * @param level   压缩级别，0 到 9。
+     */
+    public BgzfOutputStream(OutputStream out, int threads, int level) {
+        this.out = out;
+        this.level = level;
+        this.maxPending = Math.max(2, threads * 4);
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "bgzf-deflate");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[filled++] = (byte) b;
+        if (filled == BLOCK_DATA_SIZE) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, BLOCK_DATA_SIZE - filled);
+            System.arraycopy(buf, off, block, filled, n);
+            filled += n;
+            off += n;
+            len -= n;
+            if (filled == BLOCK_DATA_SIZE) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * 写出缓冲区中剩余的全部数据。
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = Math.min(buffer.remaining(), BLOCK_DATA_SIZE - filled);
+            buffer.get(block, filled, n);
+            filled += n;
+            if (filled == BLOCK_DATA_SIZE) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * 把当前块交给线程池压缩；在压缩中的块过多时先写出最早的块。
+     */
+    private void submit() throws IOException {
+        byte[] data = block;
+        int length = filled;
+        pending.add(pool.submit(() -> deflate(data, length, level)));
+        block = new byte[BLOCK_DATA_SIZE];
+        filled = 0;
+        while (pending.size() >= maxPending) {
+            writeBlock(pending.poll());
+        }
+    }
+
+    /**
+     * 等待一个块压缩完成并写出，同时记录它的偏移量。
+     */
+    private void writeBlock(Future<byte[]> future) throws IOException {
+        byte[] compressed;
+        try {
+            compressed = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deflating BGZF block");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+        addOffset();
+        out.write(compressed);
+        compressedSize += compressed.length;
+    }
+
+    private void addOffset() {
+        if (blocks == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+        }
+        blockOffsets[blocks++] = compressedSize;
+    }
+
+    /**
+     * 在线程池中压缩一个块；压缩后过大（数据无法压缩）时改为不压缩存储。
+     */
+    private static byte[] deflate(byte[] data, int length, int level) throws IOException {
+        byte[] compressed = deflate(data, length, level, MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE);
+        if (compressed == null) {
+            compressed = deflate(data, length, Deflater.NO_COMPRESSION, MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE);
+        }
+        if (compressed == null) {
+            throw new IOException("BGZF block does not fit in 64 KiB");
+        }
+        int blockSize = HEADER_SIZE + compressed.length + FOOTER_SIZE;
+        byte[] result = new byte[blockSize];
+        result[0] = 0x1F;
+        result[1] = (byte) 0x8B;
+        result[2] = 8;
+        result[3] = 4;
+        result[9] = (byte) 0xFF;
+        result[10] = 6;
+        result[12] = 'B';
+        result[13] = 'C';
+        result[14] = 2;
+        writeShort(result, 16, blockSize - 1);
+        System.arraycopy(compressed, 0, result, HEADER_SIZE, compressed.length);
+        CRC32 checksum = new CRC32();
+        checksum.update(data, 0, length);
+        writeInt(result, blockSize - FOOTER_SIZE, (int) checksum.getValue());
+        writeInt(result, blockSize - 4, length);
+        return result;
+    }
+
+    /**
+     * 压缩为原始 deflate 数据，超过 limit 字节时返回 null。
+     */
+    private static byte[] deflate(byte[] data, int length, int level, int limit) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buf = new byte[limit + 1];
+            int n = 0;
+            while (!deflater.finished() && n < buf.length) {
+                n += deflater.deflate(buf, n, buf.length - n);
+            }
+            return deflater.finished() && n <= limit ? Arrays.copyOf(buf, n) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeShort(byte[] bytes, int pos, int value) {
+        bytes[pos] = (byte) value;
+        bytes[pos + 1] = (byte) (value >>> 8);
+    }
+
+    private static void writeInt(byte[] bytes, int pos, int value) {
+        writeShort(bytes, pos, value);
+        writeShort(bytes, pos + 2, value >>> 16);
+    }
+
+    /**
+     * 把未压缩数据中的位置换算为 BGZF 虚拟偏移量：所在块的压缩偏移量左移 16 位，加上块内偏移。
+     * 只能在 close 之后调用。
+     *
+     * @param position 未压缩数据中的位置，最大为写入的总字节数。
+     */
+    public long virtualOffset(long position) {
+        if (!closed) {
+            throw new IllegalStateException("BGZF stream is still open");
+        }
+        int index = (int) (position / BLOCK_DATA_SIZE);
+        long within = position % BLOCK_DATA_SIZE;
+        return blockOffsets[index] << 16 | within;
+    }
+
+    /**
+     * 压缩并写出剩余的数据和 EOF 块，然后关闭输出流。
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (filled > 0) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(pending.poll());
+            }
+            addOffset();
+            out.write(EOF_BLOCK);
+            compressedSize += EOF_BLOCK.length;
+            closed = true;
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            pool.shutdownNow();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checkpoint类记录一次运行中已完成的（染色体, 链）单元，使中断的运行可以从断点继续。
+ * <p>
+ * 结果按FASTA中的染色体顺序交付（见 G4Scheduler），因此每条链只有一个分段文件，各单元的行依次追加，
+ * 由一个同步的 BedWriter 写出，不为每个单元创建文件。清单文件中每个单元一行，记录链、字节数和染色体名称。
+ * 清单按批同步：每隔 SYNC_INTERVAL_NANOS 先把分段文件同步到磁盘，再追加这段时间内完成的单元并同步清单，
+ * 所以清单中记录的单元在分段文件中都是完整的；进程中断时最多损失最近一批单元，重新匹配即可。
+ * 全部单元完成后把分段文件合并为最终的BED文件，最终文件每次都重新生成，因此重复运行不会产生重复的行。
+ * <p>
+ * 继续运行时，每条链的分段文件截断到清单中最后一个完整单元的末尾，之后的单元接着追加，顺序不变。
+ * 清单的第一行记录格式版本、FASTA文件的路径、大小和修改时间以及输出格式，与本次运行不一致时从头开始。
+ */
+public class Checkpoint implements Closeable {
+    private static final String MANIFEST = "manifest.tsv";
+    private static final String VERSION = "#2";
+    // 清单的同步间隔
+    private static final long SYNC_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int[] STRANDS = { RunMetrics.FORWARD, RunMetrics.REVERSE };
+
+    private final Path dir;
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    // 已完成的单元，键为链和染色体名称
+    private final Map<String, Long> done = new HashMap<>();
+    // 每条链已完成的染色体，按写入分段文件的顺序，以及分段文件中有效数据的长度
+    private final Map<Integer, List<String>> written = new HashMap<>();
+    private final Map<Integer, Long> lengths = new HashMap<>();
+    // 每条链的分段文件及其写出器，第一次写入时打开
+    private final Map<Integer, FileChannel> channels = new HashMap<>();
+    private final Map<Integer, BedWriter> writers = new HashMap<>();
+    // 已写入分段文件、尚未记入清单的行
+    private final StringBuilder pending = new StringBuilder();
+    private long lastSync = System.nanoTime();
+    private final FileChannel manifest;
+
+    /**
+     * 打开检查点目录。resume 为 true 且清单与本次运行一致时沿用已完成的单元，否则清空目录从头开始。
+     *
+     * @param dir       检查点目录。
+     * @param signature 描述输入和输出格式的字符串，不能包含换行符。
+     * @param headers   FASTA中的染色体，按文件中的顺序。
+     * @param resume    是否沿用已完成的单元。
+     * @throws IOException 如果读写检查点目录时发生I/O错误。
+     */
+    public Checkpoint(Path dir, String signature, List<String> headers, boolean resume) throws IOException {
+        this.dir = dir;
+        for (int i = 0; i < headers.size(); i++) {
+            ordinals.put(headers.get(i), i);
+        }
+        for (int strand : STRANDS) {
+            written.put(strand, new ArrayList<>());
+            lengths.put(strand, 0L);
+        }
+        Path manifestPath = dir.resolve(MANIFEST);
+        if (resume && Files.isRegularFile(manifestPath)) {
+            load(manifestPath, signature);
+        }
+        if (done.isEmpty() && Files.isDirectory(dir)) {
+            DirectoryCleaner.clearDirectory(dir.toString());
+        }
+        Files.createDirectories(dir);
+        boolean fresh = !Files.isRegularFile(manifestPath);
+        manifest = FileChannel.open(manifestPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (fresh) {
+            writeManifest(VERSION + "\t" + signature + "\n");
+        }
+    }
+
+    /**
+     * 读取清单；签名不一致时忽略全部记录。每条链从头累加各单元的字节数，超出分段文件长度的单元及其后的单元视为未完成，
+     * 分段文件随后截断到最后一个完整单元的末尾。
+     */
+    private void load(Path manifestPath, String signature) throws IOException {
+        Map<Integer, Long> sizes = new HashMap<>();
+        for (int strand : STRANDS) {
+            Path part = part(strand);
+            sizes.put(strand, Files.isRegularFile(part) ? Files.size(part) : 0L);
+        }
+        Map<Integer, Boolean> broken = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals(VERSION + "\t" + signature)) {
+                return;
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 3 || !fields[0].equals("F") && !fields[0].equals("R")) {
+                    continue;
+                }
+                int strand = fields[0].equals("F") ? RunMetrics.FORWARD : RunMetrics.REVERSE;
+                long end = lengths.get(strand) + Long.parseLong(fields[1]);
+                if (broken.containsKey(strand) || !ordinals.containsKey(fields[2])
+                        || done.containsKey(key(strand, fields[2])) || end > sizes.get(strand)) {
+                    // 之后的单元在分段文件中的位置无法确定
+                    broken.put(strand, true);
+                    continue;
+                }
+                done.put(key(strand, fields[2]), Long.parseLong(fields[1]));
+                written.get(strand).add(fields[2]);
+                lengths.put(strand, end);
+            }
+        }
+        for (int strand : STRANDS) {
+            Path part = part(strand);
+            if (Files.isRegularFile(part) && sizes.get(strand) > lengths.get(strand)) {
+                try (FileChannel channel = FileChannel.open(part, StandardOpenOption.WRITE)) {
+                    channel.truncate(lengths.get(strand));
+                }
+            }
+        }
+    }
+
+    /**
+     * 已完成的单元数。
+     */
+    public synchronized int completed() {
+        return done.size();
+    }
+
+    /**
+     * 判断一条染色体的一条链是否已经完成。
+     */
+    public synchronized boolean isDone(int strand, String header) {
+        return done.containsKey(key(strand, header));
+    }
+
+    /**
+     * 把一个单元的结果追加到这条链的分段文件，并在下一次同步时记入清单。
+     * 同一条链的单元必须按FASTA中的染色体顺序写入。
+     *
+     * @param strand     RunMetrics.FORWARD 或 REVERSE。
+     * @param header     染色体名称。
+     * @param hits       匹配结果。
+     * @param complement 是否写出互补序列。
+     * @return 写出的字节数。
+     * @throws IOException 如果写入时发生I/O错误。
+     */
+    public synchronized long write(int strand, String header, G4Hits hits, boolean complement) throws IOException {
+        BedWriter writer = writer(strand);
+        long bytes = writer.write(header, strand == RunMetrics.FORWARD ? "+" : "-", hits, complement);
+        writer.flush();
+        pending.append(strand == RunMetrics.FORWARD ? "F" : "R").append('\t').append(bytes).append('\t')
+                .append(header).append('\n');
+        done.put(key(strand, header), bytes);
+        written.get(strand).add(header);
+        lengths.put(strand, lengths.get(strand) + bytes);
+        if (System.nanoTime() - lastSync >= SYNC_INTERVAL_NANOS) {
+            sync();
+        }
+        return bytes;
+    }
+
+    /**
+     * 返回一条链的分段文件，其中的行已按染色体顺序排列。返回前先把尚未同步的单元记入清单。
+     *
+     * @throws IOException 如果有单元尚未完成，或分段文件中的顺序与 headers 不同。
+     */
+    public synchronized Path part(int strand, List<String> headers) throws IOException {
+        for (String header : headers) {
+            if (!isDone(strand, header)) {
+                throw new IOException("Checkpoint is missing " + header + (strand == RunMetrics.FORWARD ? " +" : " -"));
+            }
+        }
+        if (!written.get(strand).equals(headers)) {
+            throw new IOException("Checkpoint part " + part(strand) + " is not in chromosome order");
+        }
+        sync();
+        Path part = part(strand);
+        if (!Files.isRegularFile(part)) {
+            // 这条链没有任何行
+            Files.createFile(part);
+        }
+        return part;
+    }
+
+    private BedWriter writer(int strand) throws IOException {
+        BedWriter writer = writers.get(strand);
+        if (writer == null) {
+            FileChannel channel = FileChannel.open(part(strand), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(lengths.get(strand));
+            channels.put(strand, channel);
+            writer = new BedWriter(channel, null);
+            writers.put(strand, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * 先把分段文件同步到磁盘，再把期间完成的单元记入清单并同步。
+     */
+    private void sync() throws IOException {
+        if (pending.length() > 0) {
+            for (FileChannel channel : channels.values()) {
+                channel.force(false);
+            }
+            writeManifest(pending.toString());
+            pending.setLength(0);
+        }
+        lastSync = System.nanoTime();
+    }
+
+    private Path part(int strand) {
+        return dir.resolve(strand == RunMetrics.FORWARD ? "F.bed" : "R.bed");
+    }
+
+    private static String key(int strand, String header) {
+        return strand + "\t" + header;
+    }
+
+    private void writeManifest(String lines) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            manifest.write(buffer);
+        }
+        manifest.force(true);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            try {
+                for (BedWriter writer : writers.values()) {
+                    writer.close();
+                }
+            } finally {
+                writers.clear();
+                channels.clear();
+                manifest.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * CompressedInput类按文件内容（而不是扩展名）打开FASTA文件：
+ * 普通文本直接读取；BGZF（bgzip）文件交给 BgzfInputStream 多线程解压；其他 gzip 文件（包括多个成员拼接的文件）
+ * 用 GZIPInputStream 顺序解压。解压后的数据直接交给解析，不在磁盘上生成解压后的临时文件。
+ */
+public final class CompressedInput {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HEAD_SIZE = 18;
+
+    private CompressedInput() {
+    }
+
+    /**
+     * 打开文件，返回解压后的内容。
+     *
+     * @param file 普通、gzip 或 BGZF 格式的文件。
+     * @return 解压后的输入流。
+     * @throws IOException 如果打开文件时发生I/O错误。
+     */
+    public static InputStream open(Path file) throws IOException {
+        byte[] head = readHead(file);
+        InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        try {
+            if (BgzfInputStream.isBgzf(head, head.length)) {
+                return new BgzfInputStream(in, Runtime.getRuntime().availableProcessors());
+            }
+            if (isGzip(head)) {
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 判断文件是否为 gzip（包括 BGZF）格式。
+     */
+    public static boolean isCompressed(Path file) throws IOException {
+        return isGzip(readHead(file));
+    }
+
+    private static boolean isGzip(byte[] head) {
+        return head.length >= 2 && (head[0] & 0xFF) == 0x1F && (head[1] & 0xFF) == 0x8B;
+    }
+
+    private static byte[] readHead(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.readNBytes(HEAD_SIZE);
+        }
+    }
+}
@@ -1,65 +1,104 @@
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
 public class ConvertSequence {
 
+    // 互补碱基查找表，按字节下标。包括 IUPAC 简并碱基（R/Y、K/M、B/V、D/H 互补，S、W、N 的互补为自身）和 U，
+    // 大小写分别保持；其余字符（如 '-'、'.'、'*'）的互补为自身。
+    private static final byte[] COMPLEMENT = new byte[256];
+
+    static {
+        for (int i = 0; i < COMPLEMENT.length; i++) {
+            COMPLEMENT[i] = (byte) i;
+        }
+        String from = "ACGTURYSWKMBDHVN";
+        String to = "TGCAAYRSWMKVHDBN";
+        for (int i = 0; i < from.length(); i++) {
+            COMPLEMENT[from.charAt(i)] = (byte) to.charAt(i);
+            COMPLEMENT[Character.toLowerCase(from.charAt(i))] = (byte) Character.toLowerCase(to.charAt(i));
+        }
+    }
+
     /**
      * 将DNA序列转换为其互补序列。
-     * DNA互补配对规则是：A与T配对，C与G配对。此函数同时处理大写和小写字母。
+     * DNA互补配对规则是：A与T配对，C与G配对，IUPAC 简并碱基按同样的规则互补。此函数同时处理大写和小写字母。
+     * 与其他读取序列的地方一样，序列按 ISO-8859-1 单字节字符处理。
      *
      * @param sequence 输入的DNA序列，可以包含大写和小写字母。
      * @return 返回转换后的互补序列。
-     * @throws IOException 如果读写操作发生错误。
      */
-    public String convertSequence(String sequence) throws IOException {
-        Reader reader = new StringReader(sequence);
-        BufferedReader bufferedReader = new BufferedReader(reader);
-        StringBuilder result = new StringBuilder();
-        int base;
-        while ((base = bufferedReader.read()) != -1) {
-            // 根据DNA互补配对规则进行转换。
-            switch (base) {
-                case 'A':
-                    result.append('T');
-                    break;
-                case 'C':
-                    result.append('G');
-                    break;
-                case 'T':
-                    result.append('A');
-                    break;
-                case 'G':
-                    result.append('C');
-                    break;
-                case 'a':
-                    result.append('t');
-                    break;
-                case 'c':
-                    result.append('g');
-                    break;
-                case 't':
-                    result.append('a');
-                    break;
-                case 'g':
-                    result.append('c');
-                    break;
-                default:
-                    // 如果遇到非DNA字符，则直接将其添加到结果中。
-                    result.append((char) base);
-            }
+    public String convertSequence(String sequence) {
+        byte[] bases = sequence.getBytes(StandardCharsets.ISO_8859_1);
+        complement(bases, 0, bases.length);
+        return new String(bases, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 返回单个碱基的互补碱基。
+     */
+    public static byte complement(byte base) {
+        return COMPLEMENT[base & 0xFF];
+    }
+
+    /**
+     * 把 source 的 [from, to) 的互补序列写入 target 中从 targetFrom 开始的位置。
+     * source 与 target 可以是同一个数组，此时要求 targetFrom == from。
+     */
+    public static void complement(byte[] source, int from, int to, byte[] target, int targetFrom) {
+        byte[] table = COMPLEMENT;
+        int shift = targetFrom - from;
+        for (int i = from; i < to; i++) {
+            target[i + shift] = table[source[i] & 0xFF];
+        }
+    }
+
+    /**
+     * 就地把 [from, to) 转换为互补序列。
+     */
+    public static void complement(byte[] bases, int from, int to) {
+        complement(bases, from, to, bases, from);
+    }
+
+    /**
+     * 返回 [from, to) 的互补序列（不反转），坐标与原序列一一对应。
+     */
+    public static byte[] complementOf(byte[] bases, int from, int to) {
+        byte[] result = new byte[to - from];
+        complement(bases, from, to, result, 0);
+        return result;
+    }
+
+    /**
+     * 把 source 的 [from, to) 的反向互补序列写入 target 中从 targetFrom 开始的位置，
+     * 即 target[targetFrom] 为 source[to - 1] 的互补碱基。source 与 target 不能重叠。
+     */
+    public static void reverseComplement(byte[] source, int from, int to, byte[] target, int targetFrom) {
+        byte[] table = COMPLEMENT;
+        int j = targetFrom + (to - from) - 1;
+        for (int i = from; i < to; i++) {
+            target[j--] = table[source[i] & 0xFF];
+        }
+    }
+
+    /**
+     * 就地把 [from, to) 转换为反向互补序列。
+     */
+    public static void reverseComplement(byte[] bases, int from, int to) {
+        byte[] table = COMPLEMENT;
+        int i = from;
+        int j = to - 1;
+        while (i < j) {
+            byte left = bases[i];
+            bases[i++] = table[bases[j] & 0xFF];
+            bases[j--] = table[left & 0xFF];
+        }
+        if (i == j) {
+            bases[i] = table[bases[i] & 0xFF];
         }
-        return result.toString();
     }
 
     public static void main(String[] args) {
         ConvertSequence c = new ConvertSequence();
         String sequence = "ATCGatcg";
-        try {
-            System.out.println(c.convertSequence(sequence));
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        System.out.println(c.convertSequence(sequence));
     }
 }
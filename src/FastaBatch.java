@@ -0,0 +1,86 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * FastaBatch类解析批量模式的输入：一个清单文件，或一个匹配多个FASTA文件的通配符。
+ */
+public final class FastaBatch {
+
+    private FastaBatch() {
+    }
+
+    /**
+     * 解析 --batch 参数：包含通配符（* ? [ {）时按通配符匹配文件，否则按清单文件读取。
+     * 清单文件每行一个FASTA文件路径，忽略空行和以 # 开头的行，相对路径相对于清单文件所在的目录。
+     * 通配符中不含通配字符的目录部分作为搜索的起点，例如 genomes/**.fa.gz 在 genomes 下递归查找，
+     * 匹配到的文件按路径排序。
+     *
+     * @param spec 参数值。
+     * @return FASTA文件列表。
+     * @throws IOException 如果清单文件不存在或读取时发生I/O错误。
+     */
+    public static List<Path> expand(String spec) throws IOException {
+        if (isGlob(spec)) {
+            return glob(spec);
+        }
+        return readManifest(Paths.get(spec));
+    }
+
+    private static boolean isGlob(String spec) {
+        for (char c : "*?[{".toCharArray()) {
+            if (spec.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Path> readManifest(Path manifest) throws IOException {
+        Path base = manifest.toAbsolutePath().getParent();
+        List<Path> files = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                files.add(base.resolve(line).normalize());
+            }
+        }
+        return files;
+    }
+
+    private static List<Path> glob(String spec) throws IOException {
+        // 目录部分一直取到第一个通配字符之前的最后一个分隔符
+        int first = spec.length();
+        for (char c : "*?[{".toCharArray()) {
+            int i = spec.indexOf(c);
+            if (i >= 0) {
+                first = Math.min(first, i);
+            }
+        }
+        int slash = spec.lastIndexOf('/', first);
+        Path base = slash < 0 ? Paths.get(".") : Paths.get(spec.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + spec.substring(slash + 1));
+        if (!Files.isDirectory(base)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> walk = Files.walk(base)) {
+            return walk.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,297 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * FastaIndex类读写与 samtools faidx 兼容的 .fai 索引，并按索引直接定位FASTA文件中的任意区间。
+ * 每条染色体在索引中占一行：名称、长度、第一个碱基的字节偏移、每行碱基数、每行字节数（含换行符）。
+ * 与 samtools 相同，要求同一条染色体除最后一行外每行长度相同。
+ */
+public class FastaIndex implements Closeable {
+
+    /**
+     * 索引中的一条记录。
+     */
+    static final class Entry {
+        final String name;
+        final long length;
+        final long offset;
+        final int lineBases;
+        final int lineWidth;
+
+        Entry(String name, long length, long offset, int lineBases, int lineWidth) {
+            this.name = name;
+            this.length = length;
+            this.offset = offset;
+            this.lineBases = lineBases;
+            this.lineWidth = lineWidth;
+        }
+
+        /**
+         * 返回第 pos 个碱基在文件中的字节偏移。
+         */
+        long position(long pos) {
+            return offset + pos / lineBases * lineWidth + pos % lineBases;
+        }
+    }
+
+    // 按 FastaInput.parseHeader 处理后的名称索引，顺序与FASTA文件一致
+    private final Map<String, Entry> entries;
+    private final FileChannel channel;
+
+    private FastaIndex(Map<String, Entry> entries, FileChannel channel) {
+        this.entries = entries;
+        this.channel = channel;
+    }
+
+    /**
+     * 打开FASTA文件的索引。优先复用FASTA文件旁边不旧于它的 .fai 文件；
+     * 否则重新生成，写到FASTA文件旁边，目录不可写时写到 fallbackDir。
+     *
+     * @param fastaFile   FASTA文件路径。
+     * @param fallbackDir FASTA所在目录不可写时存放索引的目录。
+     * @return 打开的索引。
+     * @throws IOException 如果FASTA文件的行长不一致或发生I/O错误。
+     */
+    public static FastaIndex open(Path fastaFile, Path fallbackDir) throws IOException {
+        // .fai 中的偏移量对应解压后的文本，不能用于压缩文件
+        if (CompressedInput.isCompressed(fastaFile)) {
+            throw new IOException("Compressed FASTA files cannot be read through a .fai index: " + fastaFile);
+        }
+        Path indexFile = fastaFile.resolveSibling(fastaFile.getFileName() + ".fai");
+        Path fallbackFile = fallbackDir.resolve(fastaFile.getFileName() + ".fai");
+        List<Entry> list = null;
+        for (Path candidate : new Path[] { indexFile, fallbackFile }) {
+            if (isUpToDate(candidate, fastaFile)) {
+                list = read(candidate);
+                break;
+            }
+        }
+        if (list == null) {
+            list = build(fastaFile);
+            try {
+                write(list, indexFile);
+            } catch (IOException e) {
+                write(list, fallbackFile);
+            }
+        }
+
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        for (Entry entry : list) {
+            entries.put(FastaInput.parseHeader(entry.name), entry);
+        }
+        return new FastaIndex(entries, FileChannel.open(fastaFile, StandardOpenOption.READ));
+    }
+
+    private static boolean isUpToDate(Path indexFile, Path fastaFile) {
+        try {
+            return Files.isRegularFile(indexFile)
+                    && Files.getLastModifiedTime(indexFile).compareTo(Files.getLastModifiedTime(fastaFile)) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 顺序扫描一遍FASTA文件生成索引记录。
+     */
+    static List<Entry> build(Path fastaFile) throws IOException {
+        List<Entry> list = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(fastaFile), 1 << 16)) {
+            String name = null;
+            long length = 0;
+            long offset = 0;
+            int lineBases = -1;
+            int lineWidth = -1;
+            // 上一行是否为短行（或空行），短行之后不能再有序列行
+            boolean shortLine = false;
+
+            long pos = 0;
+            int b = in.read();
+            while (b != -1) {
+                if (b == '>') {
+                    if (name != null) {
+                        list.add(new Entry(name, length, offset, Math.max(lineBases, 0), Math.max(lineWidth, 0)));
+                    }
+                    ByteArrayOutputStream header = new ByteArrayOutputStream();
+                    pos++;
+                    while ((b = in.read()) != -1 && b != '\n') {
+                        header.write(b);
+                        pos++;
+                    }
+                    if (b == '\n') {
+                        pos++;
+                    }
+                    name = new String(header.toByteArray(), StandardCharsets.ISO_8859_1).trim().split("\\s+")[0];
+                    length = 0;
+                    offset = pos;
+                    lineBases = -1;
+                    lineWidth = -1;
+                    shortLine = false;
+                    b = in.read();
+                    continue;
+                }
+
+                // 读取一行序列，统计碱基数和含换行符的字节数
+                int bases = 0;
+                int width = 0;
+                while (b != -1 && b != '\n') {
+                    if (b != '\r') {
+                        bases++;
+                    }
+                    width++;
+                    b = in.read();
+                }
+                if (b == '\n') {
+                    width++;
+                    b = in.read();
+                }
+                pos += width;
+                if (name == null) {
+                    if (bases > 0) {
+                        throw new IOException("Sequence before the first header in " + fastaFile);
+                    }
+                    continue;
+                }
+                if (bases == 0) {
+                    shortLine = true;
+                    continue;
+                }
+                if (shortLine) {
+                    throw new IOException("Different line length in sequence '" + name + "' of " + fastaFile);
+                }
+                if (lineBases < 0) {
+                    lineBases = bases;
+                    lineWidth = width;
+                } else if (bases > lineBases || (bases == lineBases && width != lineWidth)) {
+                    throw new IOException("Different line length in sequence '" + name + "' of " + fastaFile);
+                } else if (bases < lineBases) {
+                    shortLine = true;
+                }
+                length += bases;
+            }
+            if (name != null) {
+                list.add(new Entry(name, length, offset, Math.max(lineBases, 0), Math.max(lineWidth, 0)));
+            }
+        }
+        return list;
+    }
+
+    private static List<Entry> read(Path indexFile) throws IOException {
+        List<Entry> list = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 5) {
+                    throw new IOException("Malformed index line in " + indexFile + ": " + line);
+                }
+                list.add(new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 先写临时文件再重命名，避免其他进程读到不完整的索引。
+     */
+    private static void write(List<Entry> list, Path indexFile) throws IOException {
+        Files.createDirectories(indexFile.toAbsolutePath().getParent());
+        // 临时文件名唯一，多个进程同时建立索引时互不覆盖；不用 createTempFile，以免索引文件只有创建者可读
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.ISO_8859_1,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                for (Entry entry : list) {
+                    writer.write(entry.name + "\t" + entry.length + "\t" + entry.offset + "\t"
+                            + entry.lineBases + "\t" + entry.lineWidth + "\n");
+                }
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 获取所有染色体名称，顺序与FASTA文件一致。
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public int getLength(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? 0 : (int) entry.length;
+    }
+
+    /**
+     * 读取染色体上 [start, end) 区间的碱基，只读取区间对应的字节。
+     * 可以被多个线程同时调用。
+     *
+     * @param name  染色体名称。
+     * @param start 区间起点（从0开始，包含）。
+     * @param end   区间终点（不包含），超过染色体长度时截断。
+     * @return 区间内的碱基，每个碱基一个字节。
+     * @throws IOException 如果染色体不存在或读取文件时发生I/O错误。
+     */
+    public byte[] read(String name, int start, int end) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IOException("Sequence not found for header: " + name);
+        }
+        end = (int) Math.min(end, entry.length);
+        if (start >= end) {
+            return new byte[0];
+        }
+        long first = entry.position(start);
+        long last = entry.position(end - 1) + 1;
+        ByteBuffer raw = ByteBuffer.allocate((int) (last - first));
+        while (raw.hasRemaining()) {
+            if (channel.read(raw, first + raw.position()) < 0) {
+                throw new IOException("Unexpected end of FASTA file while reading " + name);
+            }
+        }
+
+        // 去掉行尾的换行符
+        byte[] bytes = raw.array();
+        byte[] bases = new byte[end - start];
+        int j = 0;
+        for (byte b : bytes) {
+            if (b != '\n' && b != '\r') {
+                bases[j++] = b;
+            }
+        }
+        return bases;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,22 +1,46 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
-import java.util.zip.*;
 
 /**
  * FastaInput类用于读取和处理FASTA格式的文件。
- * 该类将FASTA文件按染色体分割成不同的压缩二进制文件并缓存到指定位置。
+ * 该类把FASTA文件中的全部染色体保存为一个2比特压缩的缓存文件（见 PackedSequenceStore），读取时通过内存映射解码。
+ * 缓存文件与源FASTA文件对应，源文件未变时再次运行会直接复用缓存，跳过分割步骤。
+ * 缓存文件由 SequenceCache 管理，多个进程可以共用同一个缓存文件夹；使用期间持有缓存文件的共享锁，直到调用 close。
+ * 只需要少数区间时可以改用索引模式：不生成缓存文件，而是通过 .fai 索引（见 FastaIndex）直接定位到区间所在的字节。
+ * gzip 和 BGZF 压缩的FASTA文件在生成缓存时直接解压读取（见 CompressedInput），但不能使用索引模式。
+ * 无法建立索引的FASTA文件（如行长不一致）在索引模式下改为生成缓存文件。
  */
-public class FastaInput {
-    private final Map<String, Path> chromosomeFiles;
+public class FastaInput implements Closeable {
     private final Path cacheDir;
+    private SequenceCache.Lease lease;
+    private PackedSequenceStore store;
+    private FastaIndex index;
 
     /**
-     * 构造函数初始化一个空的染色体文件映射和缓存目录。
+     * 构造函数打开或生成FASTA文件对应的缓存文件。
      */
     public FastaInput(String filePath, String cacheDirPath) {
-        chromosomeFiles = new HashMap<>();
+        this(filePath, cacheDirPath, false);
+    }
+
+    /**
+     * 构造函数。
+     *
+     * @param indexed 为 true 时使用 .fai 索引直接读取FASTA文件，不生成缓存文件；无法建立索引时仍生成缓存文件。
+     */
+    public FastaInput(String filePath, String cacheDirPath, boolean indexed) {
         cacheDir = Paths.get(cacheDirPath);
+        if (indexed) {
+            try {
+                index = FastaIndex.open(Paths.get(filePath), cacheDir);
+                return;
+            } catch (IOException e) {
+                System.out.println("Cannot index " + filePath + " (" + e.getMessage()
+                        + "), using the sequence cache instead / 无法为FASTA文件建立索引, 改用序列缓存");
+            }
+        }
         try {
             Files.createDirectories(cacheDir);
         } catch (IOException e) {
@@ -26,54 +50,47 @@ public class FastaInput {
     }
 
     /**
-     * 将FASTA文件按染色体分割成不同的压缩二进制文件并缓存到指定位置。
+     * 将FASTA文件按染色体压缩保存到缓存文件；缓存已由同一个FASTA文件生成时直接打开，其他进程正在生成时等待其完成。
      *
      * @param filePath 文件路径
      */
     private void splitFastaFile(String filePath) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            String header = null;
-            ByteArrayOutputStream sequenceStream = new ByteArrayOutputStream();
-
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith(">")) {
-                    if (header != null) {
-                        writeChromosomeFile(header, sequenceStream.toByteArray());
-                    }
-                    header = line.substring(1).split("\\s+")[0].trim().replaceAll("[:,.&*%$#@!]", "_");
-                    sequenceStream = new ByteArrayOutputStream();
-                } else {
-                    sequenceStream.write(line.trim().getBytes());
-                }
-            }
-            if (header != null) {
-                writeChromosomeFile(header, sequenceStream.toByteArray());
-            }
+        try {
+            lease = new SequenceCache(cacheDir).open(Paths.get(filePath));
+            store = lease.store();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * 将序列写入对应的压缩染色体文件。
-     *
-     * @param header          染色体的标题
-     * @param sequenceContent 序列内容的字节数组
+     * 返回FASTA文件在缓存目录中对应的缓存文件。
      */
-    private void writeChromosomeFile(String header, byte[] sequenceContent) {
-        try {
-            Path filePath = cacheDir.resolve(header + ".bin.gz");
-            try (FileOutputStream fos = new FileOutputStream(filePath.toFile());
-                 GZIPOutputStream gos = new GZIPOutputStream(fos)) {
-                gos.write(sequenceContent);
-            }
-            chromosomeFiles.put(header, filePath);
-        } catch (IOException e) {
-            e.printStackTrace();
+    static Path cacheFile(Path fastaPath, Path cacheDir) {
+        return SequenceCache.entryFile(fastaPath, cacheDir);
+    }
+
+    /**
+     * 释放缓存文件的共享锁，之后缓存文件可能被其他实例淘汰，不应再读取序列。
+     */
+    @Override
+    public void close() throws IOException {
+        if (lease != null) {
+            lease.close();
+            lease = null;
         }
     }
 
+    /**
+     * 从标题行（不含开头的 '>'）中提取染色体名称：取第一个空白之前的部分，并把文件名中不安全的字符替换为下划线。
+     *
+     * @param headerLine 标题行中 '>' 之后的内容
+     * @return 染色体名称
+     */
+    static String parseHeader(String headerLine) {
+        return headerLine.split("\\s+")[0].trim().replaceAll("[:,.&*%$#@!]", "_");
+    }
+
     /**
      * 根据标题获取序列。
      * 通过提供的标题从缓存文件中读取对应的序列。
@@ -82,20 +99,12 @@ public class FastaInput {
      * @return 如果标题存在，则返回对应的序列；否则返回一个指示性字符串。
      */
     public String getSequenceByHeader(String header) {
-        Path filePath = chromosomeFiles.get(header);
-        if (filePath == null) {
+        boolean found = index != null ? index.contains(header) : store != null && store.contains(header);
+        if (!found) {
             return "Sequence not found for header: " + header;
         }
-        try (FileInputStream fis = new FileInputStream(filePath.toFile());
-             GZIPInputStream gis = new GZIPInputStream(fis);
-             InputStreamReader isr = new InputStreamReader(gis);
-             BufferedReader br = new BufferedReader(isr)) {
-            StringBuilder sequence = new StringBuilder();
-            String line;
-            while ((line = br.readLine()) != null) {
-                sequence.append(line);
-            }
-            return sequence.toString();
+        try {
+            return new String(getSequenceBytes(header), StandardCharsets.ISO_8859_1);
         } catch (IOException e) {
             e.printStackTrace();
             return "Error reading sequence for header: " + header;
@@ -103,12 +112,123 @@ public class FastaInput {
     }
 
     /**
-     * 获取所有染色体文件的标题列表。
+     * 根据标题获取序列的字节形式，每个碱基占一个字节。
+     *
+     * @param header 标题，用于查找对应的序列。
+     * @return 序列内容。
+     * @throws IOException 如果标题不存在或读取缓存文件时发生I/O错误。
+     */
+    public byte[] getSequenceBytes(String header) throws IOException {
+        if (index != null) {
+            return index.read(header, 0, index.getLength(header));
+        }
+        if (store == null) {
+            throw new IOException("Sequence not found for header: " + header);
+        }
+        return store.read(header);
+    }
+
+    /**
+     * 读取染色体上 [start, end) 区间的碱基，终点超过染色体长度时截断。
+     * 索引模式下只读取区间对应的字节。
+     *
+     * @param header 标题，也可以是未经 parseHeader 处理的原始染色体名称。
+     * @param start  区间起点（从0开始，包含）。
+     * @param end    区间终点（不包含）。
+     * @return 区间内的碱基，每个碱基一个字节。
+     * @throws IOException 如果标题不存在或读取文件时发生I/O错误。
+     */
+    public byte[] getRegionBytes(String header, int start, int end) throws IOException {
+        header = parseHeader(header);
+        if (index != null) {
+            return index.read(header, start, end);
+        }
+        if (store == null || !store.contains(header)) {
+            throw new IOException("Sequence not found for header: " + header);
+        }
+        end = Math.min(end, store.getLength(header));
+        if (start >= end) {
+            return new byte[0];
+        }
+        byte[] bases = new byte[end - start];
+        store.read(header, start, bases, 0, bases.length);
+        return bases;
+    }
+
+    /**
+     * 获取染色体上的 N 区段（包括小写的 n），依次为每段的起点和终点。
+     * 缓存模式下直接使用生成缓存时记录的区段表；索引模式下读取整条染色体后查找。
+     *
+     * @param header 染色体标题
+     * @return N 区段，不能修改。
+     * @throws IOException 如果标题不存在或读取文件时发生I/O错误。
+     */
+    public int[] getGaps(String header) throws IOException {
+        if (index == null && store != null && store.contains(header)) {
+            return store.getGaps(header);
+        }
+        byte[] bases = getSequenceBytes(header);
+        return findGaps(bases, 0, bases.length);
+    }
+
+    /**
+     * 查找 [from, to) 中的 N 区段（包括小写的 n），依次为每段的起点和终点（数组下标）。
+     */
+    static int[] findGaps(byte[] bases, int from, int to) {
+        int[] runs = new int[0];
+        int count = 0;
+        int i = from;
+        while (i < to) {
+            if ((bases[i] & 0xDF) != 'N') {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < to && (bases[i] & 0xDF) == 'N') {
+                i++;
+            }
+            if (count == runs.length) {
+                runs = Arrays.copyOf(runs, Math.max(8, count * 2));
+            }
+            runs[count++] = start;
+            runs[count++] = i;
+        }
+        return count == runs.length ? runs : Arrays.copyOf(runs, count);
+    }
+
+    /**
+     * 是否通过 .fai 索引直接读取FASTA文件；为 false 时序列来自缓存文件夹中的缓存文件。
+     */
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * 获取染色体长度（碱基数）。
+     *
+     * @param header 染色体标题
+     * @return 染色体长度
+     */
+    public int getLength(String header) {
+        if (index != null) {
+            return index.getLength(header);
+        }
+        return store == null ? 0 : store.getLength(header);
+    }
+
+    /**
+     * 获取所有染色体文件的标题列表，顺序与FASTA文件一致。
      *
      * @return 染色体文件的标题列表
      */
     public Set<String> getChromosomeHeaders() {
-        return chromosomeFiles.keySet();
+        if (index != null) {
+            return new LinkedHashSet<>(index.getNames());
+        }
+        if (store == null) {
+            return Collections.emptySet();
+        }
+        return new LinkedHashSet<>(store.getNames());
     }
 
     /**
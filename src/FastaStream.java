@@ -0,0 +1,171 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * FastaStream类按顺序流式读取FASTA文件，不把整条染色体读入内存。
+ * 调用 nextChromosome 前进到下一条染色体后，可以用 read 分批读取该染色体的碱基。
+ * 行首行尾的空白会被去掉，标题的处理方式与 FastaInput 相同。
+ * gzip 和 BGZF 压缩的文件在读取时直接解压（见 CompressedInput）。
+ */
+public class FastaStream implements Closeable {
+    private final InputStream in;
+    // 读取缓冲区
+    private final byte[] buffer = new byte[1 << 16];
+    private int bufferPos;
+    private int bufferLimit;
+    // 当前是否位于一条染色体的序列内，以及是否位于行首
+    private boolean inSequence;
+    private boolean lineStart = true;
+    // 当前行是否已经出现过非空白字符，以及行内暂存的空白字符（只有后面还有碱基时才保留）
+    private boolean lineHasContent;
+    private byte[] pendingSpace = new byte[16];
+    private int pendingCount;
+
+    public FastaStream(String filePath) throws IOException {
+        this.in = CompressedInput.open(Paths.get(filePath));
+    }
+
+    /**
+     * 从已经解压的输入流读取，关闭时同时关闭该流。
+     */
+    public FastaStream(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * 跳过当前染色体剩余的序列，前进到下一条染色体。
+     *
+     * @return 下一条染色体的标题；没有更多染色体时返回 null。
+     * @throws IOException 如果读取文件时发生I/O错误。
+     */
+    public String nextChromosome() throws IOException {
+        inSequence = false;
+        int b;
+        while ((b = next()) != -1) {
+            if (lineStart && b == '>') {
+                String header = readHeader();
+                inSequence = true;
+                lineStart = true;
+                lineHasContent = false;
+                pendingCount = 0;
+                return header;
+            }
+            lineStart = isLineEnd(b);
+        }
+        return null;
+    }
+
+    /**
+     * 读取当前染色体的后续碱基。
+     *
+     * @param buf 目标数组。
+     * @param off 写入的起始位置。
+     * @param len 最多读取的碱基数。
+     * @return 实际读取的碱基数；当前染色体已经读完时返回 -1。
+     * @throws IOException 如果读取文件时发生I/O错误。
+     */
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (!inSequence) {
+            return -1;
+        }
+        int count = 0;
+        while (count < len) {
+            // 先输出暂存的行内空白
+            if (pendingCount > 0 && lineHasContent && peekIsContent()) {
+                int n = Math.min(pendingCount, len - count);
+                System.arraycopy(pendingSpace, 0, buf, off + count, n);
+                System.arraycopy(pendingSpace, n, pendingSpace, 0, pendingCount - n);
+                pendingCount -= n;
+                count += n;
+                continue;
+            }
+            // 下一行是新的标题行时，当前染色体结束
+            if (lineStart && peek() == '>') {
+                inSequence = false;
+                break;
+            }
+            int b = next();
+            if (b == -1) {
+                inSequence = false;
+                break;
+            }
+            lineStart = isLineEnd(b);
+            if (lineStart) {
+                lineHasContent = false;
+                pendingCount = 0;
+            } else if (b <= ' ') {
+                if (lineHasContent) {
+                    if (pendingCount == pendingSpace.length) {
+                        pendingSpace = Arrays.copyOf(pendingSpace, pendingCount * 2);
+                    }
+                    pendingSpace[pendingCount++] = (byte) b;
+                }
+            } else {
+                lineHasContent = true;
+                buf[off + count++] = (byte) b;
+            }
+        }
+        return count == 0 && !inSequence ? -1 : count;
+    }
+
+    /**
+     * 读取标题行的剩余部分，并按 FastaInput 的规则提取染色体名称。
+     */
+    private String readHeader() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = next()) != -1 && !isLineEnd(b)) {
+            line.write(b);
+        }
+        return FastaInput.parseHeader(new String(line.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * 判断下一个字节是否为行内的非空白字符，用于决定暂存的空白是否属于序列。
+     */
+    private boolean peekIsContent() throws IOException {
+        int b = peek();
+        return b > ' ';
+    }
+
+    /**
+     * 与 BufferedReader.readLine 一致，'\n' 和 '\r' 都视为行结束。
+     */
+    private static boolean isLineEnd(int b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private int peek() throws IOException {
+        if (bufferPos == bufferLimit && !fill()) {
+            return -1;
+        }
+        return buffer[bufferPos] & 0xFF;
+    }
+
+    private int next() throws IOException {
+        if (bufferPos == bufferLimit && !fill()) {
+            return -1;
+        }
+        return buffer[bufferPos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        bufferPos = 0;
+        bufferLimit = n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
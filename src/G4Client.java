@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * G4Client类是扫描服务（G4Server）的本地客户端：把FASTA文件或原始序列发送到 /scan，把返回的BED行原样写出。
+ * 压缩的FASTA文件（gzip 或 BGZF）不解压，直接以 Content-Encoding: gzip 发送。
+ */
+public class G4Client {
+    private final URI endpoint;
+
+    /**
+     * @param server 服务的地址，如 http://127.0.0.1:8754。
+     */
+    public G4Client(String server) {
+        this.endpoint = URI.create(server.endsWith("/") ? server + "scan" : server + "/scan");
+    }
+
+    /**
+     * 扫描一个文件。
+     *
+     * @param fasta   FASTA文件或原始序列文件。
+     * @param strand  both、f 或 r。
+     * @param merge   是否把重叠的结果合并为位点。
+     * @param sort    是否按坐标排序。
+     * @param name    原始序列的名称，为 null 时由服务使用默认名称。
+     * @param out     BED行的输出。
+     * @throws IOException 如果连接失败，或服务返回错误（异常信息为服务返回的说明）。
+     */
+    public void scan(Path fasta, String strand, boolean merge, boolean sort, String name, OutputStream out)
+            throws IOException {
+        try (InputStream in = Files.newInputStream(fasta)) {
+            scan(in, CompressedInput.isCompressed(fasta), strand, merge, sort, name, out);
+        }
+    }
+
+    /**
+     * 扫描输入流中的FASTA文本或原始序列，compressed 为 true 时输入为 gzip 压缩的数据。
+     */
+    public void scan(InputStream in, boolean compressed, String strand, boolean merge, boolean sort, String name,
+            OutputStream out) throws IOException {
+        StringBuilder query = new StringBuilder("?strand=").append(strand);
+        if (merge) {
+            query.append("&merge=true");
+        }
+        if (sort) {
+            query.append("&sort=true");
+        }
+        if (name != null) {
+            query.append("&name=").append(URLEncoder.encode(name, StandardCharsets.UTF_8));
+        }
+        HttpURLConnection connection = (HttpURLConnection) URI.create(endpoint + query.toString()).toURL()
+                .openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(1 << 16);
+            connection.setRequestProperty("Content-Type", "text/plain");
+            if (compressed) {
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            try (OutputStream body = connection.getOutputStream()) {
+                in.transferTo(body);
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                String message;
+                try (InputStream error = connection.getErrorStream()) {
+                    message = error == null ? "" : new String(error.readAllBytes(), StandardCharsets.UTF_8).trim();
+                }
+                throw new IOException("HTTP " + status + ": " + message);
+            }
+            try (InputStream response = connection.getInputStream()) {
+                response.transferTo(out);
+            }
+            out.flush();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
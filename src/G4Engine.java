@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * G4Engine 是G-四链体匹配引擎的公共接口。
+ * 正则引擎 G4_Base 与手写扫描引擎 G4Scanner 都实现该接口，可以通过命令行参数 `--engine` 切换，便于对比两者的输出。
+ */
+public interface G4Engine {
+
+    /**
+     * 在序列中匹配全部G-四链体结构。
+     *
+     * @param sequence 输入的DNA序列。
+     * @return 匹配结果的列表，每个结果包括起始位置、结束位置、匹配的字符串和匹配的模式类型；
+     *         结果先按模式类型（4G、Bulge、GVBQ、4GL15、PHQS）排列，同一类型内按起始位置排列。
+     */
+    ArrayList<String[]> matchPatterns(String sequence);
+
+    /**
+     * 在字节数组的指定区间内匹配全部G-四链体结构，区间之外的字节不参与匹配。
+     *
+     * @param sequence 存放DNA序列的字节数组（每个碱基一个字节）。
+     * @param from     区间起点（包含）。
+     * @param to       区间终点（不包含）。
+     * @param offset   加到输出坐标上的偏移量，通常为 sequence[0] 在染色体上的位置。
+     * @return 匹配结果的列表，格式与 matchPatterns(String) 相同。
+     */
+    default ArrayList<String[]> matchPatterns(byte[] sequence, int from, int to, int offset) {
+        return match(sequence, from, to, offset).toRows();
+    }
+
+    /**
+     * 与 matchPatterns(byte[], int, int, int) 相同，但结果保存在基本类型数组中，不为每条结果创建字符串；
+     * 结果中的序列引用 sequence，写出之前不能修改该数组。
+     *
+     * @return 匹配结果，顺序与 matchPatterns(String) 相同。
+     */
+    G4Hits match(byte[] sequence, int from, int to, int offset);
+
+    /**
+     * 返回模式定义的版本。输出相同的引擎返回相同的版本，结果缓存（ResultCache）据此在引擎之间共用结果。
+     */
+    default String motifVersion() {
+        return G4Scanner.MOTIF_VERSION;
+    }
+
+    /**
+     * 返回模式类型的名称，下标即 G4Hits 中的类型，默认为内置的五类模式。
+     */
+    default String[] types() {
+        return G4Scanner.TYPES;
+    }
+
+    /**
+     * 在 [from, to) 中寻找最靠后的安全切分点，见 G4Scanner.findCut；区间内不存在时返回 -1。
+     */
+    default int findCut(byte[] sequence, int from, int to) {
+        return G4Scanner.findCut(sequence, from, to, G4Scanner.MAX_LOOP);
+    }
+
+    /**
+     * 跳过 N 区段匹配 [from, to)：只在区段之间的片段上匹配，不复制序列，也不会产生跨越 N 区段的结果，
+     * 输出坐标仍是数组下标加 offset，因此与参考序列上的原始坐标一致。
+     *
+     * @param gaps 按起点排列、互不重叠的 N 区段，依次为起点和终点（数组下标），可以超出 [from, to)。
+     * @return 匹配结果，顺序与 match 相同（先按类型，再按起始位置）。
+     */
+    default G4Hits match(byte[] sequence, int from, int to, int offset, int[] gaps) {
+        // 二分查找第一个终点大于 from 的区段
+        int lo = 0;
+        int hi = gaps.length / 2;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (gaps[2 * mid + 1] <= from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        List<G4Hits> segments = new ArrayList<>();
+        int start = from;
+        for (int r = 2 * lo; r < gaps.length && start < to; r += 2) {
+            int end = Math.min(gaps[r], to);
+            if (end > start) {
+                segments.add(match(sequence, start, end, offset));
+            }
+            start = Math.max(start, gaps[r + 1]);
+        }
+        if (start < to) {
+            segments.add(match(sequence, start, to, offset));
+        }
+        if (segments.isEmpty()) {
+            return new G4Hits(sequence, offset, types());
+        }
+        return segments.size() == 1 ? segments.get(0) : G4Hits.merge(segments);
+    }
+}
@@ -1,6 +1,16 @@
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 import java.nio.file.*;
 
 /**
@@ -8,30 +18,68 @@ import java.nio.file.*;
  * G4结构是一种特殊的DNA结构，由四个相邻的G碱基通过氢键相互作用形成。
  */
 public class G4Fasta2Bed {
+    // 流式模式下每个窗口的初始大小（碱基数）
+    private static final int STREAM_WINDOW = 1 << 22;
+    // 外部排序默认的内存上限
+    static final long DEFAULT_SORT_BUFFER = 256L << 20;
+
     // 类成员变量
     private FastaInput fastaSeq;
-    private G4_Base g4Base;
+    private G4Engine g4Engine;
     private BedOutput bedOutput;
-    private String[][] bedDataR;
-    private String[][] bedDataF; 
+    private G4Hits hitsR;
+    private G4Hits hitsF;
     private Path fastaPath;
     private Path cacheFolder;
     private Path outputPath_F;
     private Path outputPath_R;
+    // 输出文件名（不含后缀），批量运行时用作运行指标中染色体名称的前缀
+    private String outputName;
+    private boolean batch = false;
+    // 运行结束后是否保留序列缓存
+    private boolean keepCache = false;
+    // 缓存文件夹中序列缓存的总大小上限，为负数时不限制、不保留
+    private long cacheSize = -1;
+    private boolean compressed = false;
+    private boolean resume = false;
+    // 使用缓存的方法在运行期间记录已完成的（染色体, 链）单元
+    private Checkpoint checkpoint;
     private List<String> headers;
     private List<String> sequences;
+    private List<int[]> gaps;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private RunMetrics metrics = RunMetrics.DISABLED;
+    private boolean singleScan = false;
+    // 写出之前把重叠的结果合并为位点
+    private boolean mergeLoci = false;
+    // 按坐标排序输出，以及区间模式外部排序的内存上限
+    private boolean sortRows = false;
+    private long sortBuffer = DEFAULT_SORT_BUFFER;
+    // 按序列内容保存匹配结果的缓存，跨运行复用
+    private ResultCache resultCache;
+    // 分片运行时本分片的编号和区间
+    private Shard shard;
+    private List<Region> shardRegions;
 
     public G4Fasta2Bed(String fastaPath, String cacheFolder, String outputFolder) throws IOException {
+        this(fastaPath, cacheFolder, outputFolder, new G4Scanner(), false);
+    }
+
+    /**
+     * 使用指定的匹配引擎构造。
+     *
+     * @param engine    G-四链体匹配引擎，G4Scanner（默认）或正则引擎 G4_Base。
+     * @param streaming 为 true 时不打开缓存文件，之后只能调用 matchG4_Stream、matchG4_Regions 或 matchG4_Batch。
+     */
+    public G4Fasta2Bed(String fastaPath, String cacheFolder, String outputFolder, G4Engine engine, boolean streaming)
+            throws IOException {
         this.fastaPath = Paths.get(fastaPath);
         this.cacheFolder = Paths.get(cacheFolder);
 
         // 提取FASTA文件名（不带扩展名）
-        String fastaFileName = this.fastaPath.getFileName().toString();
-        int dotIndex = fastaFileName.lastIndexOf('.');
-        if (dotIndex > 0) {
-            fastaFileName = fastaFileName.substring(0, dotIndex);
-        }
+        String fastaFileName = outputNameOf(this.fastaPath);
 
+        this.outputName = fastaFileName;
         this.outputPath_F = Paths.get(outputFolder, fastaFileName + "_正链_G4.bed");
         this.outputPath_R = Paths.get(outputFolder, fastaFileName + "_负链_G4.bed");
 
@@ -44,16 +92,167 @@ public class G4Fasta2Bed {
         }
 
         // 在构造函数中初始化对象
-        this.fastaSeq = new FastaInput(this.fastaPath.toString(), this.cacheFolder.toString());
-        this.g4Base = new G4_Base();
+        this.g4Engine = engine;
         this.bedOutput = new BedOutput();
+        if (streaming) {
+            return;
+        }
+        this.fastaSeq = new FastaInput(this.fastaPath.toString(), this.cacheFolder.toString());
+    }
 
-        // 读取FASTA文件中的所有数据
+    /**
+     * 返回输出文件名的前缀：FASTA文件名去掉扩展名，压缩文件先去掉 .gz / .bgz。
+     */
+    static String outputNameOf(Path fastaPath) {
+        String fastaFileName = fastaPath.getFileName().toString();
+        fastaFileName = fastaFileName.replaceFirst("\\.(gz|bgz)$", "");
+        int dotIndex = fastaFileName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            fastaFileName = fastaFileName.substring(0, dotIndex);
+        }
+        return fastaFileName;
+    }
+
+    /**
+     * 设置并行方法使用的线程数。
+     *
+     * @param threads 线程数，默认为处理器核数。
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * 设置是否只扫描一次正链。
+     * <p>
+     * 每种模式都同时包含富含G和富含C两种形式，正链上富含C的结构就是负链上富含G的结构，反之亦然，
+     * 而互补只交换 G 与 C，不改变其他碱基能否被匹配。因此对互补序列重新扫描得到的区间与正链扫描完全相同，
+     * 只是序列为互补序列。开启后只扫描正链，负链BED文件由同一批结果写出互补序列，输出与两次扫描逐字节一致，
+     * CPU时间约减半，也不再需要每条染色体的互补序列副本。
+     */
+    public void setSingleScan(boolean singleScan) {
+        this.singleScan = singleScan;
+    }
+
+    /**
+     * 设置是否写出BGZF压缩的BED文件。开启后输出文件名加上 .gz，每条染色体的行按起点、终点排序，
+     * 并在同一目录生成 tabix 索引（.tbi），不再需要另外排序、压缩和建立索引。
+     */
+    public void setCompressedOutput(boolean compressed) {
+        this.compressed = compressed;
+        String suffix = compressed ? "_G4.bed.gz" : "_G4.bed";
+        outputPath_F = outputPath_F.resolveSibling(outputName + "_正链" + suffix);
+        outputPath_R = outputPath_R.resolveSibling(outputName + "_负链" + suffix);
+    }
+
+    /**
+     * 设置是否把重叠的结果合并为位点再写出。
+     * <p>
+     * 五类模式在同一位置往往同时匹配（4G结构通常也被 PHQS、Bulge 等找到），BED文件的行数是实际位点数的数倍。
+     * 开启后每条染色体（流式模式为每个窗口）的结果在写出前按坐标排序，一次扫描合并相互重叠的区间，
+     * 每个位点输出一行，G4_type 列列出匹配到的全部类型，如 4G,Bulge,PHQS。任何匹配都不会跨过窗口的切分点，
+     * 因此各模式的输出相同，行按起点排列。
+     */
+    public void setMergeLoci(boolean mergeLoci) {
+        this.mergeLoci = mergeLoci;
+    }
+
+    /**
+     * 设置是否按坐标排序输出：行按染色体在FASTA中的顺序、起点、终点排列，三者相同的行保持G4类别的顺序。
+     * <p>
+     * 任何匹配都不会跨过分块或窗口的切分点，每一批结果（一条染色体、一个流式窗口）在写出前排序，
+     * 整个文件就是有序的，不需要额外的内存。区间模式中不同区间的结果可能交错，先写入缓存文件夹中的临时文件，
+     * 再由 BedSorter 外部排序：内存中的行超过 memoryLimit 时写出有序段，最后 k 路归并。
+     *
+     * @param memoryLimit 区间模式外部排序的内存上限（字节）。
+     */
+    public void setSortedOutput(boolean sortRows, long memoryLimit) {
+        this.sortRows = sortRows;
+        this.sortBuffer = memoryLimit;
+    }
+
+    /**
+     * 设置是否记录检查点，并从上一次中断的运行继续。
+     * <p>
+     * 开启后使用缓存的方法（并行、串行和批量）先把每条链的结果写入缓存文件夹中的检查点目录，
+     * 全部完成后再合并为最终的BED文件；上一次以同样方式运行时中断的，沿用已完成的部分，只重新匹配其余的染色体，
+     * 输入文件或输出格式改变时从头开始。不开启时直接写出最终文件，不记录检查点。
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * 设置缓存文件夹中序列缓存的总大小上限。
+     * <p>
+     * 缓存文件夹可以被多个实例共用（见 SequenceCache），运行结束后只清理本次运行自己的文件。设置上限后保留本文件的序列缓存，
+     * 再按最近使用时间淘汰文件夹中最久未用的序列缓存，直到总大小不超过上限，其他实例正在使用的缓存不会被淘汰；
+     * 未设置时删除本文件的序列缓存（其他实例正在使用时保留）。
+     *
+     * @param cacheSize 总大小上限（字节），为负数时不设上限。
+     */
+    public void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * 设置运行结束后是否保留序列缓存，之后对同一FASTA文件的运行直接复用，跳过分割步骤。
+     */
+    public void setKeepCache(boolean keepCache) {
+        this.keepCache = keepCache;
+    }
+
+    /**
+     * 设置只匹配基因组的一个分片（见 Shard）。分片运行使用并行方法，输出文件名加上 .shard-i-of-n，
+     * 每次运行重新生成；全部分片完成后用 --merge-shards 合并为最终的BED文件。分片运行不使用检查点。
+     */
+    public void setShard(Shard shard) {
+        this.shard = shard;
+        outputPath_F = outputPath_F.resolveSibling(outputName + "_正链_G4" + shard.suffix());
+        outputPath_R = outputPath_R.resolveSibling(outputName + "_负链_G4" + shard.suffix());
+    }
+
+    /**
+     * 设置结果缓存。使用缓存的方法（并行、串行和批量）匹配每条染色体之前先按序列内容查找缓存，
+     * 命中时直接使用缓存的结果，未命中时匹配后存入缓存。
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * 设置运行指标的记录器，默认不记录。
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 串行方法在首次使用时读取FASTA文件中的所有数据，以及缓存中记录的 N 区段。
+     * 序列保持原样，匹配时跳过 N 区段，输出坐标即参考序列上的坐标。
+     */
+    private synchronized void loadSequences() {
+        if (headers != null) {
+            return;
+        }
         headers = new ArrayList<>();
         sequences = new ArrayList<>();
+        gaps = new ArrayList<>();
         for (String header : fastaSeq.getChromosomeHeaders()) {
+            long started = metrics.start();
+            String sequence = fastaSeq.getSequenceByHeader(header);
+            int[] sequenceGaps;
+            try {
+                sequenceGaps = fastaSeq.getGaps(header);
+            } catch (IOException e) {
+                e.printStackTrace();
+                sequenceGaps = new int[0];
+            }
             headers.add(header);
-            sequences.add(fastaSeq.getSequenceByHeader(header).replaceAll("N", ""));
+            sequences.add(sequence);
+            gaps.add(sequenceGaps);
+            metrics.record(header, RunMetrics.BOTH, RunMetrics.LOAD, started);
+            metrics.addLength(header, sequence.length());
         }
     }
 
@@ -65,18 +264,27 @@ public class G4Fasta2Bed {
      * 最后，将找到的G4结构写入到指定路径的BED文件中。
      */
     private void matchG4_F() {
+        loadSequences();
         for (int i = 0; i < headers.size(); i++) {
             String header = headers.get(i);
             String sequence = sequences.get(i);
+            if (!needed(header, RunMetrics.FORWARD, true, true)) {
+                continue;
+            }
 
             // 对染色体序列进行处理，寻找G4结构
-            processSequence(header, sequence, "+");
+            byte[] bases = sequence.getBytes(StandardCharsets.ISO_8859_1);
+            processSequence(header, bases, gaps.get(i), "+", cacheKey(header, bases));
 
-            // 将找到的G4结构写入BED文件
+            // 将找到的G4结构写入BED文件，只扫描一次时同时由同一批结果写出负链文件
             try {
-                synchronized (bedOutput) {
-                    bedOutput.writeBEDFile(outputPath_F.toString(), bedDataF);
+                if (!isDone(RunMetrics.FORWARD, header)) {
+                    writeHits(outputPath_F, header, RunMetrics.FORWARD, hitsF);
                 }
+                if (singleScan && !isDone(RunMetrics.REVERSE, header)) {
+                    writeHits(outputPath_R, header, RunMetrics.REVERSE, hitsF, true);
+                }
+                metrics.progress(fastaSeq.getLength(header));
             } catch (IOException e) {
                 e.printStackTrace();
                 System.out.println("Error writing to BED file.");
@@ -89,25 +297,31 @@ public class G4Fasta2Bed {
      * G4结构是一种特殊的DNA结构，由四个G碱基通过氢键相互作用形成。
      * 本方法首先从FASTA文件中读取每个染色体的DNA序列，然后将这些序列转换为对应的负链序列，
      * 接着对转换后的序列进行G4结构的处理和分析，最后将分析结果写入到指定的BED文件中。
-     * @throws IOException 
      */
-    private void matchG4_R() throws IOException {
-        ConvertSequence convert = new ConvertSequence();
+    private void matchG4_R() {
+        loadSequences();
         for (int i = 0; i < headers.size(); i++) {
             String header = headers.get(i);
             String sequence = sequences.get(i);
+            if (isDone(RunMetrics.REVERSE, header)) {
+                continue;
+            }
 
-            // 将正链DNA序列转换为负链序列
-            String convertedSequence = convert.convertSequence(sequence);
+            // 将正链DNA序列就地转换为负链序列
+            byte[] convertedSequence = sequence.getBytes(StandardCharsets.ISO_8859_1);
+            // 缓存的键按正链序列计算，必须在互补之前
+            String cacheKey = cacheKey(header, convertedSequence);
+            long started = metrics.start();
+            ConvertSequence.complement(convertedSequence, 0, convertedSequence.length);
+            metrics.record(header, RunMetrics.REVERSE, RunMetrics.COMPLEMENT, started);
 
             // 对转换后的负链序列进行G4结构的处理和分析
-            processSequence(header, convertedSequence, "-");
+            processSequence(header, convertedSequence, gaps.get(i), "-", cacheKey);
 
             // 将分析得到的G4结构数据写入到指定的BED文件中
             try {
-                synchronized (bedOutput) {
-                    bedOutput.writeBEDFile(outputPath_R.toString(), bedDataR);
-                }
+                writeHits(outputPath_R, header, RunMetrics.REVERSE, hitsR);
+                metrics.progress(fastaSeq.getLength(header));
             } catch (IOException e) {
                 e.printStackTrace();
                 System.out.println("Error writing to BED file.");
@@ -116,104 +330,568 @@ public class G4Fasta2Bed {
     }
 
     /**
-     * 处理DNA序列，识别G4结构并转换为Bed格式数据。
+     * 计算正链序列在结果缓存中的键，没有设置缓存时返回 null。计算键的耗时记入读取阶段。
+     */
+    private String cacheKey(String header, byte[] bases) {
+        if (resultCache == null) {
+            return null;
+        }
+        long started = metrics.start();
+        String key = ResultCache.key(g4Engine.motifVersion(), bases);
+        metrics.record(header, RunMetrics.BOTH, RunMetrics.LOAD, started);
+        return key;
+    }
+
+    /**
+     * 处理DNA序列，识别G4结构。
      * 
      * @param header   序列的标题，用于标识序列来源或名称。
-     * @param sequence DNA序列。
+     * @param bases    DNA序列的字节。
+     * @param gaps     序列中的 N 区段，匹配时跳过。
      * @param strand   链的方向。
+     * @param cacheKey 正链序列在结果缓存中的键，不使用缓存时为 null。
      */
-    private void processSequence(String header, String sequence, String strand) {
-        // 设置G4匹配的输入内容
-        g4Base.setInput(sequence);
-
-        // 进行G4匹配
-        ArrayList<String[]> matches = g4Base.matchPatterns(sequence);
-
-        // 初始化bedData数组，大小为匹配结果的数量
-        String[][] bedData = new String[matches.size()][8];
-        // 遍历匹配结果
-        for (int i = 0; i < matches.size(); i++) {
-            String[] match = matches.get(i);
-            // 填充BED行数据
-            bedData[i][0] = header; // 染色体编号
-            bedData[i][1] = match[0]; // 起始位置
-            bedData[i][2] = match[1]; // 终止位置
-            bedData[i][3] = header + "_" + match[0] + "_" + match[1]; // 区间ID
-            bedData[i][4] = String.valueOf(Integer.parseInt(match[1]) - Integer.parseInt(match[0])); // 区间长度
-            bedData[i][5] = strand; // 链的方向
-            bedData[i][6] = match[2]; // 序列
-            bedData[i][7] = match[3]; // 识别到的G4类别
+    private void processSequence(String header, byte[] bases, int[] gaps, String strand, String cacheKey) {
+        // 先查找结果缓存，未命中时进行G4匹配并存入缓存
+        G4Hits hits = cacheKey == null ? null : resultCache.get(cacheKey, bases, g4Engine.types());
+        if (hits == null) {
+            long started = metrics.start();
+            hits = g4Engine.match(bases, 0, bases.length, 0, gaps);
+            metrics.record(header, strand.equals("+") ? RunMetrics.FORWARD : RunMetrics.REVERSE, RunMetrics.MATCH,
+                    started);
+            if (cacheKey != null) {
+                resultCache.put(cacheKey, hits);
+            }
         }
 
         if (strand.equals("+")) {
-            bedDataF = bedData;
+            hitsF = hits;
         } else if (strand.equals("-")) {
-            bedDataR = bedData;
+            hitsR = hits;
+        }
+    }
+
+    /**
+     * 把一批匹配结果写入BED文件，并记录写出阶段的耗时、各类型匹配数和写出的字节数。
+     */
+    private void writeHits(Path outputPath, String header, int strand, G4Hits hits) throws IOException {
+        writeHits(outputPath, header, strand, hits, false);
+    }
+
+    /**
+     * 同上，complement 为 true 时写出匹配文本的互补序列。
+     */
+    private void writeHits(Path outputPath, String header, int strand, G4Hits hits, boolean complement)
+            throws IOException {
+        long started = metrics.start();
+        // 合并得到的位点已按坐标排序；压缩的输出由 BedWriter 排序，检查点的分段文件在这里排序
+        G4Hits rows = hits;
+        if (mergeLoci) {
+            rows = hits.loci();
+        } else if (sortRows || compressed && checkpoint != null) {
+            rows = hits.sortedByPosition();
+        }
+        long bytes;
+        if (checkpoint != null) {
+            bytes = checkpoint.write(strand, header, rows, complement);
+        } else {
+            bytes = bedOutput.writeBEDFile(outputPath.toString(), header,
+                    strand == RunMetrics.FORWARD ? "+" : "-", rows, complement);
         }
+        String key = batch ? outputName + "/" + header : header;
+        metrics.record(key, strand, RunMetrics.WRITE, started);
+        // 各类型的匹配数按合并之前的结果统计
+        metrics.hits(key, strand, hits);
+        metrics.bytes(key, strand, bytes);
     }
 
-   
+    /**
+     * 流式匹配：按固定大小的窗口顺序读取FASTA文件，每个窗口匹配完立即写入BED文件，
+     * 内存占用只取决于窗口大小，与基因组和染色体的大小无关。
+     * <p>
+     * G4结构没有长度上限，固定长度的重叠区不能保证结果正确，因此窗口在 G4Engine.findCut 给出的安全切分点处截断，
+     * 切分点之后的部分留到下一个窗口继续匹配，相当于可变长度的重叠区，既不会漏掉跨窗口的结构，也不会产生重复行。
+     * 输出与内存模式包含相同的行，但行在每个窗口内按类型分组，长于一个窗口的染色体行的顺序不同；
+     * 按坐标排序输出时（setSortedOutput）与内存模式逐字节相同。
+     * <p>
+     * 读取、匹配、格式化和写盘在不同的线程上同时进行（见 StreamPipeline），匹配使用 threads 个线程，
+     * 阶段之间的队列有界，同时存在的窗口不超过 threads + 2 个。
+     *
+     * @param forward 是否生成正链BED文件。
+     * @param reverse 是否生成负链BED文件。
+     * @throws IOException 如果读取FASTA文件或写入BED文件时发生I/O错误。
+     */
+    public void matchG4_Stream(boolean forward, boolean reverse) throws IOException {
+        StreamPipeline pipeline = new StreamPipeline(g4Engine, threads, metrics);
+        // 只扫描一次时负链由正链的结果写出互补序列
+        boolean scanForward = forward || singleScan;
+        boolean scanReverse = reverse && !singleScan;
+        try (FastaStream stream = new FastaStream(fastaPath.toString())) {
+            pipeline.run(stream, STREAM_WINDOW, scanForward, scanReverse, window -> {
+                if (forward) {
+                    writeHits(outputPath_F, window.header, RunMetrics.FORWARD, window.forward);
+                }
+                if (reverse) {
+                    if (singleScan) {
+                        writeHits(outputPath_R, window.header, RunMetrics.REVERSE, window.forward, true);
+                    } else {
+                        writeHits(outputPath_R, window.header, RunMetrics.REVERSE, window.reverse);
+                    }
+                }
+            });
+        } finally {
+            bedOutput.close();
+        }
+    }
 
     /**
      * 匹配正链和负链的G4结构。
      * 
-     * 本方法创建两个线程，一个用于匹配正链的G4结构，另一个用于匹配负链的G4结构。
-     * 然后，等待两个线程都执行完毕。
+     * 本方法使用 G4Scheduler 把全部染色体的两条链切分为分块任务，在 threads 个线程上并行匹配，
+     * 然后按FASTA中的染色体顺序写入BED文件，输出与串行方法相同。
+     *
+     * @throws IOException 如果读取序列或写入BED文件时发生I/O错误。
      */
-    public void matchG4_All_Paralle() {
-        // 创建并启动线程执行matchG4_R
-        Thread threadR = new Thread(new Runnable() {
+    public void matchG4_All_Paralle() throws IOException {
+        matchG4_Parallel(true, true);
+    }
+
+    /**
+     * 使用 G4Scheduler 并行匹配指定的链。
+     *
+     * @param forward 是否生成正链BED文件。
+     * @param reverse 是否生成负链BED文件。
+     * @throws IOException 如果读取序列或写入BED文件时发生I/O错误。
+     */
+    public void matchG4_Parallel(boolean forward, boolean reverse) throws IOException {
+        G4Scheduler scheduler = new G4Scheduler(g4Engine, threads, metrics);
+        scheduler.setResultCache(resultCache);
+        setTotalBases(singleScan ? 1 : (forward ? 1 : 0) + (reverse ? 1 : 0));
+        try {
+            scheduler.run(List.of(parallelJob(forward, reverse)).iterator());
+        } finally {
+            bedOutput.close();
+            closeCheckpoint();
+        }
+    }
+
+    /**
+     * 生成交给 G4Scheduler 的任务：结果按染色体顺序写入本对象的BED文件，全部写完后关闭输出。
+     * 只扫描一次时只调度正链任务，两个文件都由正链的结果写出。
+     */
+    private G4Scheduler.Job parallelJob(boolean forward, boolean reverse) throws IOException {
+        if (shard == null) {
+            openCheckpoint();
+        } else {
+            // 分片的输出每次重新生成，重复运行不会追加重复的行
+            Files.deleteIfExists(outputPath_F);
+            Files.deleteIfExists(outputPath_R);
+        }
+        G4Scheduler.ResultSink sink = new G4Scheduler.ResultSink() {
             @Override
-            public void run() {
-                try {
-                    matchG4_R();
-                } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
+            public void accept(String header, G4Hits forwardMatches, G4Hits reverseMatches) throws IOException {
+                if (singleScan) {
+                    reverseMatches = reverse && !isDone(RunMetrics.REVERSE, header) ? forwardMatches : null;
+                    forwardMatches = forward && !isDone(RunMetrics.FORWARD, header) ? forwardMatches : null;
+                }
+                if (forwardMatches != null) {
+                    writeHits(outputPath_F, header, RunMetrics.FORWARD, forwardMatches);
+                }
+                if (reverseMatches != null) {
+                    writeHits(outputPath_R, header, RunMetrics.REVERSE, reverseMatches, singleScan);
                 }
             }
-        });
 
-        // 创建并启动线程执行matchG4_F
-        Thread threadF = new Thread(new Runnable() {
             @Override
-            public void run() {
-                matchG4_F();
+            public void finished() throws IOException {
+                bedOutput.close();
+                assemble(forward, reverse);
+                if (batch) {
+                    releaseCache(keepCache);
+                }
             }
-        });
+        };
+        if (shard != null) {
+            return new G4Scheduler.Job(batch ? outputName : null, fastaSeq, forward || singleScan,
+                    reverse && !singleScan, sink, shardRegions());
+        }
+        return new G4Scheduler.Job(batch ? outputName : null, fastaSeq, forward || singleScan,
+                reverse && !singleScan, sink, (header, strand) -> needed(header, strand, forward, reverse));
+    }
+
+    /**
+     * 判断一条染色体的一条链是否还需要匹配。只扫描一次时正链的结果同时用于两个文件，
+     * 因此只要有一个要生成的文件缺少这条染色体就需要匹配正链。
+     */
+    private boolean needed(String header, int strand, boolean forward, boolean reverse) {
+        if (singleScan) {
+            return strand == RunMetrics.FORWARD && (forward && !isDone(RunMetrics.FORWARD, header)
+                    || reverse && !isDone(RunMetrics.REVERSE, header));
+        }
+        return !isDone(strand, header);
+    }
+
+    /**
+     * 本分片的区间，第一次使用时计算。
+     */
+    private List<Region> shardRegions() throws IOException {
+        if (shardRegions == null) {
+            shardRegions = shard.regions(fastaSeq, g4Engine);
+        }
+        return shardRegions;
+    }
+
+    private boolean isDone(int strand, String header) {
+        return checkpoint != null && checkpoint.isDone(strand, header);
+    }
+
+    private Path checkpointDir() {
+        // 加上输出文件夹的路径哈希，共用缓存文件夹的运行写到不同输出文件夹时检查点互不干扰
+        return cacheFolder.resolve(outputName + "." + SequenceCache.pathHash(outputPath_F.getParent())
+                + ".checkpoint");
+    }
+
+    /**
+     * 设置了 --resume 时打开检查点目录，签名包括FASTA文件的路径、大小、修改时间、模式定义的版本以及输出是否压缩、是否按坐标排序、是否合并位点。
+     * 模式定义改变（如换用另一个 --motifs 文件）时已完成的部分作废，与 ResultCache.key 相同。
+     */
+    private void openCheckpoint() throws IOException {
+        if (!resume) {
+            return;
+        }
+        String signature = fastaPath.toAbsolutePath() + "\t" + Files.size(fastaPath) + "\t"
+                + Files.getLastModifiedTime(fastaPath).toMillis() + "\tsorted=" + compressed
+                + "\tmerged=" + mergeLoci
+                + "\tsortRows=" + sortRows
+                // 签名不能包含换行符，自定义模式的版本中每个类别占一行
+                + "\tmotifs=" + g4Engine.motifVersion().replace('\n', ';');
+        checkpoint = new Checkpoint(checkpointDir(), signature, new ArrayList<>(fastaSeq.getChromosomeHeaders()),
+                true);
+        if (checkpoint.completed() > 0) {
+            System.out.println("Resuming " + fastaPath.getFileName() + ": " + checkpoint.completed()
+                    + " chromosome strands already done / 继续运行, 已完成 " + checkpoint.completed() + " 条染色体链");
+        }
+    }
+
+    /**
+     * 把检查点中每条链的分段文件写为最终的BED文件，然后关闭并删除检查点。
+     * 分段文件是最终文件的第二份副本，不论是否保留序列缓存（--keep-cache）都删除。
+     */
+    private void assemble(boolean forward, boolean reverse) throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        List<String> order = new ArrayList<>(fastaSeq.getChromosomeHeaders());
+        if (forward) {
+            bedOutput.concatenate(outputPath_F.toString(), List.of(checkpoint.part(RunMetrics.FORWARD, order)));
+        }
+        if (reverse) {
+            bedOutput.concatenate(outputPath_R.toString(), List.of(checkpoint.part(RunMetrics.REVERSE, order)));
+        }
+        closeCheckpoint();
+        Path checkpointDir = checkpointDir();
+        DirectoryCleaner.clearDirectory(checkpointDir.toString());
+        Files.delete(checkpointDir);
+    }
+
+    private void closeCheckpoint() throws IOException {
+        if (checkpoint != null) {
+            checkpoint.close();
+            checkpoint = null;
+        }
+    }
+
+    /**
+     * 批量匹配多个FASTA文件。所有文件的染色体在同一个线程池上并行匹配，共用同一个处理中碱基数的上限，
+     * 匹配引擎也只创建一次；每个文件仍然写出自己的一对BED文件，与单独运行每个文件的输出相同。
+     * 文件按顺序打开（生成缓存），打开下一个文件时前一个文件的染色体仍在匹配。
+     * 不保留缓存时，每个文件写完后立即删除它的缓存文件，缓存目录的占用不随文件数增长。
+     * <p>
+     * 本对象的缓存文件夹、输出文件夹、匹配引擎和各项设置（与单个文件相同的 setter）用于每个文件，
+     * 构造时不需要打开FASTA文件（streaming 为 true）。
+     *
+     * @param fastaFiles FASTA文件，输出文件名（去掉后缀）不能重复。
+     * @param forward    是否生成正链BED文件。
+     * @param reverse    是否生成负链BED文件。
+     * @throws IOException 如果输出文件名重复，或读取序列、写入BED文件时发生I/O错误。
+     */
+    public void matchG4_Batch(List<Path> fastaFiles, boolean forward, boolean reverse) throws IOException {
+        // 先检查输出文件名，避免两个输入写入同一对BED文件
+        Map<String, Path> names = new HashMap<>();
+        for (Path file : fastaFiles) {
+            String name = outputNameOf(file);
+            Path previous = names.putIfAbsent(name, file);
+            if (previous != null) {
+                throw new IOException("Duplicate output name " + name + ": " + previous + ", " + file);
+            }
+        }
+
+        String outputFolder = outputPath_F.getParent().toString();
+        Iterator<Path> files = fastaFiles.iterator();
+        Iterator<G4Scheduler.Job> jobs = new Iterator<G4Scheduler.Job>() {
+            @Override
+            public boolean hasNext() {
+                return files.hasNext();
+            }
+
+            @Override
+            public G4Scheduler.Job next() {
+                Path file = files.next();
+                try {
+                    G4Fasta2Bed g4Fasta2Bed = new G4Fasta2Bed(file.toString(), cacheFolder.toString(), outputFolder,
+                            g4Engine, false);
+                    g4Fasta2Bed.batch = true;
+                    copySettings(g4Fasta2Bed);
+                    return g4Fasta2Bed.parallelJob(forward, reverse);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        G4Scheduler scheduler = new G4Scheduler(g4Engine, threads, metrics);
+        scheduler.setResultCache(resultCache);
+        try {
+            scheduler.run(jobs);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 把本对象的设置复制给批量运行中一个文件的 G4Fasta2Bed。
+     */
+    private void copySettings(G4Fasta2Bed target) {
+        target.setThreads(threads);
+        target.setSingleScan(singleScan);
+        target.setCompressedOutput(compressed);
+        target.setMergeLoci(mergeLoci);
+        target.setSortedOutput(sortRows, sortBuffer);
+        target.setResume(resume);
+        target.setKeepCache(keepCache);
+        target.setCacheSize(cacheSize);
+        target.setResultCache(resultCache);
+        target.setMetrics(metrics);
+    }
 
-        threadR.start();
-        threadF.start();
+    /**
+     * 只匹配指定的区间。FASTA文件通过 .fai 索引直接定位，只读取区间对应的字节，不生成缓存文件，
+     * 因此对一组启动子之类的小区间只需要毫秒级的时间。压缩的FASTA文件无法通过 .fai 索引定位，此时改为生成缓存文件后读取。
+     * <p>
+     * 区间的边界就是匹配的边界，只报告完全位于区间内的G4结构；与其他方法一样跳过 N 区段，输出坐标是染色体上的原始坐标。
+     * 区间按输入顺序写出，重叠的区间会产生重复的行；按坐标排序或压缩输出时（setSortedOutput、setCompressedOutput）
+     * 先写入临时文件，再外部排序为最终文件，因此压缩输出的区间也可以无序或相互重叠。运行失败时删除写了一半的输出。
+     *
+     * @param regions 要匹配的区间。
+     * @param forward 是否生成正链BED文件。
+     * @param reverse 是否生成负链BED文件。
+     * @throws IOException 如果读取FASTA文件或写入BED文件时发生I/O错误。
+     */
+    public void matchG4_Regions(List<Region> regions, boolean forward, boolean reverse) throws IOException {
+        FastaInput input = fastaSeq;
+        if (input == null) {
+            boolean compressed = CompressedInput.isCompressed(fastaPath);
+            input = new FastaInput(fastaPath.toString(), cacheFolder.toString(), !compressed);
+            // 压缩文件和无法建立索引的文件生成了序列缓存，运行结束后由 releaseCache 释放
+            fastaSeq = input;
+        }
+        FastaInput source = input;
 
+        // 各区间相互独立，在 threads 个线程上并行匹配，结果保持输入顺序
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<G4Hits[]> results;
         try {
-            // 等待两个线程都执行完毕
-            threadR.join();
-            threadF.join();
+            results = pool.submit(() -> regions.parallelStream()
+                    .map(region -> matchRegion(source, region, forward, reverse))
+                    .collect(Collectors.toList())).get();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        // 压缩的输出要求行按坐标排列，区间的顺序不一定满足，同样经过外部排序
+        boolean sort = sortRows || compressed;
+        Path targetF = sort ? unsortedPath(outputPath_F) : outputPath_F;
+        Path targetR = sort ? unsortedPath(outputPath_R) : outputPath_R;
+        try {
+            try {
+                for (int i = 0; i < regions.size(); i++) {
+                    G4Hits[] result = results.get(i);
+                    String header = FastaInput.parseHeader(regions.get(i).name);
+                    if (result[0] != null) {
+                        writeHits(targetF, header, RunMetrics.FORWARD, result[0]);
+                    }
+                    if (result[1] != null) {
+                        writeHits(targetR, header, RunMetrics.REVERSE, result[1], singleScan);
+                    }
+                }
+            } finally {
+                bedOutput.close();
+            }
+            if (sort) {
+                BedSorter sorter = new BedSorter(new ArrayList<>(source.getChromosomeHeaders()), cacheFolder,
+                        sortBuffer);
+                for (Path[] pair : new Path[][] { { targetF, outputPath_F }, { targetR, outputPath_R } }) {
+                    if (Files.exists(pair[0])) {
+                        int runs = sorter.sort(pair[0], pair[1], BedOutput.headerLine());
+                        Files.delete(pair[0]);
+                        metrics.setInfo("sortRuns", String.valueOf(runs));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // 排序的输出每次重新生成，不留下写了一半的文件和看起来完整的索引；未排序的输出是追加的，保留原有内容
+            if (sort) {
+                for (Path path : new Path[] { targetF, targetR, outputPath_F, outputPath_R }) {
+                    Files.deleteIfExists(path);
+                    Files.deleteIfExists(path.resolveSibling(path.getFileName() + ".tbi"));
+                }
+            }
+            throw e;
         }
     }
 
-    public void matchG4_All_Serial() throws IOException {
-        matchG4_F();
-        matchG4_R();
+    /**
+     * 区间模式排序之前的临时文件：缓存文件夹中未压缩的BED文件，先删除上一次中断时留下的同名文件。
+     */
+    private Path unsortedPath(Path outputPath) throws IOException {
+        Files.createDirectories(cacheFolder);
+        Path path = cacheFolder.resolve(outputPath.getFileName().toString().replaceFirst("\\.gz$", "")
+                + ".unsorted");
+        Files.deleteIfExists(path);
+        return path;
     }
+
     /**
-     * 清理缓存目录。
-     * 
-     * 本方法尝试清除指定的缓存目录中的所有文件。如果清除操作失败，将打印错误堆栈跟踪。
-     * 使用DirectoryCleaner类的clearDirectory方法来执行实际的清除操作。
-     * 
-     * 注意：此方法不接受任何参数，也不返回任何值。
+     * 匹配一个区间，返回正链和负链的结果（未生成的链为 null）；染色体不存在时打印提示并返回空结果。
+     * 只扫描一次时两条链是同一个结果，负链在写出时取互补序列。
      */
-    private void clearCache() {
+    private G4Hits[] matchRegion(FastaInput input, Region region, boolean forward, boolean reverse) {
+        G4Hits[] result = new G4Hits[2];
+        String header = FastaInput.parseHeader(region.name);
+        if (!input.getChromosomeHeaders().contains(header)) {
+            System.out.println("Sequence not found for region / 找不到区间所在的序列: " + region);
+            return result;
+        }
         try {
-            // 尝试清除缓存目录。cacheFolder之前应该已经被初始化为缓存目录的路径。
-            DirectoryCleaner.clearDirectory(cacheFolder.toString());
+            long started = metrics.start();
+            byte[] bases = input.getRegionBytes(header, region.start, region.end);
+            metrics.record(header, RunMetrics.BOTH, RunMetrics.LOAD, started);
+            metrics.addLength(header, bases.length);
+            int[] gaps = FastaInput.findGaps(bases, 0, bases.length);
+            if (singleScan) {
+                started = metrics.start();
+                G4Hits hits = g4Engine.match(bases, 0, bases.length, region.start, gaps);
+                metrics.record(header, RunMetrics.FORWARD, RunMetrics.MATCH, started);
+                metrics.progress(bases.length);
+                result[0] = forward ? hits : null;
+                result[1] = reverse ? hits : null;
+                return result;
+            }
+            if (forward) {
+                started = metrics.start();
+                result[0] = g4Engine.match(bases, 0, bases.length, region.start, gaps);
+                metrics.record(header, RunMetrics.FORWARD, RunMetrics.MATCH, started);
+                metrics.progress(bases.length);
+            }
+            if (reverse) {
+                started = metrics.start();
+                byte[] complement = ConvertSequence.complementOf(bases, 0, bases.length);
+                metrics.record(header, RunMetrics.REVERSE, RunMetrics.COMPLEMENT, started);
+                started = metrics.start();
+                result[1] = g4Engine.match(complement, 0, bases.length, region.start, gaps);
+                metrics.record(header, RunMetrics.REVERSE, RunMetrics.MATCH, started);
+                metrics.progress(bases.length);
+            }
         } catch (IOException e) {
-            // 捕获并处理清除缓存时可能发生的IO异常。
             e.printStackTrace();
-            System.out.println("Error clearing cache directory.");
+            System.out.println("Error reading region / 读取区间出错: " + region);
+        }
+        return result;
+    }
+
+    /**
+     * 串行方法：一次读入全部染色体，依次匹配正链和负链。
+     * <p>
+     * 串行方法把整个基因组保存在堆内存中。按染色体长度估计的内存超出可用的堆内存时（见 G4Scheduler.memoryBudget），
+     * 打印提示并改用单线程的 G4Scheduler，逐条染色体读取，输出不变。
+     *
+     * @throws IOException 如果读取序列或写入BED文件时发生I/O错误。
+     */
+    public void matchG4_All_Serial() throws IOException {
+        long total = 0;
+        int largest = 0;
+        for (String header : fastaSeq.getChromosomeHeaders()) {
+            total += fastaSeq.getLength(header);
+            largest = Math.max(largest, fastaSeq.getLength(header));
+        }
+        long needed = total + G4Scheduler.estimateBytes(largest, true, !singleScan);
+        long budget = G4Scheduler.memoryBudget();
+        if (needed > budget) {
+            System.out.println("The serial method needs about " + G4Scheduler.megabytes(needed) + " MB but the heap budget is "
+                    + G4Scheduler.megabytes(budget) + " MB, using the scheduler with 1 thread instead / 串行方法约需 "
+                    + G4Scheduler.megabytes(needed) + " MB 内存, 堆内存预算只有 " + G4Scheduler.megabytes(budget)
+                    + " MB, 改用单线程的调度器");
+            setThreads(1);
+            matchG4_Parallel(true, true);
+            return;
+        }
+        setTotalBases(singleScan ? 1 : 2);
+        openCheckpoint();
+        try {
+            matchG4_F();
+            if (!singleScan) {
+                matchG4_R();
+            }
+            bedOutput.close();
+            assemble(true, true);
+        } finally {
+            bedOutput.close();
+            closeCheckpoint();
+        }
+    }
+
+    /**
+     * 把全部染色体（分片运行时为本分片的区间）的长度之和乘以链数设为进度的总量。
+     */
+    private void setTotalBases(int strands) throws IOException {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+        long total = 0;
+        if (shard != null) {
+            for (Region region : shardRegions()) {
+                total += region.end - region.start;
+            }
+        } else {
+            for (String header : fastaSeq.getChromosomeHeaders()) {
+                total += fastaSeq.getLength(header);
+            }
+        }
+        metrics.setTotalBases(total * strands);
+    }
+
+    /**
+     * 运行结束后整理缓存文件夹。缓存文件夹可以被多个实例共用，因此只处理本次运行自己的序列缓存（检查点目录在 assemble 中删除）：
+     * 保留缓存时先标记保留，再释放序列缓存的共享锁；不保留缓存且未设置大小上限时删除本文件的序列缓存
+     * （其他实例正在使用或要求保留时不删除）；设置了大小上限时按最近使用时间淘汰整个文件夹中最久未用的序列缓存。
+     */
+    void releaseCache(boolean keepCache) throws IOException {
+        SequenceCache cache = new SequenceCache(cacheFolder);
+        if (fastaSeq != null) {
+            if (keepCache) {
+                cache.keep(fastaPath);
+            }
+            fastaSeq.close();
+        }
+        if (!keepCache && cacheSize < 0) {
+            cache.remove(fastaPath);
+        }
+        if (cacheSize >= 0) {
+            cache.trim(cacheSize);
         }
     }
 
@@ -225,25 +903,97 @@ public class G4Fasta2Bed {
      * @throws IOException 
      */
     public static void main(String[] args) throws IOException {
-        if (args.length == 0 || args[0].equals("-h")) {
-            System.out.println("Usage: java G4Fasta2Bed <fastaPath> <cacheFolder> <outputFolder> [-all | -aS | -f | -r]");
-            System.out.println("用法: java G4Fasta2Bed <fasta文件路径> <缓存文件夹> <输出文件夹> [-all | -aS | -f | -r]");
+        // 服务模式和客户端：第一个参数为 --serve 或 --client
+        if (args.length > 0 && args[0].equals("--serve")) {
+            runServer(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--client")) {
+            runClient(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--merge-shards")) {
+            runMergeShards(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // 批量模式：第一个参数为 --batch，之后的参数与单个文件相同，只是 FASTA 路径换成清单文件或通配符
+        boolean batch = args.length > 0 && args[0].equals("--batch");
+        if (batch) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length < 3 || args[0].equals("-h")) {
+            System.out.println("Usage: java G4Fasta2Bed <fastaPath> <cacheFolder> <outputFolder> [-aP | -aS | -f | -r] [--threads N] [--engine scan|regex] [--motifs FILE] [--stream] [--regions BED|chr:start-end,...] [--single-scan] [--merge] [--sort] [--sort-buffer SIZE] [--bgzf] [--resume] [--result-cache DIR] [--result-cache-size SIZE] [--keep-cache] [--cache-size SIZE] [--shard i/n] [--metrics FILE] [--progress]");
+            System.out.println("用法: java G4Fasta2Bed <fasta文件路径> <缓存文件夹> <输出文件夹> [-aP | -aS | -f | -r] [--threads N] [--engine scan|regex] [--motifs FILE] [--stream] [--regions BED|chr:start-end,...] [--single-scan] [--merge] [--sort] [--sort-buffer SIZE] [--bgzf] [--resume] [--result-cache DIR] [--result-cache-size SIZE] [--keep-cache] [--cache-size SIZE] [--shard i/n] [--metrics FILE] [--progress]");
+            System.out.println("       java G4Fasta2Bed --batch <manifest|glob> <cacheFolder> <outputFolder> [-aP | -f | -r] [--threads N] [--engine scan|regex] [--motifs FILE] [--single-scan] [--merge] [--sort] [--sort-buffer SIZE] [--bgzf] [--resume] [--result-cache DIR] [--result-cache-size SIZE] [--keep-cache] [--cache-size SIZE] [--metrics FILE] [--progress]");
+            System.out.println("       java G4Fasta2Bed --batch <清单文件|通配符> <缓存文件夹> <输出文件夹> [-aP | -f | -r] [--threads N] [--engine scan|regex] [--motifs FILE] [--single-scan] [--merge] [--sort] [--sort-buffer SIZE] [--bgzf] [--resume] [--result-cache DIR] [--result-cache-size SIZE] [--keep-cache] [--cache-size SIZE] [--metrics FILE] [--progress]");
+            System.out.println("       java G4Fasta2Bed --serve [--port N] [--bind ADDR] [--threads N] [--queue N] [--max-bases SIZE] [--engine scan|regex] [--motifs FILE]");
+            System.out.println("       java G4Fasta2Bed --client <fastaPath|-> [--url URL] [-f | -r] [--merge] [--sort] [--name NAME]");
+            System.out.println("       java G4Fasta2Bed --merge-shards <outputFolder> [--bgzf] [--sort-buffer SIZE]");
+            System.out.println("       java G4Fasta2Bed --merge-shards <输出文件夹> [--bgzf] [--sort-buffer SIZE]");
             System.out.println("Options:");
             System.out.println("选项:");
             System.out.println("  -aP  : Generate both forward and reverse strand G4 BED files in parallel method   [fast]");
             System.out.println("         并行方法   生成正链和负链的G4 BED文件  [快速]");
+            System.out.println("  --threads N : Number of worker threads for the parallel, streaming and regions methods (default: number of processors)");
+            System.out.println("         并行、流式和区间方法使用的线程数 (默认为处理器核数)");
             System.out.println("  -aS   : Generate both forward and reverse strand G4 BED files in serial method    slow]");
             System.out.println("         串行方法   生成正链和负链的G4 BED文件  [慢速]");
-            System.out.println("  -f    : Generate forward strand G4 BED file only");
+            System.out.println("  -f    : Generate forward strand G4 BED file only (parallel)");
             System.out.println("         只生成正链的G4 BED文件");
-            System.out.println("  -r    : Generate reverse strand G4 BED file only");
+            System.out.println("  -r    : Generate reverse strand G4 BED file only (parallel)");
             System.out.println("         只生成负链的G4 BED文件");
+            System.out.println("  --engine scan|regex : Matching engine, single-pass scanner (default) or the original regular expressions; both give identical output");
+            System.out.println("         匹配引擎, 单遍扫描引擎(默认)或原有的正则表达式, 两者输出完全一致");
+            System.out.println("  --motifs FILE : Read the G4 classes from FILE, one class per line with tract, loop, defect (bulge/vacancy/long loop) and extension bounds, instead of the five built-in classes; the scan engine matches them in linear time whatever the bounds");
+            System.out.println("         从 FILE 读取G4类别代替内置的五类, 每行一个类别, 指定G串、环、缺陷 (bulge/vacancy/长环) 和延伸的范围; 扫描引擎无论范围多大都在线性时间内完成匹配");
+            System.out.println("  --stream : Read the FASTA file in fixed-size windows and write BED rows right away; memory use does not grow with the genome size");
+            System.out.println("         流式处理, 按固定大小的窗口读取FASTA文件并立即写出结果, 内存占用不随基因组大小增长");
+            System.out.println("  --regions BED|chr:start-end,... : Match only the given intervals, read straight from the FASTA file through its .fai index (built next to the FASTA file if missing)");
+            System.out.println("         只匹配指定的区间, 通过 .fai 索引直接读取FASTA文件 (索引不存在时在FASTA文件旁生成)");
+            System.out.println("  --single-scan : Scan only the forward strand and write both BED files from that one pass (the reverse file gets the complemented sequence); output is identical, CPU time is about halved");
+            System.out.println("         只扫描一次正链, 由同一批结果写出正链和负链两个BED文件 (负链文件写出互补序列), 输出不变, CPU时间约减半");
+            System.out.println("  --merge : Merge overlapping hits of all classes into one row per locus; the G4_type column lists every class found there, such as 4G,Bulge,PHQS, and rows are sorted by start");
+            System.out.println("         把各类型相互重叠的结果合并为位点, 每个位点一行, G4_type 列列出匹配到的全部类型, 如 4G,Bulge,PHQS, 行按起点排序");
+            System.out.println("  --sort : Sort rows by chromosome (FASTA order), start and end so that repeated runs give byte-identical files; with --regions the rows are sorted externally within --sort-buffer");
+            System.out.println("         按染色体 (FASTA中的顺序)、起点和终点排序输出, 重复运行得到逐字节相同的文件; 与 --regions 同时使用时在 --sort-buffer 的内存上限内外部排序");
+            System.out.println("  --sort-buffer SIZE : Memory cap of the external sort such as 64M or 1G (default: 256M); beyond it sorted runs are spilled to the cache folder and merged");
+            System.out.println("         外部排序的内存上限, 如 64M 或 1G (默认: 256M), 超出时把有序段写入缓存文件夹后归并");
+            System.out.println("  --bgzf : Write coordinate-sorted, BGZF-compressed BED files (.bed.gz, blocks compressed in parallel) together with a tabix index (.bed.gz.tbi)");
+            System.out.println("         写出按坐标排序、BGZF压缩的BED文件 (.bed.gz, 多线程并行压缩), 同时生成 tabix 索引 (.bed.gz.tbi)");
+            System.out.println("  --resume : Checkpoint finished chromosome strands in the cache folder; rerunning an interrupted --resume run keeps them and only matches the rest (parallel, serial and batch methods)");
+            System.out.println("         在缓存文件夹中记录已完成的染色体链; 重新运行中断的 --resume 运行时沿用它们, 只匹配其余部分 (并行、串行和批量方法)");
+            System.out.println("  --result-cache DIR : Keep the hits of every chromosome in DIR, keyed by a SHA-256 hash of its bases and the motif version; a later run that meets the same sequence (same or another FASTA file, any strand option) reads the hits instead of matching (parallel, serial and batch methods)");
+            System.out.println("         在 DIR 中保存每条染色体的匹配结果, 以碱基序列和模式版本的 SHA-256 为键; 之后的运行 (同一或其他FASTA文件, 任意链选项) 遇到相同的序列时直接读取结果, 不再匹配 (并行、串行和批量方法)");
+            System.out.println("  --result-cache-size SIZE : Size cap of the result cache such as 512M or 4G (default: 1G); the least recently used results are evicted first");
+            System.out.println("         结果缓存的大小上限, 如 512M 或 4G (默认: 1G), 超出时先淘汰最久未用的结果");
+            System.out.println("  --keep-cache : Keep the packed sequence cache after the run; later runs on the same FASTA file reuse it and skip splitting, and runs sharing the cache folder without --keep-cache leave it in place");
+            System.out.println("         运行结束后保留缓存, 之后对同一FASTA文件的运行会直接复用缓存, 跳过分割步骤, 共用缓存文件夹但不加 --keep-cache 的运行也不会删除它");
+            System.out.println("  --cache-size SIZE : Keep packed sequence caches in the cache folder up to SIZE in total such as 8G; the least recently used ones not in use by another run are evicted first. The cache folder can be shared by concurrent runs");
+            System.out.println("         缓存文件夹中保留的序列缓存总大小上限, 如 8G, 超出时先淘汰最久未用且未被其他运行使用的缓存。缓存文件夹可以被同时进行的多个运行共用");
+            System.out.println("  --metrics FILE : Write per-stage timings, throughput, hit counts, bytes written and peak heap to a JSON file, per chromosome and strand");
+            System.out.println("         把各阶段耗时、吞吐量、匹配数、写出字节数和堆内存峰值按染色体和链写入JSON文件");
+            System.out.println("  --progress : Print a progress line (bases done, throughput, ETA) to stderr every 5 seconds");
+            System.out.println("         每5秒向标准错误输出一行进度 (已处理碱基数、吞吐量、预计剩余时间)");
+            System.out.println("  --batch <manifest|glob> : Process many FASTA files in one run: a manifest with one path per line, or a quoted glob such as 'genomes/*.fa.gz'. All chromosomes share one worker pool and memory budget, and each file gets its own pair of BED files");
+            System.out.println("         批量处理多个FASTA文件: 清单文件每行一个路径, 或加引号的通配符如 'genomes/*.fa.gz'。所有染色体共用一个线程池和内存上限, 每个文件仍然生成自己的一对BED文件");
+            System.out.println("  --serve : Run a resident scan service on a local HTTP port (default: " + G4Server.DEFAULT_PORT + "); the engine is built and warmed up once, requests POST FASTA text or a raw sequence to /scan and get BED rows streamed back");
+            System.out.println("         启动常驻的扫描服务, 监听本机HTTP端口 (默认: " + G4Server.DEFAULT_PORT + "); 引擎只建立和预热一次, 请求向 /scan 发送FASTA文本或原始序列, 以流的方式返回BED行");
+            System.out.println("  --queue N : Requests allowed to wait beyond the --threads running ones; more are rejected with HTTP 503 (default: 4 x threads)");
+            System.out.println("         除 --threads 个正在执行的请求外允许排队的请求数, 超出时返回 HTTP 503 (默认: 线程数的4倍)");
+            System.out.println("  --max-bases SIZE : Largest number of bases in one request such as 64M (default: 256M); larger requests get HTTP 413");
+            System.out.println("         每个请求的碱基数上限, 如 64M (默认: 256M), 超出时返回 HTTP 413");
+            System.out.println("  --client : Send a FASTA file (or - for standard input) to a running service and write the BED rows to standard output");
+            System.out.println("         把FASTA文件 (- 表示标准输入) 发送给正在运行的服务, 把BED行写到标准输出");
+            System.out.println("  --shard i/n : Match only shard i of n (1 <= i <= n) so that one genome can be spread over n processes or nodes; the genome is cut by base count at safe cut points, deterministically, and the output files get a .shard-i-of-n suffix (parallel method)");
+            System.out.println("         只匹配 n 个分片中的第 i 个 (1 <= i <= n), 把一个基因组分给 n 个进程或节点; 基因组按碱基数在安全切分点处确定地切开, 输出文件名加上 .shard-i-of-n (并行方法)");
+            System.out.println("  --merge-shards <outputFolder> : Combine the shard outputs in the folder into the final BED files, sorted as with --sort; fails if a shard is missing");
+            System.out.println("         把文件夹中各分片的输出合并为最终的BED文件, 排序方式与 --sort 相同; 缺少分片时报错");
             System.out.println("  -h    : Print this help message and exit");
             System.out.println("         打印帮助信息并退出");
             System.out.println("Note:");
             System.out.println("备注:");
-            System.out.println("The default is to use the parallel method, when the Fasta file to be processed is larger than 1.5GB, it is recommended to use the serial method. If you want to force the parallel method, please add the `-Xmx` parameter to the java command, at least `-Xmx8G`.");
-            System.out.println("默认使用并行方法, 当要处理的Fasta文件大于1.5GB时, 建议使用串行方法。如果希望强行使用并行方法, 请在java命令后加上 `-Xmx` 参数，至少为 `-Xmx8G` 。");
+            System.out.println("The default is the parallel method. It estimates the memory of each chromosome from its length and only starts as many at once as fit in the heap (`-Xmx`), printing the budget it chose, so large FASTA files need neither the serial method nor a larger `-Xmx`; a single chromosome that does not fit prints a hint to raise `-Xmx`.");
+            System.out.println("默认使用并行方法。并行方法按染色体长度估计每条染色体所需的内存, 只同时处理堆内存 (`-Xmx`) 放得下的染色体, 并打印选择的预算, 因此大的Fasta文件既不需要改用串行方法, 也不需要调大 `-Xmx`; 单条染色体放不下时会提示调大 `-Xmx`。");
             System.exit(0);
         }
 
@@ -251,33 +1001,420 @@ public class G4Fasta2Bed {
         String cacheFolder = args[1];
         String outputFolder = args[2];
 
-        G4Fasta2Bed g4Fasta2Bed = new G4Fasta2Bed(fastaPath, cacheFolder, outputFolder);
+        // 解析可选参数
+        String mode = "-aP"; // 默认行为
+        String engineName = "scan";
+        String motifsPath = null;
+        boolean streaming = false;
+        boolean keepCache = false;
+        long cacheSize = -1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Region> regions = new ArrayList<>();
+        String metricsPath = null;
+        boolean progress = false;
+        boolean singleScan = false;
+        boolean bgzf = false;
+        boolean mergeLoci = false;
+        boolean sortRows = false;
+        long sortBuffer = DEFAULT_SORT_BUFFER;
+        boolean resume = false;
+        String resultCachePath = null;
+        long resultCacheSize = 1L << 30;
+        Shard shard = null;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("--stream")) {
+                streaming = true;
+            } else if (args[i].equals("--metrics") && i + 1 < args.length) {
+                metricsPath = args[++i];
+            } else if (args[i].equals("--progress")) {
+                progress = true;
+            } else if (args[i].equals("--single-scan")) {
+                singleScan = true;
+            } else if (args[i].equals("--bgzf")) {
+                bgzf = true;
+            } else if (args[i].equals("--merge")) {
+                mergeLoci = true;
+            } else if (args[i].equals("--sort")) {
+                sortRows = true;
+            } else if (args[i].equals("--sort-buffer") && i + 1 < args.length) {
+                sortBuffer = ResultCache.parseSize(args[++i]);
+            } else if (args[i].equals("--resume")) {
+                resume = true;
+            } else if (args[i].equals("--result-cache") && i + 1 < args.length) {
+                resultCachePath = args[++i];
+            } else if (args[i].equals("--result-cache-size") && i + 1 < args.length) {
+                resultCacheSize = ResultCache.parseSize(args[++i]);
+            } else if (args[i].equals("--regions") && i + 1 < args.length) {
+                regions.addAll(Region.parseAll(args[++i]));
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--keep-cache")) {
+                keepCache = true;
+            } else if (args[i].equals("--cache-size") && i + 1 < args.length) {
+                cacheSize = ResultCache.parseSize(args[++i]);
+            } else if (args[i].equals("--engine") && i + 1 < args.length) {
+                engineName = args[++i];
+                if (!engineName.equals("scan") && !engineName.equals("regex")) {
+                    System.out.println("Invalid engine / 非法引擎: " + engineName);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--motifs") && i + 1 < args.length) {
+                motifsPath = args[++i];
+            } else if (args[i].equals("--shard") && i + 1 < args.length) {
+                try {
+                    shard = Shard.parse(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    System.exit(1);
+                }
+            } else {
+                mode = args[i];
+            }
+        }
+
+        G4Engine engine = createEngine(engineName, motifsPath);
+        if (mergeLoci && engine.types().length > Long.SIZE) {
+            System.out.println("--merge supports at most " + Long.SIZE + " motif classes / --merge 最多支持 " + Long.SIZE + " 个模式类别");
+            System.exit(1);
+        }
+
+        if (resultCachePath != null && (streaming || !regions.isEmpty())) {
+            System.out.println("--result-cache cannot be used with --stream or --regions / --result-cache 不能与 --stream 或 --regions 同时使用");
+            System.exit(1);
+        }
+        // 结果缓存放在缓存文件夹之外，按自己的大小上限淘汰
+        ResultCache resultCache = resultCachePath == null ? null
+                : new ResultCache(Paths.get(resultCachePath), resultCacheSize);
+        if (shard != null && (batch || streaming || !regions.isEmpty() || resume || bgzf)) {
+            System.out.println("--shard cannot be used with --batch, --stream, --regions, --resume or --bgzf (use --merge-shards --bgzf) / --shard 不能与 --batch、--stream、--regions、--resume 或 --bgzf 同时使用 (请使用 --merge-shards --bgzf)");
+            System.exit(1);
+        }
+
+        // 批量模式：展开清单文件或通配符，之后用并行方法处理全部文件
+        List<Path> batchFiles = null;
+        if (batch) {
+            if (streaming || !regions.isEmpty()) {
+                System.out.println("--stream and --regions cannot be used with --batch / --stream 和 --regions 不能与 --batch 同时使用");
+                System.exit(1);
+            }
+            batchFiles = FastaBatch.expand(fastaPath);
+            if (batchFiles.isEmpty()) {
+                System.out.println("No FASTA files found / 没有找到FASTA文件: " + fastaPath);
+                System.exit(1);
+            }
+        }
+        if (resume && (streaming || !regions.isEmpty())) {
+            System.out.println("--resume cannot be used with --stream or --regions / --resume 不能与 --stream 或 --regions 同时使用");
+            System.exit(1);
+        }
+
+        // 批量模式的对象只提供设置，不打开FASTA文件，每个文件由 matchG4_Batch 另外打开
+        G4Fasta2Bed g4Fasta2Bed = new G4Fasta2Bed(batch ? batchFiles.get(0).toString() : fastaPath, cacheFolder,
+                outputFolder, engine, batch || streaming || !regions.isEmpty());
+        g4Fasta2Bed.setThreads(threads);
+        g4Fasta2Bed.setSingleScan(singleScan);
+        g4Fasta2Bed.setCompressedOutput(bgzf);
+        g4Fasta2Bed.setMergeLoci(mergeLoci);
+        g4Fasta2Bed.setSortedOutput(sortRows, sortBuffer);
+        g4Fasta2Bed.setResume(resume);
+        g4Fasta2Bed.setResultCache(resultCache);
+        g4Fasta2Bed.setCacheSize(cacheSize);
+        g4Fasta2Bed.setKeepCache(keepCache);
+        if (shard != null) {
+            g4Fasta2Bed.setShard(shard);
+        }
 
-        if (args.length > 3) {
-            switch (args[3]) {
+        // 需要输出指标或显示进度时才记录运行指标
+        if (metricsPath != null || progress) {
+            String metricsMode = batch ? "--batch " + mode
+                    : streaming ? "--stream" : !regions.isEmpty() ? "--regions" : mode;
+            RunMetrics metrics = g4Fasta2Bed.startMetrics(fastaPath, metricsMode, motifsPath, progress);
+            if (batch) {
+                metrics.setInfo("files", String.valueOf(batchFiles.size()));
+            }
+        }
+
+        if (batch) {
+            switch (mode) {
                 case "-aP":
-                    g4Fasta2Bed.matchG4_All_Paralle();
-                    g4Fasta2Bed.clearCache();
+                case "-aS":
+                    // 批量模式总是使用并行方法
+                    g4Fasta2Bed.matchG4_Batch(batchFiles, true, true);
+                    break;
+                case "-f":
+                    g4Fasta2Bed.matchG4_Batch(batchFiles, true, false);
+                    break;
+                case "-r":
+                    g4Fasta2Bed.matchG4_Batch(batchFiles, false, true);
+                    break;
+                default:
+                    System.out.println("Invalid option / 非法选项: " + mode);
+                    System.exit(1);
+            }
+        } else if (!regions.isEmpty()) {
+            // 区间模式通过 .fai 索引直接读取FASTA文件，不使用缓存文件夹
+            switch (mode) {
+                case "-aP":
+                case "-aS":
+                    g4Fasta2Bed.matchG4_Regions(regions, true, true);
                     break;
+                case "-f":
+                    g4Fasta2Bed.matchG4_Regions(regions, true, false);
+                    break;
+                case "-r":
+                    g4Fasta2Bed.matchG4_Regions(regions, false, true);
+                    break;
+                default:
+                    System.out.println("Invalid option / 非法选项: " + mode);
+                    System.exit(1);
+            }
+            // 压缩文件和无法建立索引的文件在区间模式下使用了缓存文件夹
+            if (!g4Fasta2Bed.fastaSeq.isIndexed()) {
+                g4Fasta2Bed.releaseCache(keepCache);
+            }
+        } else if (streaming) {
+            // 流式模式不使用缓存文件夹，因此也不需要清理
+            switch (mode) {
+                case "-aP":
                 case "-aS":
-                    g4Fasta2Bed.matchG4_All_Serial();
-                    g4Fasta2Bed.clearCache();
+                    g4Fasta2Bed.matchG4_Stream(true, true);
                     break;
                 case "-f":
-                    g4Fasta2Bed.matchG4_F();
-                    g4Fasta2Bed.clearCache();
+                    g4Fasta2Bed.matchG4_Stream(true, false);
                     break;
                 case "-r":
-                    g4Fasta2Bed.matchG4_R();
-                    g4Fasta2Bed.clearCache();
+                    g4Fasta2Bed.matchG4_Stream(false, true);
                     break;
                 default:
-                    System.out.println("Invalid option / 非法选项: " + args[3]);
+                    System.out.println("Invalid option / 非法选项: " + mode);
                     System.exit(1);
             }
         } else {
-            g4Fasta2Bed.matchG4_All_Paralle(); // 默认行为
-            g4Fasta2Bed.clearCache();
+            switch (mode) {
+                case "-aP":
+                    g4Fasta2Bed.matchG4_All_Paralle();
+                    break;
+                case "-aS":
+                    // 分片运行总是使用并行方法
+                    if (shard != null) {
+                        g4Fasta2Bed.matchG4_All_Paralle();
+                    } else {
+                        g4Fasta2Bed.matchG4_All_Serial();
+                    }
+                    break;
+                case "-f":
+                    g4Fasta2Bed.matchG4_Parallel(true, false);
+                    break;
+                case "-r":
+                    g4Fasta2Bed.matchG4_Parallel(false, true);
+                    break;
+                default:
+                    System.out.println("Invalid option / 非法选项: " + mode);
+                    System.exit(1);
+            }
+            g4Fasta2Bed.releaseCache(keepCache);
+        }
+
+        g4Fasta2Bed.finishMetrics(metricsPath);
+    }
+
+    /**
+     * 开始记录运行指标：记录输入、运行模式和本对象的各项设置，交给本对象使用，需要时开始显示进度。
+     *
+     * @param fasta      FASTA文件的路径，批量运行时为清单文件或通配符。
+     * @param mode       运行模式，如 -aP、--stream。
+     * @param motifsPath 模式配置文件，使用内置模式时为 null。
+     * @param progress   是否显示进度。
+     * @return 运行指标。
+     */
+    private RunMetrics startMetrics(String fasta, String mode, String motifsPath, boolean progress) {
+        RunMetrics metrics = new RunMetrics();
+        metrics.setInfo("fasta", fasta);
+        metrics.setInfo("mode", mode);
+        metrics.setInfo("engine", g4Engine instanceof G4_Base ? "regex" : "scan");
+        metrics.setInfo("threads", String.valueOf(threads));
+        metrics.setInfo("singleScan", String.valueOf(singleScan));
+        metrics.setInfo("bgzf", String.valueOf(compressed));
+        metrics.setInfo("merge", String.valueOf(mergeLoci));
+        metrics.setInfo("sort", String.valueOf(sortRows));
+        metrics.setInfo("resultCache", String.valueOf(resultCache != null));
+        metrics.setInfo("cacheSize", String.valueOf(cacheSize));
+        metrics.setInfo("motifs", motifsPath == null ? "built-in" : motifsPath);
+        if (shard != null) {
+            metrics.setInfo("shard", shard.index + "/" + shard.count);
+        }
+        metrics.setTypes(g4Engine.types());
+        setMetrics(metrics);
+        if (progress) {
+            metrics.startProgress();
+        }
+        return metrics;
+    }
+
+    /**
+     * 停止显示进度，记录结果缓存的命中情况，指定了文件时把运行指标写为JSON。
+     */
+    private void finishMetrics(String metricsPath) {
+        metrics.stopProgress();
+        recordResultCache(metrics, resultCache);
+        if (metricsPath != null) {
+            try {
+                metrics.writeJson(Paths.get(metricsPath));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 按引擎名称和模式配置文件建立匹配引擎，配置文件不合法时打印错误并退出。
+     */
+    private static G4Engine createEngine(String engineName, String motifsPath) throws IOException {
+        MotifSet motifs = MotifSet.DEFAULT;
+        if (motifsPath != null) {
+            try {
+                motifs = MotifSet.read(Paths.get(motifsPath));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
+        return engineName.equals("regex") ? new G4_Base(motifs) : new G4Scanner(motifs);
+    }
+
+    /**
+     * 服务模式的入口：建立并预热引擎，然后在后台线程上接受请求，直到进程被终止。
+     */
+    private static void runServer(String[] args) throws IOException {
+        int port = G4Server.DEFAULT_PORT;
+        String bind = "127.0.0.1";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+        long maxBases = 256L << 20;
+        String engineName = "scan";
+        String motifsPath = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port") && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--bind") && i + 1 < args.length) {
+                bind = args[++i];
+            } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--queue") && i + 1 < args.length) {
+                queue = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--max-bases") && i + 1 < args.length) {
+                maxBases = ResultCache.parseSize(args[++i]);
+            } else if (args[i].equals("--engine") && i + 1 < args.length) {
+                engineName = args[++i];
+                if (!engineName.equals("scan") && !engineName.equals("regex")) {
+                    System.out.println("Invalid engine / 非法引擎: " + engineName);
+                    System.exit(1);
+                }
+            } else if (args[i].equals("--motifs") && i + 1 < args.length) {
+                motifsPath = args[++i];
+            } else {
+                System.out.println("Invalid option / 非法选项: " + args[i]);
+                System.exit(1);
+            }
+        }
+        G4Engine engine = createEngine(engineName, motifsPath);
+        G4Server server = new G4Server(engine, new InetSocketAddress(bind, port), threads,
+                queue < 0 ? 4 * threads : queue, maxBases);
+        long warmUp = server.warmUp();
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("G4 scan service on http://" + bind + ":" + server.port() + " (" + threads
+                + " threads, warm-up " + warmUp + " ms) / G4扫描服务已启动");
+    }
+
+    /**
+     * 客户端的入口：把一个FASTA文件发送给服务，BED行写到标准输出。
+     */
+    private static void runClient(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java G4Fasta2Bed --client <fastaPath|-> [--url URL] [-f | -r] [--merge] [--sort] [--name NAME]");
+            System.exit(1);
+        }
+        String url = "http://127.0.0.1:" + G4Server.DEFAULT_PORT;
+        String strand = "both";
+        boolean mergeLoci = false;
+        boolean sortRows = false;
+        String name = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--url") && i + 1 < args.length) {
+                url = args[++i];
+            } else if (args[i].equals("-f")) {
+                strand = "f";
+            } else if (args[i].equals("-r")) {
+                strand = "r";
+            } else if (args[i].equals("--merge")) {
+                mergeLoci = true;
+            } else if (args[i].equals("--sort")) {
+                sortRows = true;
+            } else if (args[i].equals("--name") && i + 1 < args.length) {
+                name = args[++i];
+            } else {
+                System.out.println("Invalid option / 非法选项: " + args[i]);
+                System.exit(1);
+            }
+        }
+        G4Client client = new G4Client(url);
+        try {
+            if (args[0].equals("-")) {
+                client.scan(System.in, false, strand, mergeLoci, sortRows, name, System.out);
+            } else {
+                client.scan(Paths.get(args[0]), strand, mergeLoci, sortRows, name, System.out);
+            }
+        } catch (IOException e) {
+            System.err.println("Scan failed / 扫描失败: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 合并分片输出的入口。
+     */
+    private static void runMergeShards(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java G4Fasta2Bed --merge-shards <outputFolder> [--bgzf] [--sort-buffer SIZE]");
+            System.exit(1);
+        }
+        boolean bgzf = false;
+        long sortBuffer = DEFAULT_SORT_BUFFER;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--bgzf")) {
+                bgzf = true;
+            } else if (args[i].equals("--sort-buffer") && i + 1 < args.length) {
+                sortBuffer = ResultCache.parseSize(args[++i]);
+            } else {
+                System.out.println("Invalid option / 非法选项: " + args[i]);
+                System.exit(1);
+            }
+        }
+        List<Path> merged;
+        try {
+            merged = Shard.merge(Paths.get(args[0]), bgzf, sortBuffer);
+        } catch (IOException e) {
+            System.out.println("Merge failed / 合并失败: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (merged.isEmpty()) {
+            System.out.println("No shard outputs found / 没有找到分片的输出: " + args[0]);
+            System.exit(1);
+        }
+        for (Path file : merged) {
+            System.out.println("Merged / 已合并: " + file);
+        }
+    }
+
+    /**
+     * 在运行指标中记录结果缓存的命中和未命中次数。
+     */
+    private static void recordResultCache(RunMetrics metrics, ResultCache resultCache) {
+        if (resultCache != null) {
+            metrics.setInfo("resultCacheHits", String.valueOf(resultCache.hits()));
+            metrics.setInfo("resultCacheMisses", String.valueOf(resultCache.misses()));
         }
     }
-}
\ No newline at end of file
+}
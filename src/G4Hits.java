@@ -0,0 +1,256 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * G4Hits类以基本类型数组保存一批G-四链体匹配结果：起点、终点和模式类型（类型名称数组中的下标）各占一个数组，
+ * 匹配到的序列不单独保存，而是引用被匹配的字节数组，直到写出BED文件时才格式化为文本。
+ * 这样每条匹配结果不会产生任何字符串对象，重复序列丰富的基因组也不会给垃圾回收带来压力。
+ */
+public class G4Hits {
+    private int size;
+    private int[] starts;
+    private int[] ends;
+    private byte[] types;
+
+    // 被匹配的序列；第 i 条匹配的序列为 sequence[starts[i] - sequenceOffset, ends[i] - sequenceOffset)
+    private final byte[] sequence;
+    private final int sequenceOffset;
+    // 模式类型的名称，下标即 types 中的值
+    private final String[] typeNames;
+    // 合并后的位点包含的全部模式类型（第 t 位对应类型 t），未合并的结果为 null
+    private long[] masks;
+    // 各种类型组合在 G4_type 列中的写法，写出时按需生成
+    private Map<Long, String> maskNames;
+
+    /**
+     * @param sequence       被匹配的序列，写出前不能被修改。
+     * @param sequenceOffset sequence[0] 对应的输出坐标。
+     */
+    public G4Hits(byte[] sequence, int sequenceOffset) {
+        this(sequence, sequenceOffset, G4Scanner.TYPES);
+    }
+
+    /**
+     * @param typeNames 模式类型的名称，由 --motifs 配置时与内置的五类不同。
+     */
+    public G4Hits(byte[] sequence, int sequenceOffset, String[] typeNames) {
+        this.sequence = sequence;
+        this.sequenceOffset = sequenceOffset;
+        this.typeNames = typeNames;
+        this.starts = new int[16];
+        this.ends = new int[16];
+        this.types = new byte[16];
+    }
+
+    /**
+     * 追加一条匹配结果。
+     *
+     * @param start 起始位置（输出坐标）。
+     * @param end   结束位置（输出坐标，不包含）。
+     * @param type  模式类型在 typeNames() 中的下标。
+     */
+    public void add(int start, int end, int type) {
+        add(start, end, type, 1L << type);
+    }
+
+    private void add(int start, int end, int type, long mask) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            types = Arrays.copyOf(types, capacity);
+            if (masks != null) {
+                masks = Arrays.copyOf(masks, capacity);
+            }
+        }
+        starts[size] = start;
+        ends[size] = end;
+        types[size] = (byte) type;
+        if (masks != null) {
+            masks[size] = mask;
+        }
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    public int type(int i) {
+        return types[i];
+    }
+
+    public String typeName(int i) {
+        if (masks == null) {
+            return typeNames[types[i]];
+        }
+        if (maskNames == null) {
+            maskNames = new HashMap<>();
+        }
+        return maskNames.computeIfAbsent(masks[i], this::joinTypeNames);
+    }
+
+    /**
+     * 返回第 i 条结果包含的模式类型，第 t 位对应类型 t；未合并的结果只有自己的类型一位。
+     */
+    public long mask(int i) {
+        return masks == null ? 1L << types[i] : masks[i];
+    }
+
+    private String joinTypeNames(long mask) {
+        StringBuilder names = new StringBuilder();
+        for (int t = 0; t < typeNames.length; t++) {
+            if ((mask & 1L << t) != 0) {
+                names.append(names.length() == 0 ? "" : ",").append(typeNames[t]);
+            }
+        }
+        return names.toString();
+    }
+
+    public String[] typeNames() {
+        return typeNames;
+    }
+
+    /**
+     * 返回保存匹配序列的字节数组，第 i 条匹配的序列从 textOffset(i) 开始，长度为 end(i) - start(i)。
+     */
+    public byte[] sequence() {
+        return sequence;
+    }
+
+    public int textOffset(int i) {
+        return starts[i] - sequenceOffset;
+    }
+
+    /**
+     * 返回第 i 条匹配的序列。
+     */
+    public String text(int i) {
+        return new String(sequence, textOffset(i), ends[i] - starts[i], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 把各分块的结果按模式类型重新归并：先全部分块的4G结果，再全部分块的Bulge结果，依此类推，
+     * 与整条序列一次匹配时的顺序相同。各分块必须引用同一个序列数组。
+     */
+    static G4Hits merge(List<G4Hits> chunks) {
+        G4Hits first = chunks.get(0);
+        G4Hits merged = new G4Hits(first.sequence, first.sequenceOffset, first.typeNames);
+        for (int type = 0; type < first.typeNames.length; type++) {
+            for (G4Hits chunk : chunks) {
+                if (chunk.sequence != first.sequence || chunk.sequenceOffset != first.sequenceOffset) {
+                    throw new IllegalArgumentException("Chunks do not share the same sequence");
+                }
+                for (int i = 0; i < chunk.size; i++) {
+                    if (chunk.types[i] == type) {
+                        merged.add(chunk.starts[i], chunk.ends[i], type);
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 返回引用另一个序列数组的副本，例如把正链的结果用于互补序列。两个数组的长度和坐标必须一致。
+     */
+    G4Hits withSequence(byte[] other) {
+        G4Hits copy = new G4Hits(other, sequenceOffset, typeNames);
+        copy.size = size;
+        copy.starts = Arrays.copyOf(starts, Math.max(size, 1));
+        copy.ends = Arrays.copyOf(ends, Math.max(size, 1));
+        copy.types = Arrays.copyOf(types, Math.max(size, 1));
+        if (masks != null) {
+            copy.masks = Arrays.copyOf(masks, Math.max(size, 1));
+        }
+        return copy;
+    }
+
+    /**
+     * 返回按起点、终点排序的副本，起点和终点都相同的结果保持原来的顺序（即G4类别的顺序），序列数组共用。
+     */
+    public G4Hits sortedByPosition() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (long) starts[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int k = 0; k < size; k++) {
+            order[k] = (int) keys[k];
+        }
+        // 起点相同的结果很少，用插入排序按终点排序
+        for (int k = 1; k < size; k++) {
+            int row = order[k];
+            int j = k - 1;
+            while (j >= 0 && starts[order[j]] == starts[row] && ends[order[j]] > ends[row]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = row;
+        }
+        G4Hits sorted = new G4Hits(sequence, sequenceOffset, typeNames);
+        if (masks != null) {
+            sorted.masks = new long[16];
+        }
+        for (int i : order) {
+            sorted.add(starts[i], ends[i], types[i], mask(i));
+        }
+        return sorted;
+    }
+
+    /**
+     * 把相互重叠的结果合并为互不重叠的位点：按起点排序后一次扫描，起点落在当前位点之内的结果并入该位点，
+     * 终点取最大值，模式类型按位合并。首尾相接而不重叠的结果仍是不同的位点。
+     * 位点的类型为其中编号最小的类型，写出时 G4_type 列列出全部类型（如 4G,Bulge,PHQS），序列数组共用。
+     * 类型数不能超过64。
+     */
+    public G4Hits loci() {
+        if (typeNames.length > Long.SIZE) {
+            throw new IllegalStateException("Cannot merge more than " + Long.SIZE + " motif classes");
+        }
+        G4Hits sorted = sortedByPosition();
+        G4Hits loci = new G4Hits(sequence, sequenceOffset, typeNames);
+        loci.masks = new long[16];
+        int i = 0;
+        while (i < sorted.size) {
+            int start = sorted.starts[i];
+            int end = sorted.ends[i];
+            long mask = sorted.mask(i);
+            for (i++; i < sorted.size && sorted.starts[i] < end; i++) {
+                end = Math.max(end, sorted.ends[i]);
+                mask |= sorted.mask(i);
+            }
+            loci.add(start, end, Long.numberOfTrailingZeros(mask), mask);
+        }
+        return loci;
+    }
+
+    /**
+     * 转换为 G4Engine.matchPatterns 的旧格式：每个结果包括起始位置、结束位置、匹配的字符串和匹配的模式类型。
+     */
+    public ArrayList<String[]> toRows() {
+        ArrayList<String[]> rows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            rows.add(new String[] {
+                    String.valueOf(starts[i]),
+                    String.valueOf(ends[i]),
+                    text(i),
+                    typeName(i)
+            });
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,416 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * G4Scanner类是不依赖正则表达式的G-四链体匹配引擎。
+ * 它先对序列做一次线性扫描，记录所有长度不小于2的G串和C串，
+ * 然后只在这些串的位置上，按照 G4_Base 中五类正则表达式的语义（惰性环、贪婪G串、按顺序尝试的备选分支）
+ * 判定4G、Bulge、GVBQ、4GL15和PHQS结构，输出与正则引擎逐字节一致。
+ * <p>
+ * 模式类别也可以由 MotifSet 配置，每个类别编译为一组备选分支，由同一个状态机判定。
+ * 每个状态（分支, 单元, 位置）失败后都会记下，不会从不同的回溯路径重复搜索，
+ * 因此匹配时间与序列长度成线性关系，环和G串的长度上限只影响常数，不会像回溯的正则表达式那样急剧变慢。
+ */
+public class G4Scanner implements G4Engine {
+    // 模式类型名称，顺序与 G4_Base.matchPatterns 的输出顺序一致
+    static final String[] TYPES = { "4G", "Bulge", "GVBQ", "4GL15", "PHQS" };
+    // 内置模式定义的版本，作为结果缓存的键的一部分；修改 G4_Base 中的模式或本类的判定规则时必须同时修改
+    static final String MOTIF_VERSION = "G4_Base/4G,Bulge,GVBQ,4GL15,PHQS/1";
+
+    // 结构单元：G{min,max}、缺失一个G的串 G{min-1} 以及 bulge 单元 G{min-1}[^G]{1,B}G{min-1}
+    private static final int TRACT = 0;
+    private static final int PAIR = 1;
+    private static final int BULGE = 2;
+
+    // 内置模式中最长的环（re_4GL15 中的 .{1,15}?）
+    static final int MAX_LOOP = 15;
+
+    // 配置的模式中核心部分最多的G串个数
+    static final int MAX_TRACTS = 16;
+
+    // 超过该长度的G串/C串改为在串列表中查找终点
+    private static final int SHORT_RUN = 16;
+
+    // 失败记忆表的大小范围（按位置取模）；表项冲突只会丢失记忆，不影响结果
+    private static final int MIN_MEMO_BITS = 9;
+    private static final int MAX_MEMO_BITS = 12;
+
+    private final String[] types;
+    private final String motifVersion;
+    // 相邻两个G串之间最多相隔的碱基数，决定安全切分点
+    private final int maxGap;
+    // 各类模式的备选分支，与 G4_Base 中的正则表达式一一对应，C形式与G形式对称
+    private final Alt[][] patterns;
+    private final int altCount;
+    private final int maxUnits;
+    private final int memoBits;
+
+    /**
+     * 一条备选分支：依次必须匹配的结构单元（除第一个外，每个单元前有一个惰性的 .{loopMin,gap}? 环），
+     * 以及其后贪婪重复的 (.{loopMin,loopMax}?G{min,max}) 的最多次数。
+     */
+    private static final class Alt {
+        final int id;
+        final MotifSet.Motif motif;
+        final int[] units;
+        final int[] gaps;
+        final int maxExtra;
+
+        Alt(int id, MotifSet.Motif motif, int[] units, int[] gaps, int maxExtra) {
+            this.id = id;
+            this.motif = motif;
+            this.units = units;
+            this.gaps = gaps;
+            this.maxExtra = maxExtra;
+        }
+    }
+
+    /**
+     * 使用内置的五类模式。
+     */
+    public G4Scanner() {
+        this(MotifSet.DEFAULT);
+    }
+
+    /**
+     * 把配置的模式类别编译为备选分支：有缺陷的类别按缺陷的位置依次生成分支，缺陷在最后一个位置的分支不再延伸。
+     */
+    public G4Scanner(MotifSet motifs) {
+        List<MotifSet.Motif> list = motifs.motifs();
+        this.types = motifs.names();
+        this.motifVersion = motifs.version();
+        this.maxGap = motifs.maxGap();
+        this.patterns = new Alt[list.size()][];
+        int ids = 0;
+        int units = 1;
+        long span = 0;
+        for (int type = 0; type < list.size(); type++) {
+            MotifSet.Motif motif = list.get(type);
+            int n = motif.defect == MotifSet.NONE ? 1
+                    : motif.defect == MotifSet.LONG_LOOP ? motif.tracts - 1 : motif.tracts;
+            patterns[type] = new Alt[n];
+            for (int d = 0; d < n; d++) {
+                int[] unitKinds = new int[motif.tracts];
+                int[] gaps = new int[motif.tracts];
+                for (int i = 0; i < motif.tracts; i++) {
+                    unitKinds[i] = motif.defect == MotifSet.BULGE && i == d ? BULGE
+                            : motif.defect == MotifSet.VACANCY && i == d ? PAIR : TRACT;
+                    gaps[i] = i == 0 ? 0 : motif.defect == MotifSet.LONG_LOOP && i - 1 == d ? motif.defectSize
+                            : motif.loopMax;
+                }
+                int maxExtra = motif.defect == MotifSet.NONE || d != n - 1 ? motif.extend : 0;
+                patterns[type][d] = new Alt(ids++, motif, unitKinds, gaps, maxExtra);
+            }
+            units = Math.max(units, motif.tracts);
+            span = Math.max(span, (long) motif.tracts * (Math.max(motif.loopMax, motif.defectSize) + 2 * motif.tractMin));
+        }
+        this.altCount = ids;
+        this.maxUnits = units;
+        // 记忆表覆盖一次回溯可能到达的范围，避免不同位置的状态相互覆盖
+        int bits = MIN_MEMO_BITS;
+        while (bits < MAX_MEMO_BITS && (1L << bits) < 2 * span) {
+            bits++;
+        }
+        this.memoBits = bits;
+    }
+
+    /**
+     * 根据预定义的模式匹配输入序列中的G-四链体结构。
+     *
+     * @param sequence 输入的DNA序列。
+     * @return 匹配结果的列表，每个结果包括起始位置、结束位置、匹配的字符串和匹配的模式类型。
+     */
+    @Override
+    public ArrayList<String[]> matchPatterns(String sequence) {
+        return matchPatterns(sequence.getBytes(StandardCharsets.ISO_8859_1), 0, sequence.length(), 0);
+    }
+
+    @Override
+    public G4Hits match(byte[] sequence, int from, int to, int offset) {
+        G4Hits matches = new G4Hits(sequence, offset, types);
+        Scan scan = new Scan(sequence, from, to);
+        for (int type = 0; type < patterns.length; type++) {
+            int[] hits = scan.find(patterns[type]);
+            for (int i = 0; i < hits[0]; i++) {
+                matches.add(hits[2 * i + 1] + offset, hits[2 * i + 2] + offset, type);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 只匹配一种模式类型，供基准测试分别测量各类模式的耗时。
+     *
+     * @param type 模式类型在 types() 中的下标。
+     */
+    G4Hits matchType(int type, byte[] sequence, int from, int to, int offset) {
+        G4Hits matches = new G4Hits(sequence, offset, types);
+        int[] hits = new Scan(sequence, from, to).find(patterns[type]);
+        for (int i = 0; i < hits[0]; i++) {
+            matches.add(hits[2 * i + 1] + offset, hits[2 * i + 2] + offset, type);
+        }
+        return matches;
+    }
+
+    @Override
+    public String[] types() {
+        return types;
+    }
+
+    @Override
+    public String motifVersion() {
+        return motifVersion;
+    }
+
+    @Override
+    public int findCut(byte[] sequence, int from, int to) {
+        return findCut(sequence, from, to, maxGap);
+    }
+
+    /**
+     * 在 [from, to) 中寻找一个安全的切分点：任何一类模式的匹配都不会跨过该点，
+     * 因而把序列在此处切开、分别匹配两侧，得到的结果与整体匹配完全相同。
+     * <p>
+     * 每个匹配都由长度不小于2的G串（或C串）组成，相邻两串之间最多相隔 maxGap 个碱基。
+     * 若切分点两侧共 maxGap + 2 个位置内都不存在 GG 或 CC，左侧的匹配及其回溯都无法越过该点，
+     * 右侧的匹配也不会从该点之前开始。
+     *
+     * @param maxGap 相邻两个G串之间最多相隔的碱基数，内置模式为 MAX_LOOP。
+     * @return 最靠后的安全切分点；区间内不存在时返回 -1。
+     */
+    static int findCut(byte[] sequence, int from, int to, int maxGap) {
+        int quiet = 0;
+        for (int i = to - 2; i >= from; i--) {
+            int base = sequence[i] & 0xDF;
+            if ((base == 'G' || base == 'C') && (sequence[i + 1] & 0xDF) == base) {
+                quiet = 0;
+            } else if (++quiet == maxGap + 2) {
+                return i + maxGap / 2 + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 单次扫描的状态：序列、扫描区间以及线性扫描得到的G串/C串列表。
+     * 每次调用单独创建，因此同一个 G4Scanner 可以被多个线程同时使用。
+     */
+    private final class Scan {
+        private final byte[] seq;
+        private final int limit;
+        private int[] runStart = new int[1024];
+        private int[] runEnd = new int[1024];
+        private int runCount;
+        // 当前候选起点所在串的下标，之后的查找只会落在它及其后的串中
+        private int cursor;
+        // matchUnit(alt, i, pos) 的结果只取决于 (alt, i, pos)，记下失败过的位置，避免回溯时从不同路径重复搜索
+        private final int[] failed = new int[altCount * maxUnits << memoBits];
+
+        Scan(byte[] seq, int from, int to) {
+            this.seq = seq;
+            this.limit = to;
+            collectRuns(from, to);
+        }
+
+        /**
+         * 一次线性扫描，记录所有长度不小于2的G串和C串（不区分大小写）。
+         */
+        private void collectRuns(int from, int to) {
+            int i = from;
+            while (i < to) {
+                int base = seq[i] & 0xDF;
+                if (base != 'G' && base != 'C') {
+                    i++;
+                    continue;
+                }
+                int j = i + 1;
+                while (j < to && (seq[j] & 0xDF) == base) {
+                    j++;
+                }
+                if (j - i >= 2) {
+                    if (runCount == runStart.length) {
+                        runStart = Arrays.copyOf(runStart, runCount * 2);
+                        runEnd = Arrays.copyOf(runEnd, runCount * 2);
+                    }
+                    runStart[runCount] = i;
+                    runEnd[runCount] = j;
+                    runCount++;
+                }
+                i = j;
+            }
+        }
+
+        /**
+         * 按 Matcher.find() 的语义依次查找互不重叠的匹配。
+         *
+         * @param alts 模式的备选分支。
+         * @return 第0个元素为匹配数量，随后依次为每个匹配的起始和结束位置。
+         */
+        int[] find(Alt[] alts) {
+            int[] hits = new int[17];
+            int count = 0;
+            int pos = 0;
+            for (int r = 0; r < runCount; r++) {
+                int last = runEnd[r] - 2;
+                int base = seq[runStart[r]] & 0xDF;
+                cursor = r;
+                for (int p = Math.max(pos, runStart[r]); p <= last; p++) {
+                    int end = matchAt(alts, p, base);
+                    if (end >= 0) {
+                        if (2 * count + 3 > hits.length) {
+                            hits = Arrays.copyOf(hits, hits.length * 2);
+                        }
+                        hits[2 * count + 1] = p;
+                        hits[2 * count + 2] = end;
+                        count++;
+                        pos = end;
+                        p = end - 1;
+                    }
+                }
+            }
+            hits[0] = count;
+            return hits;
+        }
+
+        /**
+         * 在指定位置按顺序尝试各备选分支，返回第一个成功分支的结束位置，全部失败时返回-1。
+         */
+        private int matchAt(Alt[] alts, int pos, int base) {
+            for (Alt alt : alts) {
+                int end = matchUnit(alt, 0, pos, base);
+                if (end >= 0) {
+                    return end;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 从第 i 个单元开始回溯匹配：环由短到长尝试，G串由长到短尝试。
+         */
+        private int matchUnit(Alt alt, int i, int pos, int base) {
+            if (i == alt.units.length) {
+                return matchTail(alt, pos, base);
+            }
+            int memo = (alt.id * maxUnits + i) << memoBits | (pos & ((1 << memoBits) - 1));
+            if (failed[memo] == pos + 1) {
+                return -1;
+            }
+            MotifSet.Motif motif = alt.motif;
+            int maxGap = alt.gaps[i];
+            int minGap = maxGap == 0 ? 0 : motif.loopMin;
+            for (int k = 0; k <= maxGap; k++) {
+                if (k > 0 && (pos + k > limit || !isDot(seq[pos + k - 1]))) {
+                    break;
+                }
+                if (k < minGap) {
+                    continue;
+                }
+                int q = pos + k;
+                int n = runLength(q, base);
+                int half = motif.half();
+                switch (alt.units[i]) {
+                    case TRACT:
+                        for (int len = Math.min(n, motif.tractMax); len >= motif.tractMin; len--) {
+                            int end = matchUnit(alt, i + 1, q + len, base);
+                            if (end >= 0) {
+                                return end;
+                            }
+                        }
+                        break;
+                    case PAIR:
+                        if (n >= half) {
+                            int end = matchUnit(alt, i + 1, q + half, base);
+                            if (end >= 0) {
+                                return end;
+                            }
+                        }
+                        break;
+                    default:
+                        if (n == half) {
+                            // [^G]{1,B}? 之后紧跟G，只有到下一个G为止的长度可能成功
+                            int j = q + half;
+                            while (j < limit && j - q - half < motif.defectSize && (seq[j] & 0xDF) != base) {
+                                j++;
+                            }
+                            if (j > q + half && j + half <= limit && runLength(j, base) >= half) {
+                                int end = matchUnit(alt, i + 1, j + half, base);
+                                if (end >= 0) {
+                                    return end;
+                                }
+                            }
+                        }
+                        break;
+                }
+            }
+            failed[memo] = pos + 1;
+            return -1;
+        }
+
+        /**
+         * 尾部贪婪重复的 (.{min,max}?G{min,max})。其后没有其他约束，每一轮取最短的环和最长的G串即可，无需回溯。
+         */
+        private int matchTail(Alt alt, int pos, int base) {
+            MotifSet.Motif motif = alt.motif;
+            for (int count = 0; count < alt.maxExtra; count++) {
+                int next = -1;
+                for (int k = 0; k <= motif.loopMax; k++) {
+                    if (k > 0 && (pos + k > limit || !isDot(seq[pos + k - 1]))) {
+                        break;
+                    }
+                    if (k < motif.loopMin) {
+                        continue;
+                    }
+                    int n = runLength(pos + k, base);
+                    if (n >= motif.tractMin) {
+                        next = pos + k + Math.min(n, motif.tractMax);
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                pos = next;
+            }
+            return pos;
+        }
+
+        /**
+         * 返回从 pos 开始连续的 base 碱基个数；不足2个时返回0。
+         * 短串直接逐字节计数，超过 SHORT_RUN 的长串再到串列表中二分查找终点，避免在长的同聚物中反复逐字节扫描。
+         */
+        private int runLength(int pos, int base) {
+            int end = pos;
+            int stop = Math.min(limit, pos + SHORT_RUN);
+            while (end < stop && (seq[end] & 0xDF) == base) {
+                end++;
+            }
+            if (end - pos < 2) {
+                return 0;
+            }
+            if (end < stop || end == limit) {
+                return end - pos;
+            }
+            int lo = cursor;
+            int hi = runCount - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (runStart[mid] <= pos) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return runEnd[hi] - pos;
+        }
+
+        /**
+         * 判断字符能否被正则中的 `.` 匹配（不含行终止符）。
+         */
+        private static boolean isDot(byte b) {
+            return b != '\n' && b != '\r' && b != (byte) 0x85;
+        }
+    }
+}
@@ -0,0 +1,499 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiPredicate;
+
+/**
+ * G4Scheduler类在 ForkJoinPool 上并行匹配整个基因组。
+ * 工作被拆分为（染色体, 链, 分块）三级任务：每条染色体在 G4Engine.findCut 给出的安全切分点处切成约 CHUNK_SIZE 的分块，
+ * 任何匹配都不会跨越切分点，因此分块可以独立匹配，空闲的线程会窃取其他染色体或分块的任务。
+ * 结果以 G4Hits 保存，分块结果合并时只复制基本类型数组。
+ * 结果按FASTA中的染色体顺序交给调用者写出，与串行匹配的输出逐字节一致。
+ * 批量运行时多个FASTA文件的染色体共用同一个线程池和同一个处理中碱基数的上限。
+ * 设置了结果缓存时，序列已经匹配过的染色体直接从缓存读取结果，不再派生分块任务。
+ * 输入也可以只包含染色体上的若干区间（分片运行时），区间与整条染色体一样切成分块匹配。
+ * <p>
+ * 同时处理中的染色体还受堆内存限制：按染色体长度估计每个任务的内存（见 estimateBytes），
+ * 与 Runtime.maxMemory() 中尚未使用的部分比较，只在放得下时才接纳下一个任务，因此不需要为大基因组手动改用串行方法或调大 -Xmx。
+ * 单个任务超出预算时仍然单独执行，并打印提示。
+ */
+public class G4Scheduler {
+    // 分块的目标大小（碱基数）
+    static final int CHUNK_SIZE = 1 << 20;
+    // 堆内存中可用于处理中染色体的比例，其余留给垃圾回收的余量、写出缓冲区和其他数据
+    static final double HEAP_FRACTION = 0.7;
+    // 每条链每个碱基的匹配结果（含分块结果合并时的副本）的估计内存，按富含G的序列保守估计
+    static final int HIT_BYTES_PER_BASE = 1;
+    // 每个工作线程匹配一个分块时的工作内存（G串列表、分块的匹配结果），按分块每个碱基4字节估计
+    static final long WORKER_BYTES = 4L * CHUNK_SIZE;
+
+    private final G4Engine engine;
+    private final int threads;
+    private final RunMetrics metrics;
+    private ResultCache resultCache;
+
+    /**
+     * 接收一条染色体的匹配结果。
+     */
+    public interface ResultSink {
+        /**
+         * @param header  染色体标题。
+         * @param forward 正链的匹配结果，不生成正链时为 null。
+         * @param reverse 负链的匹配结果，不生成负链时为 null。
+         * @throws IOException 如果写出结果时发生I/O错误。
+         */
+        void accept(String header, G4Hits forward, G4Hits reverse) throws IOException;
+
+        /**
+         * 该输入的全部染色体都已交给 accept 之后调用一次。
+         *
+         * @throws IOException 如果关闭输出时发生I/O错误。
+         */
+        default void finished() throws IOException {
+        }
+    }
+
+    /**
+     * 一个输入：FASTA文件、要匹配的链以及结果接收者。
+     */
+    public static final class Job {
+        final String name;
+        final FastaInput input;
+        final boolean forward;
+        final boolean reverse;
+        final ResultSink sink;
+        // 判断一条染色体的某条链（RunMetrics.FORWARD 或 REVERSE）是否还需要匹配
+        final BiPredicate<String, Integer> needed;
+        // 只匹配的区间，为 null 时匹配全部染色体
+        final List<Region> regions;
+
+        /**
+         * @param name    输入的名称，批量运行时作为运行指标中染色体名称的前缀；单个输入时为 null。
+         * @param input   FASTA输入。
+         * @param forward 是否匹配正链。
+         * @param reverse 是否匹配负链。
+         * @param sink    结果接收者。
+         */
+        public Job(String name, FastaInput input, boolean forward, boolean reverse, ResultSink sink) {
+            this(name, input, forward, reverse, sink, (header, strand) -> true);
+        }
+
+        /**
+         * 同上，needed 返回 false 的链不再匹配，两条链都不需要时整条染色体不读取、也不交给 sink，
+         * 用于断点续跑时跳过已完成的部分。
+         */
+        public Job(String name, FastaInput input, boolean forward, boolean reverse, ResultSink sink,
+                BiPredicate<String, Integer> needed) {
+            this.name = name;
+            this.input = input;
+            this.forward = forward;
+            this.reverse = reverse;
+            this.sink = sink;
+            this.needed = needed;
+            this.regions = null;
+        }
+
+        /**
+         * 只匹配 regions 中的区间，按给定的顺序每个区间交给 sink 一次。区间的边界必须是安全切分点
+         * （见 G4Engine.findCut），否则跨过边界的结构会被漏掉。
+         */
+        public Job(String name, FastaInput input, boolean forward, boolean reverse, ResultSink sink,
+                List<Region> regions) {
+            this.name = name;
+            this.input = input;
+            this.forward = forward;
+            this.reverse = reverse;
+            this.sink = sink;
+            this.needed = (header, strand) -> true;
+            this.regions = regions;
+        }
+
+        /**
+         * 要匹配的区间：指定了区间时为这些区间，否则为每条完整的染色体。
+         */
+        List<Region> units() {
+            if (regions != null) {
+                return regions;
+            }
+            List<Region> units = new ArrayList<>();
+            for (String header : input.getChromosomeHeaders()) {
+                units.add(new Region(header, 0, input.getLength(header)));
+            }
+            return units;
+        }
+
+        String key(String header) {
+            return name == null ? header : name + "/" + header;
+        }
+    }
+
+    /**
+     * @param engine  G-四链体匹配引擎，需要能被多个线程同时使用。
+     * @param threads 工作线程数。
+     */
+    public G4Scheduler(G4Engine engine, int threads) {
+        this(engine, threads, RunMetrics.DISABLED);
+    }
+
+    /**
+     * @param metrics 记录读取、互补和匹配阶段的耗时。
+     */
+    public G4Scheduler(G4Engine engine, int threads, RunMetrics metrics) {
+        this.engine = engine;
+        this.threads = threads;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 设置结果缓存，默认不使用。
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * 匹配全部染色体，并按FASTA中的顺序把每条染色体的结果交给 sink。
+     * 同时在处理中的染色体受碱基总数限制，保证所有线程有活可干，同时不会把整个基因组都读入内存。
+     *
+     * @param input   FASTA输入。
+     * @param forward 是否匹配正链。
+     * @param reverse 是否匹配负链。
+     * @param sink    结果接收者，总是在调用线程中按顺序调用。
+     * @throws IOException 如果读取序列或写出结果时发生I/O错误。
+     */
+    public void run(FastaInput input, boolean forward, boolean reverse, ResultSink sink) throws IOException {
+        run(List.of(new Job(null, input, forward, reverse, sink)).iterator());
+    }
+
+    /**
+     * 依次匹配多个输入的全部染色体，所有输入共用一个线程池和处理中碱基数的上限。
+     * 每个输入的结果按其FASTA中的顺序交给它自己的 sink，全部交付后调用 sink.finished()。
+     * 下一个输入在需要时才从 jobs 中取出，因此打开输入（例如生成缓存）与前一个输入的匹配同时进行。
+     *
+     * @param jobs 输入，按顺序取出。
+     * @throws IOException 如果读取序列或写出结果时发生I/O错误。
+     */
+    public void run(Iterator<Job> jobs) throws IOException {
+        // 工作线程的工作内存最多占预算的一半，堆内存放不下 threads 个线程同时匹配分块时减少线程数，剩余的预算留给处理中的染色体
+        long heapBudget = memoryBudget();
+        int workers = (int) Math.max(1, Math.min(threads, heapBudget / 2 / WORKER_BYTES));
+        long memoryBudget = heapBudget - workers * WORKER_BYTES;
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            long budget = (long) workers * CHUNK_SIZE * 2;
+            boolean logged = false;
+            Deque<ChromosomeTask> inFlight = new ArrayDeque<>();
+            long inFlightBases = 0;
+            long inFlightBytes = 0;
+            int peakTasks = 0;
+            while (jobs.hasNext()) {
+                Job job = jobs.next();
+                List<Region> units = job.units();
+                if (!logged) {
+                    logBudget(job, units, memoryBudget, workers);
+                    logged = true;
+                }
+                ChromosomeTask last = null;
+                for (Region unit : units) {
+                    String header = unit.name;
+                    boolean forward = job.forward && job.needed.test(header, RunMetrics.FORWARD);
+                    boolean reverse = job.reverse && job.needed.test(header, RunMetrics.REVERSE);
+                    if (!forward && !reverse) {
+                        continue;
+                    }
+                    // 先写出已完成的染色体，直到碱基数和估计的内存都有余量接纳新的染色体
+                    long bytes = estimateBytes(unit.end - unit.start, forward, reverse);
+                    while (!inFlight.isEmpty() && (inFlightBases >= budget || inFlightBytes + bytes > memoryBudget)) {
+                        ChromosomeTask done = inFlight.poll();
+                        finish(done);
+                        inFlightBases -= done.length;
+                        inFlightBytes -= done.bytes;
+                    }
+                    if (bytes > memoryBudget) {
+                        System.out.println("Warning: " + job.key(header) + " needs about " + megabytes(bytes)
+                                + " MB but the heap budget is " + megabytes(memoryBudget)
+                                + " MB, raise -Xmx if it fails / 警告: " + job.key(header) + " 约需 " + megabytes(bytes)
+                                + " MB 内存, 堆内存预算只有 " + megabytes(memoryBudget) + " MB, 如果内存不足请调大 -Xmx");
+                    }
+                    last = new ChromosomeTask(job, header, unit.start, unit.end, forward, reverse);
+                    last.bytes = bytes;
+                    pool.execute(last);
+                    inFlight.add(last);
+                    inFlightBases += last.length;
+                    inFlightBytes += bytes;
+                    peakTasks = Math.max(peakTasks, inFlight.size());
+                }
+                if (last != null) {
+                    last.lastOfJob = true;
+                } else {
+                    // 没有需要匹配的染色体：等前面的输入交付完，保持 finished 的调用顺序
+                    while (!inFlight.isEmpty()) {
+                        finish(inFlight.poll());
+                    }
+                    inFlightBases = 0;
+                    inFlightBytes = 0;
+                    job.sink.finished();
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                finish(inFlight.poll());
+            }
+            metrics.setInfo("memoryBudget", String.valueOf(memoryBudget));
+            metrics.setInfo("workers", String.valueOf(workers));
+            metrics.setInfo("peakTasksInFlight", String.valueOf(peakTasks));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 估计处理一条染色体（或区间）所需的堆内存：序列和负链的互补序列每个碱基各1字节，每条匹配的链另加匹配结果。
+     *
+     * @param length  碱基数。
+     * @param forward 是否匹配正链。
+     * @param reverse 是否匹配负链（需要互补序列）。
+     * @return 估计的字节数。
+     */
+    static long estimateBytes(long length, boolean forward, boolean reverse) {
+        int strands = (forward ? 1 : 0) + (reverse ? 1 : 0);
+        return length * (reverse ? 2 : 1) + length * strands * HIT_BYTES_PER_BASE;
+    }
+
+    /**
+     * 可用于处理中染色体的堆内存：最大堆内存减去已经使用的部分，乘以 HEAP_FRACTION。
+     */
+    static long memoryBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (long) ((runtime.maxMemory() - used) * HEAP_FRACTION);
+    }
+
+    static long megabytes(long bytes) {
+        return (bytes + (1 << 20) - 1) >> 20;
+    }
+
+    /**
+     * 打印实际使用的线程数、内存预算以及第一个输入中最大的任务能同时处理几个。
+     */
+    private void logBudget(Job job, List<Region> units, long memoryBudget, int workers) {
+        Region largest = null;
+        for (Region unit : units) {
+            if (largest == null || unit.end - unit.start > largest.end - largest.start) {
+                largest = unit;
+            }
+        }
+        if (workers < threads) {
+            System.out.println("Heap allows " + workers + " of " + threads + " threads, raise -Xmx for more / 堆内存只够 "
+                    + workers + " 个线程 (请求 " + threads + " 个), 需要更多线程请调大 -Xmx");
+        }
+        if (largest == null) {
+            return;
+        }
+        long bytes = estimateBytes(largest.end - largest.start, job.forward, job.reverse);
+        long fit = Math.max(1, memoryBudget / Math.max(1, bytes));
+        long heap = megabytes(Runtime.getRuntime().maxMemory());
+        String name = job.key(largest.name);
+        System.out.println("Heap " + heap + " MB, budget " + megabytes(memoryBudget) + " MB; largest sequence " + name
+                + " needs about " + megabytes(bytes) + " MB, " + fit + " such tasks fit at once on " + workers
+                + " threads / 堆内存 " + heap + " MB, 预算 " + megabytes(memoryBudget) + " MB; 最大的序列 " + name + " 约需 "
+                + megabytes(bytes) + " MB, 可同时处理 " + fit + " 个这样的任务, 线程数 " + workers);
+    }
+
+    /**
+     * 等待一条染色体完成并交给它的 sink。
+     */
+    private void finish(ChromosomeTask task) throws IOException {
+        try {
+            task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        task.job.sink.accept(task.header, task.forwardMatches, task.reverseMatches);
+        if (task.lastOfJob) {
+            task.job.sink.finished();
+        }
+    }
+
+    /**
+     * 计算分块边界：从0开始，每块在 CHUNK_SIZE 附近最靠后的安全切分点处结束；
+     * 附近找不到切分点时向后扩大搜索范围。
+     *
+     * @return 依次排列的分块边界，第一个为0，最后一个为 length。
+     */
+    static int[] chunkBounds(G4Engine engine, byte[] sequence, int length) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int from = 0;
+        while (length - from > CHUNK_SIZE) {
+            int to = from + CHUNK_SIZE;
+            int cut = engine.findCut(sequence, from, to);
+            while (cut < 0 && to < length) {
+                to = (int) Math.min(length, (long) to + CHUNK_SIZE);
+                cut = engine.findCut(sequence, from, to);
+            }
+            if (cut < 0) {
+                break;
+            }
+            bounds.add(cut);
+            from = cut;
+        }
+        bounds.add(length);
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * 一条染色体（或染色体上一个区间）的任务：读取序列、计算分块，再为每条链的每个分块派生子任务。
+     */
+    @SuppressWarnings("serial") // 任务只在线程池中执行，不会被序列化
+    private final class ChromosomeTask extends RecursiveTask<Void> {
+        final Job job;
+        final String header;
+        final int length;
+        // 区间在染色体上的起点，整条染色体时为0
+        private final int start;
+        private final boolean whole;
+        private final FastaInput input;
+        private final String key;
+        private final boolean forward;
+        private final boolean reverse;
+        // 估计的内存，接纳任务时计入预算
+        long bytes;
+        G4Hits forwardMatches;
+        G4Hits reverseMatches;
+        // 是否为所属输入的最后一条染色体，交付后调用 sink.finished()
+        boolean lastOfJob;
+
+        ChromosomeTask(Job job, String header, int start, int end, boolean forward, boolean reverse) {
+            this.job = job;
+            this.header = header;
+            this.input = job.input;
+            this.key = job.key(header);
+            this.start = start;
+            this.length = end - start;
+            this.whole = start == 0 && end == input.getLength(header);
+            this.forward = forward;
+            this.reverse = reverse;
+        }
+
+        @Override
+        protected Void compute() {
+            long started = metrics.start();
+            byte[] sequence;
+            int[] gaps;
+            try {
+                if (whole) {
+                    sequence = input.getSequenceBytes(header);
+                    gaps = input.getGaps(header);
+                } else {
+                    sequence = input.getRegionBytes(header, start, start + length);
+                    gaps = FastaInput.findGaps(sequence, 0, sequence.length);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            int n = sequence.length;
+            // 计算缓存的键也算作读取阶段；缓存以整条染色体为单位
+            String cacheKey = null;
+            G4Hits cached = null;
+            if (resultCache != null && whole) {
+                cacheKey = ResultCache.key(engine.motifVersion(), sequence);
+                cached = resultCache.get(cacheKey, sequence, engine.types());
+            }
+            metrics.record(key, RunMetrics.BOTH, RunMetrics.LOAD, started);
+            metrics.addLength(key, length);
+            // 负链的各分块共用整条染色体的互补序列，结果中的序列文本直接引用它
+            byte[] complement = null;
+            if (reverse) {
+                started = metrics.start();
+                complement = ConvertSequence.complementOf(sequence, 0, n);
+                metrics.record(key, RunMetrics.REVERSE, RunMetrics.COMPLEMENT, started);
+            }
+            if (cached != null) {
+                // 两条链的匹配区间相同，负链的结果改为引用互补序列
+                forwardMatches = forward ? cached : null;
+                reverseMatches = reverse ? cached.withSequence(complement) : null;
+                metrics.progress((long) length * ((forward ? 1 : 0) + (reverse ? 1 : 0)));
+                return null;
+            }
+            int[] bounds = chunkBounds(engine, sequence, n);
+
+            List<ChunkTask> forwardTasks = new ArrayList<>();
+            List<ChunkTask> reverseTasks = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                if (forward) {
+                    forwardTasks.add(new ChunkTask(key, RunMetrics.FORWARD, sequence, gaps, bounds[i],
+                            bounds[i + 1], start));
+                }
+                if (reverse) {
+                    reverseTasks.add(new ChunkTask(key, RunMetrics.REVERSE, complement, gaps, bounds[i],
+                            bounds[i + 1], start));
+                }
+            }
+            List<ChunkTask> all = new ArrayList<>(forwardTasks);
+            all.addAll(reverseTasks);
+            ForkJoinTask.invokeAll(all);
+            if (forward) {
+                forwardMatches = collect(forwardTasks);
+            }
+            if (reverse) {
+                reverseMatches = collect(reverseTasks);
+            }
+            if (cacheKey != null) {
+                resultCache.put(cacheKey, forward ? forwardMatches : reverseMatches);
+            }
+            metrics.progress((long) length * ((forward ? 1 : 0) + (reverse ? 1 : 0)));
+            return null;
+        }
+
+        private G4Hits collect(List<ChunkTask> tasks) {
+            List<G4Hits> chunks = new ArrayList<>();
+            for (ChunkTask task : tasks) {
+                chunks.add(task.join());
+            }
+            return G4Hits.merge(chunks);
+        }
+    }
+
+    /**
+     * 一个分块的任务：跳过 N 区段匹配 [from, to)，输出坐标加上序列在染色体上的起点 offset。
+     */
+    @SuppressWarnings("serial")
+    private final class ChunkTask extends RecursiveTask<G4Hits> {
+        private final String header;
+        private final int strand;
+        private final byte[] sequence;
+        private final int[] gaps;
+        private final int from;
+        private final int to;
+        private final int offset;
+
+        ChunkTask(String header, int strand, byte[] sequence, int[] gaps, int from, int to, int offset) {
+            this.header = header;
+            this.strand = strand;
+            this.sequence = sequence;
+            this.gaps = gaps;
+            this.from = from;
+            this.to = to;
+            this.offset = offset;
+        }
+
+        @Override
+        protected G4Hits compute() {
+            long started = metrics.start();
+            G4Hits hits = engine.match(sequence, from, to, offset, gaps);
+            metrics.record(header, strand, RunMetrics.MATCH, started);
+            return hits;
+        }
+    }
+}
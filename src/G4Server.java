@@ -0,0 +1,277 @@
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * G4Server类是常驻的扫描服务：匹配引擎只建立一次并在启动时预热，之后通过HTTP端口接受任意多个请求，
+ * 免去每次运行的JVM启动、模式编译和未经即时编译的冷启动。
+ * <p>
+ * POST /scan 的请求体为FASTA文本，或不含标题的原始序列（名称取 name 参数），可以用 gzip 压缩（Content-Encoding: gzip）。
+ * 响应为带列标题的BED行，列与 BedOutput 相同；每条序列先写正链再写负链（与 --single-scan 相同，由同一次扫描写出互补序列），
+ * 一条序列匹配完立即发送。查询参数：strand=both|f|r、merge=true（合并为位点）、sort=true（按坐标排序）。
+ * GET /health 返回 ok。
+ * <p>
+ * 请求在 threads 个工作线程上并发执行，另外最多 queue 个请求排队，超出时立即返回 503；
+ * 请求中的碱基总数超过 maxBases 时返回 413。
+ */
+public class G4Server implements Closeable {
+    public static final int DEFAULT_PORT = 8754;
+    // 预热序列的长度和遍数
+    private static final int WARM_UP_LENGTH = 1 << 18;
+    private static final int WARM_UP_PASSES = 8;
+
+    private final G4Engine engine;
+    private final HttpServer server;
+    private final ExecutorService workers;
+    // 正在执行和排队的请求数的上限
+    private final Semaphore slots;
+    private final long maxBases;
+
+    /**
+     * 绑定端口，调用 start 之后才开始接受请求。
+     *
+     * @param engine   匹配引擎，所有请求共用。
+     * @param address  监听的地址，端口为0时由系统分配。
+     * @param threads  工作线程数。
+     * @param queue    排队请求数的上限。
+     * @param maxBases 每个请求的碱基总数上限。
+     * @throws IOException 如果无法绑定端口。
+     */
+    public G4Server(G4Engine engine, InetSocketAddress address, int threads, int queue, long maxBases)
+            throws IOException {
+        this.engine = engine;
+        this.maxBases = maxBases;
+        this.slots = new Semaphore(threads + queue);
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "g4-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(address, 0);
+        server.createContext("/scan", this::dispatch);
+        server.createContext("/health", exchange -> respond(exchange, 200, "ok"));
+    }
+
+    /**
+     * 在合成序列上反复匹配，使匹配代码在接受请求之前完成即时编译。
+     *
+     * @return 预热耗时（毫秒）。
+     */
+    public long warmUp() {
+        long started = System.nanoTime();
+        // 随机序列中插入G串和C串，各个模式类别的分支都会被执行
+        Random random = new Random(1);
+        byte[] sequence = new byte[WARM_UP_LENGTH];
+        byte[] bases = { 'A', 'C', 'G', 'T' };
+        for (int i = 0; i < sequence.length; i++) {
+            int run = random.nextInt(16);
+            if (run < 2 && i + 4 < sequence.length) {
+                byte tract = run == 0 ? (byte) 'G' : (byte) 'C';
+                int length = 2 + random.nextInt(3);
+                for (int j = 0; j < length; j++) {
+                    sequence[i++] = tract;
+                }
+                i--;
+            } else {
+                sequence[i] = bases[random.nextInt(4)];
+            }
+        }
+        for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+            engine.match(sequence, 0, sequence.length, 0).loci();
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    /**
+     * 开始接受请求。
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * 返回实际监听的端口。
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * 停止接受请求，等待最多1秒让正在发送的响应结束。
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        workers.shutdownNow();
+    }
+
+    /**
+     * 在HTTP服务的分发线程上只做准入检查，请求交给工作线程执行，避免读取请求体时阻塞其他连接。
+     */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        if (!slots.tryAcquire()) {
+            respond(exchange, 503, "Server busy, retry later / 服务繁忙, 请稍后重试");
+            return;
+        }
+        workers.execute(() -> {
+            try {
+                scan(exchange);
+            } catch (IOException e) {
+                // 客户端断开连接等错误只影响这一个请求
+                System.err.println("Request failed / 请求失败: " + e.getMessage());
+            } finally {
+                exchange.close();
+                slots.release();
+            }
+        });
+    }
+
+    /**
+     * 执行一个扫描请求：先读入全部序列，出错时返回 4xx；然后逐条序列匹配并以分块传输编码发送BED行。
+     */
+    private void scan(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST / 请使用 POST");
+            return;
+        }
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String strand = params.getOrDefault("strand", "both");
+        if (!strand.equals("both") && !strand.equals("f") && !strand.equals("r")) {
+            respond(exchange, 400, "Invalid strand / 非法的链: " + strand);
+            return;
+        }
+        boolean forward = !strand.equals("r");
+        boolean reverse = !strand.equals("f");
+        boolean merge = Boolean.parseBoolean(params.get("merge"));
+        boolean sort = Boolean.parseBoolean(params.get("sort"));
+
+        List<String> names = new ArrayList<>();
+        List<byte[]> sequences = new ArrayList<>();
+        try (FastaStream stream = new FastaStream(requestBody(exchange, params.getOrDefault("name", "sequence")))) {
+            long total = 0;
+            String header;
+            while ((header = stream.nextChromosome()) != null) {
+                byte[] sequence = new byte[1 << 12];
+                int length = 0;
+                int n;
+                while ((n = stream.read(sequence, length, sequence.length - length)) >= 0) {
+                    length += n;
+                    total += n;
+                    if (total > maxBases) {
+                        respond(exchange, 413,
+                                "Request exceeds " + maxBases + " bases / 请求超过 " + maxBases + " 个碱基");
+                        return;
+                    }
+                    if (length == sequence.length) {
+                        sequence = Arrays.copyOf(sequence, (int) Math.min(Integer.MAX_VALUE - 8, 2L * length));
+                    }
+                }
+                names.add(header);
+                sequences.add(Arrays.copyOf(sequence, length));
+            }
+        } catch (IOException e) {
+            respond(exchange, 400, "Unreadable request body / 无法读取请求体: " + e.getMessage());
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (BedWriter writer = new BedWriter(Channels.newChannel(exchange.getResponseBody()),
+                BedOutput.headerLine())) {
+            for (int i = 0; i < names.size(); i++) {
+                byte[] sequence = sequences.get(i);
+                G4Hits hits = engine.match(sequence, 0, sequence.length, 0,
+                        FastaInput.findGaps(sequence, 0, sequence.length));
+                if (merge) {
+                    hits = hits.loci();
+                } else if (sort) {
+                    hits = hits.sortedByPosition();
+                }
+                if (forward) {
+                    writer.write(names.get(i), "+", hits);
+                }
+                if (reverse) {
+                    writer.write(names.get(i), "-", hits, true);
+                }
+                writer.flush();
+                // 已发送的序列不再需要
+                sequences.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * 返回解压后的请求体；不以 '>' 开头时视为一条原始序列，在前面加上标题行。
+     */
+    private static InputStream requestBody(HttpExchange exchange, String name) throws IOException {
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        PushbackInputStream in = new PushbackInputStream(body, 1);
+        int b;
+        do {
+            b = in.read();
+        } while (b == ' ' || b == '\t' || b == '\r' || b == '\n');
+        if (b < 0) {
+            return in;
+        }
+        in.unread(b);
+        if (b == '>') {
+            return in;
+        }
+        byte[] header = (">" + name + "\n").getBytes(StandardCharsets.UTF_8);
+        return new SequenceInputStream(new ByteArrayInputStream(header), in);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "true" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * 发送一个短的文本响应并结束请求。
+     */
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -1,15 +1,17 @@
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * G4_Base类用于识别和匹配DNA序列中的G-四链体结构。
  * G-四链体是一种特殊的DNA结构，由连续的鸟嘌呤（G）碱基形成。
  * 本类定义了多种G-四链体的结构模式，包括标准的4G模式、含bulge的模式、GVBQ模式和4GL15模式。
  */
-public class G4_Base {
+public class G4_Base implements G4Engine {
     // 输入的DNA序列
     public String input;
 
@@ -66,6 +68,31 @@ public class G4_Base {
     private Pattern pattern_4GL15 = Pattern.compile(re_4GL15, Pattern.CASE_INSENSITIVE);
     private Pattern pattern_PHQS = Pattern.compile(re_PHQS, Pattern.CASE_INSENSITIVE);
 
+    // 按类型排列的模式，以及类型名称和模式版本；由 MotifSet 配置时替换为翻译得到的正则表达式
+    private Pattern[] patterns = { pattern_4G, pattern_Bulge, pattern_GVBQ, pattern_4GL15, pattern_PHQS };
+    private String[] types = G4Scanner.TYPES;
+    private String motifVersion = G4Scanner.MOTIF_VERSION;
+    private int maxGap = G4Scanner.MAX_LOOP;
+
+    /**
+     * 使用内置的五类模式。
+     */
+    public G4_Base() {
+    }
+
+    /**
+     * 使用配置的模式类别，每个类别翻译为一个正则表达式（见 MotifSet.toRegex），输出与 G4Scanner(motifs) 相同。
+     */
+    public G4_Base(MotifSet motifs) {
+        this.types = motifs.names();
+        this.motifVersion = motifs.version();
+        this.maxGap = motifs.maxGap();
+        this.patterns = new Pattern[types.length];
+        for (int type = 0; type < types.length; type++) {
+            patterns[type] = Pattern.compile(motifs.toRegex(type), Pattern.CASE_INSENSITIVE);
+        }
+    }
+
     /**
      * 设置输入的DNA序列。
      * 
@@ -81,57 +108,77 @@ public class G4_Base {
      * @param sequence 输入的DNA序列。
      * @return 匹配结果的列表，每个结果包括起始位置、结束位置、匹配的字符串和匹配的模式类型。
      */
+    @Override
     public ArrayList<String[]> matchPatterns(String sequence) {
-        // 存储所有匹配结果的列表
-        ArrayList<String[]> matches = new ArrayList<>();
-
-        // 使用并行流来处理每个匹配器的结果
-        List<Matcher> matchers = List.of(
-                pattern_4G.matcher(sequence),
-                pattern_Bulge.matcher(sequence),
-                pattern_GVBQ.matcher(sequence),
-                pattern_4GL15.matcher(sequence),
-                pattern_PHQS.matcher(sequence));
-
-        matches.addAll(matchers.parallelStream()
-                .flatMap(matcher -> {
-                    List<String[]> localMatches = new ArrayList<>();
-                    while (matcher.find()) {
-                        String[] match = {
-                                String.valueOf(matcher.start()),
-                                String.valueOf(matcher.end()),
-                                matcher.group(),
-                                getPatternType(matcher)
-                        };
-                        localMatches.add(match);
-                    }
-                    return localMatches.stream();
-                })
-                .collect(Collectors.toList()));
-
-        // 返回包含所有匹配结果的列表
-        return matches;
+        return match(sequence.getBytes(StandardCharsets.ISO_8859_1), 0, sequence.length(), 0).toRows();
+    }
+
+    @Override
+    public G4Hits match(byte[] sequence, int from, int to, int offset) {
+        // 使用并行流分别匹配每种模式类型，按类型顺序合并
+        List<G4Hits> results = IntStream.range(0, patterns.length).parallel()
+                .mapToObj(type -> matchType(type, sequence, from, to, offset))
+                .collect(Collectors.toList());
+        return G4Hits.merge(results);
+    }
+
+    @Override
+    public String[] types() {
+        return types;
+    }
+
+    @Override
+    public String motifVersion() {
+        return motifVersion;
+    }
+
+    @Override
+    public int findCut(byte[] sequence, int from, int to) {
+        return G4Scanner.findCut(sequence, from, to, maxGap);
     }
 
     /**
-     * 获取匹配器对应的模式类型。
+     * 只匹配一种模式类型，基准测试也用它分别测量各类模式的耗时。
      *
-     * @param matcher 正在匹配的Matcher对象。
-     * @return 匹配的模式类型字符串。
+     * @param type 模式类型在 types() 中的下标。
+     */
+    G4Hits matchType(int type, byte[] sequence, int from, int to, int offset) {
+        Matcher matcher = patterns[type].matcher(new ByteChars(sequence)).region(from, to);
+        G4Hits localMatches = new G4Hits(sequence, offset, types);
+        while (matcher.find()) {
+            localMatches.add(matcher.start() + offset, matcher.end() + offset, type);
+        }
+        return localMatches;
+    }
+
+    /**
+     * 把按字节存放的序列包装成字符序列，供正则表达式直接匹配，无需先复制成字符串。
      */
-    private String getPatternType(Matcher matcher) {
-        if (matcher.pattern().pattern().equals(pattern_4G.pattern())) {
-            return "4G";
-        } else if (matcher.pattern().pattern().equals(pattern_Bulge.pattern())) {
-            return "Bulge";
-        } else if (matcher.pattern().pattern().equals(pattern_GVBQ.pattern())) {
-            return "GVBQ";
-        } else if (matcher.pattern().pattern().equals(pattern_4GL15.pattern())) {
-            return "4GL15";
-        } else if (matcher.pattern().pattern().equals(pattern_PHQS.pattern())) {
-            return "PHQS";
-        } else {
-            return "Unknown";
+    private static final class ByteChars implements CharSequence {
+        private final byte[] bytes;
+
+        ByteChars(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
         }
     }
 
@@ -0,0 +1,351 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MotifSet类描述一组G-四链体模式类别，由 --motifs 指定的配置文件读取，G4Scanner 把它编译为匹配状态机，
+ * G4_Base 把它翻译为等价的正则表达式。
+ * <p>
+ * 配置文件每行一个类别：类别名称，随后是若干 key=value，忽略空行和以 # 开头的行，未写出的参数取默认值。
+ * <pre>
+ * # 名称  参数
+ * 4G      tracts=4 tract=3+ loop=1-7
+ * Bulge   tracts=4 tract=3+ loop=1-7 defect=bulge:1
+ * GVBQ    tracts=4 tract=3+ loop=1-7 defect=vacancy
+ * 4GL15   tracts=4 tract=3+ loop=1-7 defect=loop:15
+ * PHQS    tracts=2 tract=3+ loop=1-7 extend=1
+ * </pre>
+ * <ul>
+ * <li>tracts：核心部分的G串个数（含缺陷单元），默认4。</li>
+ * <li>tract：G串长度 min-max，或 min+ 表示不设上限，默认 3+。</li>
+ * <li>loop：环长度 min-max，默认 1-7。</li>
+ * <li>defect：核心部分中恰有一处缺陷，依次尝试每个位置。bulge:B 表示某个G串被 1~B 个非G碱基分成两个 (min-1) 长的半串；
+ *     vacancy 表示某个G串只有 min-1 个G；loop:L 表示某个环最长为 L。默认 none。</li>
+ * <li>extend：核心部分之后贪婪重复的 (环, G串) 的最多次数，* 表示不设上限，默认 *。
+ *     缺陷位于最后一个G串（或最后一个环）的备选分支不再延伸，与 G4_Base 相同。</li>
+ * </ul>
+ * 每个类别都同时匹配富含G和富含C两种形式。上面的配置就是内置的五类模式（DEFAULT），输出与 G4_Base 逐字节一致。
+ */
+public final class MotifSet {
+    static final int NONE = 0;
+    static final int BULGE = 1;
+    static final int VACANCY = 2;
+    static final int LONG_LOOP = 3;
+
+    // 不设上限的G串长度或延伸次数
+    static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    // 内置的五类模式，与 G4_Base 中的正则表达式等价
+    static final String DEFAULT_TEXT = String.join("\n",
+            "4G      tracts=4 tract=3+ loop=1-7",
+            "Bulge   tracts=4 tract=3+ loop=1-7 defect=bulge:1",
+            "GVBQ    tracts=4 tract=3+ loop=1-7 defect=vacancy",
+            "4GL15   tracts=4 tract=3+ loop=1-7 defect=loop:15",
+            "PHQS    tracts=2 tract=3+ loop=1-7 extend=1");
+
+    static final MotifSet DEFAULT = parse(DEFAULT_TEXT, "built-in");
+
+    /**
+     * 一个模式类别。
+     */
+    static final class Motif {
+        final String name;
+        final int tracts;
+        final int tractMin;
+        final int tractMax;
+        final int loopMin;
+        final int loopMax;
+        final int defect;
+        // bulge 的最多碱基数，或长环的最大长度
+        final int defectSize;
+        final int extend;
+
+        Motif(String name, int tracts, int tractMin, int tractMax, int loopMin, int loopMax, int defect,
+                int defectSize, int extend) {
+            this.name = name;
+            this.tracts = tracts;
+            this.tractMin = tractMin;
+            this.tractMax = tractMax;
+            this.loopMin = loopMin;
+            this.loopMax = loopMax;
+            this.defect = defect;
+            this.defectSize = defectSize;
+            this.extend = extend;
+        }
+
+        /**
+         * bulge 的两个半串和 vacancy 的G串长度。
+         */
+        int half() {
+            return tractMin - 1;
+        }
+
+        /**
+         * 规范的文本形式，与配置文件的一行相同，用于计算模式版本。
+         */
+        @Override
+        public String toString() {
+            String defectText;
+            switch (defect) {
+                case BULGE:
+                    defectText = "bulge:" + defectSize;
+                    break;
+                case VACANCY:
+                    defectText = "vacancy";
+                    break;
+                case LONG_LOOP:
+                    defectText = "loop:" + defectSize;
+                    break;
+                default:
+                    defectText = "none";
+                    break;
+            }
+            return name + " tracts=" + tracts
+                    + " tract=" + tractMin + (tractMax == UNBOUNDED ? "+" : "-" + tractMax)
+                    + " loop=" + loopMin + "-" + loopMax
+                    + " defect=" + defectText
+                    + " extend=" + (extend == UNBOUNDED ? "*" : String.valueOf(extend));
+        }
+    }
+
+    private final List<Motif> motifs;
+    private final String[] names;
+
+    private MotifSet(List<Motif> motifs) {
+        this.motifs = Collections.unmodifiableList(motifs);
+        this.names = new String[motifs.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = motifs.get(i).name;
+        }
+    }
+
+    /**
+     * 读取配置文件。
+     *
+     * @param file 配置文件。
+     * @return 模式类别，顺序与文件相同。
+     * @throws IOException 如果读取文件时发生I/O错误。
+     * @throws IllegalArgumentException 如果配置有误，信息中包含行号。
+     */
+    public static MotifSet read(Path file) throws IOException {
+        return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), file.toString());
+    }
+
+    static MotifSet parse(String text, String source) {
+        List<Motif> motifs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    Motif motif = parseLine(line.split("\\s+"));
+                    for (Motif other : motifs) {
+                        if (other.name.equals(motif.name)) {
+                            throw new IllegalArgumentException("duplicate class name " + motif.name);
+                        }
+                    }
+                    motifs.add(motif);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid motif definition / 非法模式定义 (" + source + ":"
+                            + number + "): " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (motifs.isEmpty() || motifs.size() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid motif definition / 非法模式定义 (" + source
+                    + "): between 1 and " + Byte.MAX_VALUE + " classes required");
+        }
+        return new MotifSet(motifs);
+    }
+
+    private static Motif parseLine(String[] fields) {
+        String name = fields[0];
+        int tracts = 4;
+        int[] tract = { 3, UNBOUNDED };
+        int[] loop = { 1, 7 };
+        int defect = NONE;
+        int defectSize = 0;
+        int extend = UNBOUNDED;
+        for (int i = 1; i < fields.length; i++) {
+            int eq = fields[i].indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected key=value: " + fields[i]);
+            }
+            String key = fields[i].substring(0, eq);
+            String value = fields[i].substring(eq + 1);
+            try {
+                switch (key) {
+                    case "tracts":
+                        tracts = Integer.parseInt(value);
+                        break;
+                    case "tract":
+                        tract = parseRange(value);
+                        break;
+                    case "loop":
+                        loop = parseRange(value);
+                        break;
+                    case "defect":
+                        String[] parts = value.split(":", 2);
+                        switch (parts[0]) {
+                            case "none":
+                                defect = NONE;
+                                break;
+                            case "bulge":
+                                defect = BULGE;
+                                defectSize = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+                                break;
+                            case "vacancy":
+                                defect = VACANCY;
+                                break;
+                            case "loop":
+                                defect = LONG_LOOP;
+                                defectSize = Integer.parseInt(parts[1]);
+                                break;
+                            default:
+                                throw new IllegalArgumentException("unknown defect " + value);
+                        }
+                        break;
+                    case "extend":
+                        extend = value.equals("*") ? UNBOUNDED : Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown key " + key);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("malformed value " + fields[i]);
+            }
+        }
+
+        // 安全切分点（G4Scanner.findCut）要求每个单元都含有至少两个连续的G，半串和缺失一个G的串也不例外
+        int minUnit = defect == BULGE || defect == VACANCY ? tract[0] - 1 : tract[0];
+        if (minUnit < 2) {
+            throw new IllegalArgumentException("tracts must keep at least 2 bases, also in bulges and vacancies");
+        }
+        if (tracts < 1 || tracts > G4Scanner.MAX_TRACTS || defect == LONG_LOOP && tracts < 2) {
+            throw new IllegalArgumentException("tracts must be between " + (defect == LONG_LOOP ? 2 : 1) + " and "
+                    + G4Scanner.MAX_TRACTS);
+        }
+        if (tract[1] < tract[0] || loop[0] < 0 || loop[1] < Math.max(1, loop[0]) || extend < 0) {
+            throw new IllegalArgumentException("empty range");
+        }
+        if (defect == BULGE && defectSize < 1 || defect == LONG_LOOP && defectSize < loop[1]) {
+            throw new IllegalArgumentException("bulge size must be at least 1 and the long loop at least the loop maximum");
+        }
+        return new Motif(name, tracts, tract[0], tract[1], loop[0], loop[1], defect, defectSize, extend);
+    }
+
+    /**
+     * 解析 min-max、min+ 或单个数字。
+     */
+    private static int[] parseRange(String value) {
+        if (value.endsWith("+")) {
+            return new int[] { Integer.parseInt(value.substring(0, value.length() - 1)), UNBOUNDED };
+        }
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            int n = Integer.parseInt(value);
+            return new int[] { n, n };
+        }
+        return new int[] { Integer.parseInt(value.substring(0, dash)), Integer.parseInt(value.substring(dash + 1)) };
+    }
+
+    List<Motif> motifs() {
+        return motifs;
+    }
+
+    /**
+     * 类别名称，下标即 G4Hits 中的类型。
+     */
+    String[] names() {
+        return names.clone();
+    }
+
+    /**
+     * 一个匹配内部相邻两个G串之间最多相隔的碱基数：最长的环或最长的 bulge。
+     */
+    int maxGap() {
+        int gap = 0;
+        for (Motif motif : motifs) {
+            gap = Math.max(gap, motif.loopMax);
+            if (motif.defect != NONE && motif.defect != VACANCY) {
+                gap = Math.max(gap, motif.defectSize);
+            }
+        }
+        return gap;
+    }
+
+    /**
+     * 模式定义的版本，作为结果缓存的键的一部分。与内置模式相同的配置沿用 G4Scanner.MOTIF_VERSION，可以命中已有的结果。
+     */
+    String version() {
+        String canonical = toString();
+        if (DEFAULT != null && canonical.equals(DEFAULT.toString())) {
+            return G4Scanner.MOTIF_VERSION;
+        }
+        return "motifs/1/" + canonical;
+    }
+
+    /**
+     * 把一个类别翻译为正则表达式：依次为各备选分支的G形式，再为各备选分支的C形式，与 G4_Base 的写法相同。
+     */
+    String toRegex(int type) {
+        Motif motif = motifs.get(type);
+        StringBuilder regex = new StringBuilder();
+        for (char base : new char[] { 'G', 'C' }) {
+            int alts = motif.defect == NONE ? 1 : motif.defect == LONG_LOOP ? motif.tracts - 1 : motif.tracts;
+            for (int d = 0; d < alts; d++) {
+                if (regex.length() > 0) {
+                    regex.append('|');
+                }
+                String tract = base + "{" + motif.tractMin + "," + (motif.tractMax == UNBOUNDED ? "" : motif.tractMax)
+                        + "}";
+                String loop = ".{" + motif.loopMin + "," + motif.loopMax + "}?";
+                for (int i = 0; i < motif.tracts; i++) {
+                    if (i > 0) {
+                        boolean longLoop = motif.defect == LONG_LOOP && i - 1 == d;
+                        regex.append(longLoop ? ".{" + motif.loopMin + "," + motif.defectSize + "}?" : loop);
+                    }
+                    if (motif.defect == BULGE && i == d) {
+                        String half = base + "{" + motif.half() + "}";
+                        String gap = "[^" + base + "]" + (motif.defectSize == 1 ? "" : "{1," + motif.defectSize + "}?");
+                        regex.append(half).append(gap).append(half);
+                    } else if (motif.defect == VACANCY && i == d) {
+                        regex.append(base).append('{').append(motif.half()).append('}');
+                    } else {
+                        regex.append(tract);
+                    }
+                }
+                if ((motif.defect == NONE || d != alts - 1) && motif.extend > 0) {
+                    regex.append("(?:").append(loop).append(tract).append(")")
+                            .append(motif.extend == UNBOUNDED ? "*" : "{0," + motif.extend + "}");
+                }
+            }
+        }
+        return regex.toString();
+    }
+
+    /**
+     * 规范的文本形式，每行一个类别。
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Motif motif : motifs) {
+            text.append(motif).append('\n');
+        }
+        return text.toString();
+    }
+}
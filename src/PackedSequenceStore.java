@@ -0,0 +1,483 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * PackedSequenceStore类把一个FASTA文件中的全部染色体保存为一个2比特压缩的缓存文件，并通过内存映射读取。
+ * 每个碱基占2比特（A=0, C=1, G=2, T=3），N区段、小写（软屏蔽）区段以及其他字符分别记录在附表中，
+ * 读取时可以逐字节还原原始序列。
+ * <p>
+ * 文件结构：依次为每条染色体的压缩碱基和附表，然后是染色体索引，最后是固定长度的文件尾，
+ * 文件尾中记录索引位置以及源FASTA文件的大小和修改时间，源文件未变时缓存可以直接复用。
+ */
+public class PackedSequenceStore {
+    private static final int MAGIC = 0x47345041; // "G4PA"
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 8 + 8 + 8 + 4 + 4;
+
+    // 2比特编码到碱基的对照表，以及每个压缩字节解码后的4个碱基
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+    private static final byte[] UNPACKED = new byte[256 * 4];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            for (int k = 0; k < 4; k++) {
+                UNPACKED[b * 4 + k] = BASES[(b >> (6 - 2 * k)) & 3];
+            }
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+
+    /**
+     * 一条染色体在缓存文件中的位置，以及按需加载的附表和内存映射。
+     */
+    private static final class Entry {
+        final int length;
+        final long packedOffset;
+        final long tableOffset;
+        int[] nRuns;       // N区段，依次为起点和终点
+        int[] maskRuns;    // 小写区段，依次为起点和终点
+        int[] exceptionPos; // 其他字符的位置
+        byte[] exceptionBase; // 其他字符的原始字节
+        MappedByteBuffer packed;
+
+        Entry(int length, long packedOffset, long tableOffset) {
+            this.length = length;
+            this.packedOffset = packedOffset;
+            this.tableOffset = tableOffset;
+        }
+    }
+
+    private PackedSequenceStore(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * 判断缓存文件是否存在且由当前的FASTA文件生成。
+     *
+     * @param storeFile 缓存文件路径。
+     * @param fastaFile 源FASTA文件路径。
+     * @return 缓存可以直接复用时返回 true。
+     */
+    public static boolean isUpToDate(Path storeFile, Path fastaFile) {
+        if (!Files.isRegularFile(storeFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(storeFile, StandardOpenOption.READ)) {
+            ByteBuffer trailer = readTrailer(channel);
+            if (trailer == null) {
+                return false;
+            }
+            long sourceSize = trailer.getLong(8);
+            long sourceModified = trailer.getLong(16);
+            return sourceSize == Files.size(fastaFile)
+                    && sourceModified == Files.getLastModifiedTime(fastaFile).toMillis();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 顺序读取FASTA文件并生成缓存文件。先写入同一目录中名称唯一的临时文件（缓存文件名.随机数.tmp），
+     * 完成后再原子地重命名，中途失败不会留下不完整的缓存，多个进程同时生成也不会写入同一个临时文件。
+     *
+     * @param fastaFile 源FASTA文件路径。
+     * @param storeFile 缓存文件路径。
+     * @throws IOException 如果读写文件时发生I/O错误。
+     */
+    public static void build(Path fastaFile, Path storeFile) throws IOException {
+        long sourceSize = Files.size(fastaFile);
+        long sourceModified = Files.getLastModifiedTime(fastaFile).toMillis();
+        // 临时文件名唯一，多个进程同时生成时互不覆盖；不用 createTempFile，以免缓存文件只有创建者可读
+        Path temp = storeFile.resolveSibling(storeFile.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + ".tmp");
+        try {
+            write(fastaFile, temp, sourceSize, sourceModified);
+            Files.move(temp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 把FASTA文件的全部染色体写入 file，文件尾记录源文件的大小和修改时间。
+     */
+    private static void write(Path fastaFile, Path file, long sourceSize, long sourceModified) throws IOException {
+        try (FastaStream stream = new FastaStream(fastaFile.toString());
+             CountingOutputStream counter = new CountingOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            List<String> names = new ArrayList<>();
+            List<long[]> index = new ArrayList<>();
+            byte[] chunk = new byte[1 << 20];
+            String header;
+            while ((header = stream.nextChromosome()) != null) {
+                long packedOffset = counter.count;
+                ChromosomePacker packer = new ChromosomePacker(out);
+                int n;
+                while ((n = stream.read(chunk, 0, chunk.length)) >= 0) {
+                    packer.add(chunk, n);
+                }
+                packer.finish();
+                long tableOffset = counter.count;
+                packer.writeTables(out);
+                names.add(header);
+                index.add(new long[] { packer.length, packedOffset, tableOffset });
+            }
+
+            long indexOffset = counter.count;
+            out.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                long[] entry = index.get(i);
+                out.writeUTF(names.get(i));
+                out.writeInt((int) entry[0]);
+                out.writeLong(entry[1]);
+                out.writeLong(entry[2]);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeInt(VERSION);
+            out.writeInt(MAGIC);
+        }
+    }
+
+    /**
+     * 打开缓存文件并读取染色体索引。
+     *
+     * @param storeFile 缓存文件路径。
+     * @return 打开的缓存。
+     * @throws IOException 如果文件不是有效的缓存文件或读取失败。
+     */
+    public static PackedSequenceStore open(Path storeFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(storeFile, StandardOpenOption.READ)) {
+            ByteBuffer trailer = readTrailer(channel);
+            if (trailer == null) {
+                throw new IOException("Not a valid sequence cache file: " + storeFile);
+            }
+            long indexOffset = trailer.getLong(0);
+            // 同名染色体以最后一条为准，与原有的 HashMap 行为一致
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(indexOffset))));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int length = in.readInt();
+                long packedOffset = in.readLong();
+                long tableOffset = in.readLong();
+                entries.remove(name);
+                entries.put(name, new Entry(length, packedOffset, tableOffset));
+            }
+            return new PackedSequenceStore(storeFile, entries);
+        }
+    }
+
+    private static ByteBuffer readTrailer(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < TRAILER_SIZE) {
+            return null;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer, size - TRAILER_SIZE + trailer.position()) < 0) {
+                return null;
+            }
+        }
+        if (trailer.getInt(28) != MAGIC || trailer.getInt(24) != VERSION) {
+            return null;
+        }
+        return trailer;
+    }
+
+    /**
+     * 获取全部染色体名称，顺序与FASTA文件一致。
+     */
+    public List<String> getNames() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * 获取染色体长度（碱基数）。
+     */
+    public int getLength(String name) {
+        return entries.get(name).length;
+    }
+
+    /**
+     * 获取染色体上的 N 区段（不区分大小写），依次为每段的起点和终点。生成缓存时已经记录，不需要读取序列。
+     * 返回的数组不能修改。
+     */
+    public int[] getGaps(String name) throws IOException {
+        return load(name).nRuns;
+    }
+
+    /**
+     * 读取整条染色体。
+     */
+    public byte[] read(String name) throws IOException {
+        byte[] bases = new byte[getLength(name)];
+        read(name, 0, bases, 0, bases.length);
+        return bases;
+    }
+
+    /**
+     * 读取染色体上 [start, start + len) 的碱基，原样还原大小写、N和其他字符。
+     *
+     * @param name  染色体名称。
+     * @param start 起始位置（从0开始）。
+     * @param dst   目标数组。
+     * @param off   写入的起始位置。
+     * @param len   读取的碱基数。
+     * @throws IOException 如果读取缓存文件时发生I/O错误。
+     */
+    public void read(String name, int start, byte[] dst, int off, int len) throws IOException {
+        Entry entry = load(name);
+        int end = start + len;
+
+        // 解码2比特碱基：首尾不足一个字节的部分逐个解码，中间每个字节一次解出4个碱基
+        MappedByteBuffer packed = entry.packed;
+        int p = start;
+        int d = off;
+        for (; p < end && (p & 3) != 0; p++) {
+            dst[d++] = UNPACKED[(packed.get(p >> 2) & 0xFF) * 4 + (p & 3)];
+        }
+        for (; p + 4 <= end; p += 4) {
+            int u = (packed.get(p >> 2) & 0xFF) * 4;
+            dst[d++] = UNPACKED[u];
+            dst[d++] = UNPACKED[u + 1];
+            dst[d++] = UNPACKED[u + 2];
+            dst[d++] = UNPACKED[u + 3];
+        }
+        for (; p < end; p++) {
+            dst[d++] = UNPACKED[(packed.get(p >> 2) & 0xFF) * 4 + (p & 3)];
+        }
+
+        // 依次还原N区段、小写区段和其他字符
+        int[] runs = entry.nRuns;
+        for (int r = firstRun(runs, start); r < runs.length && runs[r] < end; r += 2) {
+            Arrays.fill(dst, off + Math.max(runs[r], start) - start, off + Math.min(runs[r + 1], end) - start,
+                    (byte) 'N');
+        }
+        runs = entry.maskRuns;
+        for (int r = firstRun(runs, start); r < runs.length && runs[r] < end; r += 2) {
+            for (int q = Math.max(runs[r], start); q < Math.min(runs[r + 1], end); q++) {
+                dst[off + q - start] |= 0x20;
+            }
+        }
+        int[] positions = entry.exceptionPos;
+        int i = Arrays.binarySearch(positions, start);
+        for (i = i < 0 ? -i - 1 : i; i < positions.length && positions[i] < end; i++) {
+            dst[off + positions[i] - start] = entry.exceptionBase[i];
+        }
+    }
+
+    /**
+     * 返回第一个终点大于 pos 的区段在数组中的下标。
+     */
+    private static int firstRun(int[] runs, int pos) {
+        int lo = 0;
+        int hi = runs.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (runs[2 * mid + 1] <= pos) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return 2 * lo;
+    }
+
+    /**
+     * 首次访问某条染色体时读取它的附表并映射压缩碱基。
+     */
+    private synchronized Entry load(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IOException("Sequence not found for header: " + name);
+        }
+        if (entry.packed != null) {
+            return entry;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(entry.tableOffset))));
+            entry.nRuns = readInts(in);
+            entry.maskRuns = readInts(in);
+            entry.exceptionPos = readInts(in);
+            entry.exceptionBase = new byte[in.readInt()];
+            in.readFully(entry.exceptionBase);
+            entry.packed = channel.map(FileChannel.MapMode.READ_ONLY, entry.packedOffset,
+                    (entry.length + 3L) / 4);
+        }
+        return entry;
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    /**
+     * 把一条染色体的碱基逐批压缩写出，同时记录N区段、小写区段和其他字符。
+     */
+    private static final class ChromosomePacker {
+        private final OutputStream out;
+        private final byte[] packedBuffer = new byte[1 << 16];
+        private int packedCount;
+        private int current; // 正在拼装的压缩字节
+        int length;
+
+        private final RunList nRuns = new RunList();
+        private final RunList maskRuns = new RunList();
+        private int[] exceptionPos = new int[16];
+        private byte[] exceptionBase = new byte[16];
+        private int exceptionCount;
+
+        ChromosomePacker(OutputStream out) {
+            this.out = out;
+        }
+
+        void add(byte[] bases, int n) throws IOException {
+            for (int i = 0; i < n; i++) {
+                byte b = bases[i];
+                int upper = b & 0xDF;
+                int code = 0;
+                if (upper == 'C') {
+                    code = 1;
+                } else if (upper == 'G') {
+                    code = 2;
+                } else if (upper == 'T') {
+                    code = 3;
+                } else if (upper == 'N') {
+                    nRuns.add(length);
+                } else if (upper != 'A') {
+                    addException(b);
+                }
+                if (b >= 'a' && b <= 'z') {
+                    maskRuns.add(length);
+                }
+                current = current << 2 | code;
+                length++;
+                if ((length & 3) == 0) {
+                    flushByte();
+                }
+            }
+        }
+
+        private void addException(byte b) {
+            if (exceptionCount == exceptionPos.length) {
+                exceptionPos = Arrays.copyOf(exceptionPos, exceptionCount * 2);
+                exceptionBase = Arrays.copyOf(exceptionBase, exceptionCount * 2);
+            }
+            exceptionPos[exceptionCount] = length;
+            exceptionBase[exceptionCount] = b;
+            exceptionCount++;
+        }
+
+        private void flushByte() throws IOException {
+            packedBuffer[packedCount++] = (byte) current;
+            current = 0;
+            if (packedCount == packedBuffer.length) {
+                out.write(packedBuffer, 0, packedCount);
+                packedCount = 0;
+            }
+        }
+
+        void finish() throws IOException {
+            if ((length & 3) != 0) {
+                current <<= 2 * (4 - (length & 3));
+                flushByte();
+            }
+            out.write(packedBuffer, 0, packedCount);
+            packedCount = 0;
+        }
+
+        void writeTables(DataOutputStream out) throws IOException {
+            writeInts(out, nRuns.values, nRuns.count);
+            writeInts(out, maskRuns.values, maskRuns.count);
+            writeInts(out, exceptionPos, exceptionCount);
+            out.writeInt(exceptionCount);
+            out.write(exceptionBase, 0, exceptionCount);
+        }
+    }
+
+    /**
+     * 区段列表，依次存放每段的起点和终点，逐个位置追加时自动合并相邻的位置。
+     */
+    private static final class RunList {
+        int[] values = new int[16];
+        int count;
+
+        void add(int pos) {
+            if (count > 0 && values[count - 1] == pos) {
+                values[count - 1] = pos + 1;
+                return;
+            }
+            if (count + 2 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = pos;
+            values[count++] = pos + 1;
+        }
+    }
+
+    /**
+     * 记录已写出字节数的输出流，用于确定各部分在文件中的偏移量。
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
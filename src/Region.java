@@ -0,0 +1,136 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Region类表示染色体上的一个区间 [start, end)，坐标从0开始，与BED文件相同。
+ * 区间可以从BED文件读取，也可以写成 samtools 风格的 chr:start-end 字符串（坐标从1开始，包含两端）。
+ */
+public class Region {
+    // 未指定终点时使用，读取时会截断到染色体长度
+    static final int TO_END = Integer.MAX_VALUE;
+
+    final String name;
+    final int start;
+    final int end;
+
+    public Region(String name, int start, int end) {
+        this.name = name;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * 解析 --regions 参数：已存在的文件按BED文件读取，否则按逗号分隔的 chr:start-end 列表解析。
+     * 坐标中的千位分隔符（冒号之后、数字之后且紧跟三位数字的逗号，如 chr1:1,000-2,000）不作为区间的分隔符。
+     *
+     * @param spec 参数值。
+     * @return 区间列表，顺序与输入一致。
+     * @throws IOException 如果读取BED文件时发生I/O错误。
+     */
+    public static List<Region> parseAll(String spec) throws IOException {
+        Path path = Paths.get(spec);
+        if (Files.isRegularFile(path)) {
+            return readBed(path);
+        }
+        List<Region> regions = new ArrayList<>();
+        int from = 0;
+        boolean inRange = false;
+        for (int i = 0; i <= spec.length(); i++) {
+            if (i < spec.length() && spec.charAt(i) == ':') {
+                inRange = true;
+            }
+            if (i < spec.length() && (spec.charAt(i) != ',' || inRange && isThousandsSeparator(spec, i))) {
+                continue;
+            }
+            String part = spec.substring(from, i).trim();
+            if (!part.isEmpty()) {
+                regions.add(parse(part));
+            }
+            from = i + 1;
+            inRange = false;
+        }
+        return regions;
+    }
+
+    /**
+     * 判断 spec 中位置 i 的逗号是否为千位分隔符：前面是数字，后面恰好三位数字，再往后是结尾、'-' 或 ','。
+     */
+    private static boolean isThousandsSeparator(String spec, int i) {
+        if (i == 0 || !Character.isDigit(spec.charAt(i - 1)) || i + 3 >= spec.length()) {
+            return false;
+        }
+        for (int k = i + 1; k <= i + 3; k++) {
+            if (!Character.isDigit(spec.charAt(k))) {
+                return false;
+            }
+        }
+        int next = i + 4;
+        return next == spec.length() || spec.charAt(next) == '-' || spec.charAt(next) == ',';
+    }
+
+    /**
+     * 解析 chr、chr:start 或 chr:start-end，坐标从1开始且包含两端，数字中可以带千位分隔符。
+     */
+    static Region parse(String text) {
+        int colon = text.lastIndexOf(':');
+        if (colon < 0) {
+            return new Region(text, 0, TO_END);
+        }
+        String name = text.substring(0, colon);
+        String range = text.substring(colon + 1).replace(",", "");
+        try {
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                return new Region(name, Math.max(0, Integer.parseInt(range) - 1), TO_END);
+            }
+            int start = Math.max(0, Integer.parseInt(range.substring(0, dash)) - 1);
+            int end = Integer.parseInt(range.substring(dash + 1));
+            if (end < start) {
+                throw new IllegalArgumentException("Invalid region / 非法区间: " + text);
+            }
+            return new Region(name, start, end);
+        } catch (NumberFormatException e) {
+            // 冒号属于染色体名称的一部分
+            return new Region(text, 0, TO_END);
+        }
+    }
+
+    /**
+     * 读取BED文件的前三列，跳过空行、列标题以及 #、track、browser 开头的行。
+     */
+    static List<Region> readBed(Path bedFile) throws IOException {
+        List<Region> regions = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(bedFile, StandardCharsets.ISO_8859_1)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("track") || line.startsWith("browser")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 3) {
+                    throw new IOException("Malformed BED line in " + bedFile + ": " + line);
+                }
+                try {
+                    regions.add(new Region(fields[0], Integer.parseInt(fields[1].trim()), Integer.parseInt(fields[2].trim())));
+                } catch (NumberFormatException e) {
+                    // 第一行可能是列标题（例如本程序输出的BED文件）
+                    if (!regions.isEmpty()) {
+                        throw new IOException("Malformed BED line in " + bedFile + ": " + line);
+                    }
+                }
+            }
+        }
+        return regions;
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + (start + 1) + "-" + (end == TO_END ? "" : String.valueOf(end));
+    }
+}
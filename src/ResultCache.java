@@ -0,0 +1,305 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * ResultCache类按内容保存每条染色体的匹配结果，跨运行、跨FASTA文件复用。
+ * <p>
+ * 键为 SHA-256(模式定义版本, 序列长度, 序列字节)，与染色体名称和文件无关：同一参考基因组的多次运行、
+ * 只改了少数重叠群的新版本组装，只要某条染色体的碱基没有变化就直接读取结果，跳过匹配。
+ * 模式定义改变时 G4Engine.motifVersion 随之改变，旧的结果自然不再命中。
+ * <p>
+ * 每个结果一个文件（键.g4hits），只保存坐标和类型：起点与前一条结果的差（zigzag 变长整数）、长度（变长整数）和类型（一个字节），
+ * 加上 CRC32 校验；匹配序列在读取时引用当前的序列数组。正链和负链的匹配区间相同（见 G4Fasta2Bed.setSingleScan），
+ * 因此一条染色体只保存一份，负链读取时引用互补序列。
+ * <p>
+ * 文件先写入临时文件再原子地重命名，多个线程或进程同时写同一个键也不会读到写了一半的文件。
+ * 目录总大小超过上限时按最近使用时间（文件修改时间，命中时更新）淘汰最久未用的结果。
+ */
+public class ResultCache {
+    private static final String SUFFIX = ".g4hits";
+    private static final byte[] MAGIC = { 'G', '4', 'H', 1 };
+
+    private final Path dir;
+    private final long maxBytes;
+    // 按最近使用的顺序排列，值为文件大小
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * 打开缓存目录，按文件修改时间恢复使用顺序，超过上限时立即淘汰。
+     *
+     * @param dir      缓存目录，不存在时创建。
+     * @param maxBytes 目录中结果文件的总大小上限（字节）。
+     * @throws IOException 如果读取缓存目录时发生I/O错误。
+     */
+    public ResultCache(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX)) {
+                    files.add(file);
+                } else if (name.contains(SUFFIX + ".tmp")) {
+                    // 中断的写入留下的临时文件
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort((a, b) -> times.get(a).compareTo(times.get(b)));
+        for (Path file : files) {
+            long size = Files.size(file);
+            String name = file.getFileName().toString();
+            entries.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            totalBytes += size;
+        }
+        evict();
+    }
+
+    /**
+     * 解析缓存大小，例如 512M、2G 或字节数。
+     */
+    public static long parseSize(String size) {
+        String s = size.trim().toUpperCase();
+        long unit = 1;
+        char last = s.charAt(s.length() - 1);
+        if (last == 'K' || last == 'M' || last == 'G' || last == 'T') {
+            unit = 1L << (10 * ("KMGT".indexOf(last) + 1));
+            s = s.substring(0, s.length() - 1);
+        }
+        return (long) (Double.parseDouble(s) * unit);
+    }
+
+    /**
+     * 计算序列的键。SHA-256 有硬件加速，每秒可处理约 1 GB，比匹配快两个数量级，同时不必担心碰撞。
+     *
+     * @param motifVersion 模式定义的版本。
+     * @param sequence     整条染色体的序列（包括 N 区段）。
+     * @return 十六进制的键。
+     */
+    public static String key(String motifVersion, byte[] sequence) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(motifVersion.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(ByteBuffer.allocate(8).putLong(sequence.length).array());
+        digest.update(sequence);
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * 读取结果。没有该键或文件损坏时返回 null（损坏的文件同时删除）。
+     *
+     * @param key      键。
+     * @param sequence 结果引用的序列，正链为原序列，负链为互补序列。
+     * @param types    模式类型的名称（G4Engine.types()），键中的模式版本保证类型与之对应。
+     * @return 匹配结果，输出坐标即数组下标。
+     */
+    public G4Hits get(String key, byte[] sequence, String[] types) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        Path file = file(key);
+        try {
+            G4Hits result = decode(Files.readAllBytes(file), sequence, types);
+            if (result != null) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.incrementAndGet();
+                return result;
+            }
+            remove(key);
+            Files.deleteIfExists(file);
+        } catch (NoSuchFileException e) {
+            // 已被其他进程淘汰
+            remove(key);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 保存结果，然后淘汰最久未用的结果直到总大小不超过上限。写入失败只打印错误，不影响本次运行。
+     *
+     * @param key  键。
+     * @param hits 整条染色体的匹配结果（偏移量为 0）。
+     */
+    public void put(String key, G4Hits hits) {
+        byte[] data = encode(hits);
+        Path file = file(key);
+        Path temp = dir.resolve(key + SUFFIX + ".tmp" + Thread.currentThread().getId());
+        try {
+            Files.write(temp, data);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Error writing result cache / 写入结果缓存出错: " + file);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // 临时文件在下次打开缓存时清理
+            }
+            return;
+        }
+        synchronized (this) {
+            Long previous = entries.put(key, (long) data.length);
+            totalBytes += data.length - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key + SUFFIX);
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    /**
+     * 淘汰最久未用的结果，直到总大小不超过上限。
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            try {
+                Files.deleteIfExists(file(eldest.getKey()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * 编码为：MAGIC、结果数、每条结果的（起点差、长度、类型），最后是前面全部字节的 CRC32。
+     */
+    static byte[] encode(G4Hits hits) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + hits.size() * 4);
+        out.write(MAGIC, 0, MAGIC.length);
+        writeVarint(out, hits.size());
+        int previous = 0;
+        for (int i = 0; i < hits.size(); i++) {
+            int delta = hits.start(i) - previous;
+            writeVarint(out, (delta << 1) ^ (delta >> 31));
+            writeVarint(out, hits.end(i) - hits.start(i));
+            out.write(hits.type(i));
+            previous = hits.start(i);
+        }
+        CRC32 crc = new CRC32();
+        byte[] body = out.toByteArray();
+        crc.update(body);
+        ByteBuffer data = ByteBuffer.allocate(body.length + 4).put(body).putInt((int) crc.getValue());
+        return data.array();
+    }
+
+    /**
+     * 解码 encode 的结果，格式或校验不符、坐标超出序列时返回 null。
+     */
+    static G4Hits decode(byte[] data, byte[] sequence, String[] types) {
+        if (data.length < MAGIC.length + 5) {
+            return null;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                return null;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(data, data.length - 4, 4).getInt()) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(data, MAGIC.length, data.length - 4 - MAGIC.length);
+        G4Hits hits = new G4Hits(sequence, 0, types);
+        try {
+            int count = readVarint(in);
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                int zigzag = readVarint(in);
+                start += (zigzag >>> 1) ^ -(zigzag & 1);
+                int end = start + readVarint(in);
+                int type = in.get();
+                if (start < 0 || end > sequence.length || type < 0 || type >= types.length) {
+                    return null;
+                }
+                hits.add(start, end, type);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+        return hits;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,377 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RunMetrics类记录一次运行中各阶段的耗时与吞吐量：读取序列（load）、取互补序列（complement）、
+ * 匹配（match）和写出BED文件（write），按染色体和链分别统计，另外统计各模式类型的匹配数、写出的字节数和堆内存峰值。
+ * 运行结束后可以写出JSON报告，运行过程中可以定期打印进度。
+ * <p>
+ * 未开启时使用 DISABLED：start() 不读取时钟，其余方法立即返回，对运行速度没有可测量的影响。
+ * 并行运行时各阶段的耗时是所有任务耗时之和，可能大于整次运行的墙钟时间。
+ */
+public class RunMetrics {
+    public static final RunMetrics DISABLED = new RunMetrics(false);
+
+    // 阶段
+    public static final int LOAD = 0;
+    public static final int COMPLEMENT = 1;
+    public static final int MATCH = 2;
+    public static final int WRITE = 3;
+    private static final String[] STAGES = { "load", "complement", "match", "write" };
+
+    // 链，LOAD 阶段不区分链时使用 BOTH
+    public static final int FORWARD = 0;
+    public static final int REVERSE = 1;
+    public static final int BOTH = -1;
+    private static final String[] STRANDS = { "+", "-" };
+
+    // 进度行的间隔
+    private static final long PROGRESS_INTERVAL_SECONDS = 5;
+
+    private final boolean enabled;
+    private String[] types = G4Scanner.TYPES;
+    private final long startNanos = System.nanoTime();
+    private final Map<String, String> info = new LinkedHashMap<>();
+    private final Map<String, ChromosomeStats> chromosomes = new LinkedHashMap<>();
+    private final AtomicLong basesDone = new AtomicLong();
+    private volatile long totalBases;
+    private ScheduledExecutorService progress;
+
+    /**
+     * 一条染色体的统计。所有字段都在该对象的锁内更新。
+     */
+    private static final class ChromosomeStats {
+        final String name;
+        long length;
+        long firstNanos;
+        long lastNanos;
+        long loadNanos;
+        final long[][] stageNanos = new long[2][STAGES.length];
+        final long[][] hits;
+        final long[] bytes = new long[2];
+        final boolean[] touched = new boolean[2];
+
+        ChromosomeStats(String name, long now, int types) {
+            this.name = name;
+            this.hits = new long[2][types];
+            this.firstNanos = now;
+            this.lastNanos = now;
+        }
+    }
+
+    public RunMetrics() {
+        this(true);
+    }
+
+    private RunMetrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 设置模式类型的名称（G4Engine.types()），必须在记录任何结果之前调用，默认为内置的五类模式。
+     */
+    public void setTypes(String[] types) {
+        this.types = types;
+    }
+
+    /**
+     * 记录运行参数（FASTA文件、模式、引擎等），原样写入报告。
+     */
+    public synchronized void setInfo(String key, String value) {
+        if (enabled) {
+            info.put(key, value);
+        }
+    }
+
+    /**
+     * 设置要处理的碱基总数，进度行据此显示百分比；未知时不调用。
+     */
+    public void setTotalBases(long totalBases) {
+        this.totalBases = totalBases;
+    }
+
+    /**
+     * 返回阶段的开始时间，传给 record；未开启时返回0且不读取时钟。
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * 记录一条染色体的长度（碱基数）。流式模式下可以多次调用，长度累加。
+     */
+    public void addLength(String chromosome, long length) {
+        if (!enabled) {
+            return;
+        }
+        ChromosomeStats stats = stats(chromosome);
+        synchronized (stats) {
+            stats.length += length;
+        }
+    }
+
+    /**
+     * 把从 startNanos 到现在的时间计入指定染色体、链和阶段。
+     *
+     * @param strand FORWARD、REVERSE，或不区分链的 BOTH（只用于 LOAD）。
+     */
+    public void record(String chromosome, int strand, int stage, long startNanos) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        ChromosomeStats stats = stats(chromosome);
+        synchronized (stats) {
+            if (strand == BOTH) {
+                stats.loadNanos += now - startNanos;
+            } else {
+                stats.stageNanos[strand][stage] += now - startNanos;
+                stats.touched[strand] = true;
+            }
+            stats.lastNanos = Math.max(stats.lastNanos, now);
+        }
+    }
+
+    /**
+     * 统计一批匹配结果中各模式类型的数量。
+     */
+    public void hits(String chromosome, int strand, G4Hits hits) {
+        if (!enabled) {
+            return;
+        }
+        long[] counts = new long[types.length];
+        for (int i = 0; i < hits.size(); i++) {
+            counts[hits.type(i)]++;
+        }
+        ChromosomeStats stats = stats(chromosome);
+        synchronized (stats) {
+            for (int t = 0; t < counts.length; t++) {
+                stats.hits[strand][t] += counts[t];
+            }
+            stats.touched[strand] = true;
+        }
+    }
+
+    /**
+     * 记录写出的字节数。
+     */
+    public void bytes(String chromosome, int strand, long bytes) {
+        if (!enabled) {
+            return;
+        }
+        ChromosomeStats stats = stats(chromosome);
+        synchronized (stats) {
+            stats.bytes[strand] += bytes;
+        }
+    }
+
+    /**
+     * 记录已处理完的碱基数，用于进度行。
+     */
+    public void progress(long bases) {
+        if (enabled) {
+            basesDone.addAndGet(bases);
+        }
+    }
+
+    private synchronized ChromosomeStats stats(String chromosome) {
+        return chromosomes.computeIfAbsent(chromosome, name -> new ChromosomeStats(name, System.nanoTime(), types.length));
+    }
+
+    /**
+     * 开始在标准错误输出上定期打印进度行。
+     */
+    public synchronized void startProgress() {
+        if (!enabled || progress != null) {
+            return;
+        }
+        progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "g4-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progress.scheduleAtFixedRate(this::printProgress, PROGRESS_INTERVAL_SECONDS, PROGRESS_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止打印进度。
+     */
+    public synchronized void stopProgress() {
+        if (progress != null) {
+            progress.shutdownNow();
+            progress = null;
+        }
+    }
+
+    private void printProgress() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long done = basesDone.get();
+        long total = totalBases;
+        Runtime runtime = Runtime.getRuntime();
+        long heap = runtime.totalMemory() - runtime.freeMemory();
+        StringBuilder line = new StringBuilder();
+        line.append(String.format(Locale.ROOT, "[progress] %.1f s, %.1f Mb", seconds, done / 1e6));
+        if (total > 0) {
+            line.append(String.format(Locale.ROOT, " / %.1f Mb (%.1f%%)", total / 1e6, 100.0 * done / total));
+        }
+        double rate = done / Math.max(seconds, 1e-9);
+        line.append(String.format(Locale.ROOT, ", %.2f Mb/s", rate / 1e6));
+        if (total > 0 && done > 0 && done < total) {
+            line.append(String.format(Locale.ROOT, ", ETA %.0f s", (total - done) / rate));
+        }
+        line.append(String.format(Locale.ROOT, ", heap %d MB", heap >> 20));
+        System.err.println(line);
+    }
+
+    /**
+     * 返回各堆内存池的峰值之和。
+     */
+    static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * 写出JSON格式的运行报告：运行参数、总耗时与吞吐量、各阶段耗时、各类型匹配数，以及每条染色体每条链的明细。
+     *
+     * @param reportFile 报告文件路径。
+     * @throws IOException 如果写文件时发生I/O错误。
+     */
+    public synchronized void writeJson(Path reportFile) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        double wall = (System.nanoTime() - startNanos) / 1e9;
+        long bases = 0;
+        long bytes = 0;
+        long[] stages = new long[STAGES.length];
+        long[] hits = new long[types.length];
+        List<ChromosomeStats> list = new ArrayList<>(chromosomes.values());
+        for (ChromosomeStats stats : list) {
+            synchronized (stats) {
+                bases += stats.length;
+                stages[LOAD] += stats.loadNanos;
+                for (int s = 0; s < 2; s++) {
+                    for (int st = COMPLEMENT; st < STAGES.length; st++) {
+                        stages[st] += stats.stageNanos[s][st];
+                    }
+                    for (int t = 0; t < hits.length; t++) {
+                        hits[t] += stats.hits[s][t];
+                    }
+                    bytes += stats.bytes[s];
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        for (Map.Entry<String, String> entry : info.entrySet()) {
+            json.append("  ").append(quote(entry.getKey())).append(": ").append(quote(entry.getValue())).append(",\n");
+        }
+        json.append("  \"wallSeconds\": ").append(number(wall)).append(",\n");
+        json.append("  \"bases\": ").append(bases).append(",\n");
+        json.append("  \"basesPerSecond\": ").append(number(bases / Math.max(wall, 1e-9))).append(",\n");
+        json.append("  \"bytesWritten\": ").append(bytes).append(",\n");
+        json.append("  \"peakHeapBytes\": ").append(peakHeapBytes()).append(",\n");
+        json.append("  \"stageSeconds\": ").append(stageObject(stages, LOAD)).append(",\n");
+        json.append("  \"hits\": ").append(hitsObject(hits)).append(",\n");
+        json.append("  \"chromosomes\": [");
+        for (int i = 0; i < list.size(); i++) {
+            ChromosomeStats stats = list.get(i);
+            synchronized (stats) {
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("    {\"name\": ").append(quote(stats.name));
+                json.append(", \"length\": ").append(stats.length);
+                json.append(", \"wallSeconds\": ").append(number((stats.lastNanos - stats.firstNanos) / 1e9));
+                json.append(", \"loadSeconds\": ").append(number(stats.loadNanos / 1e9));
+                json.append(", \"strands\": {");
+                boolean first = true;
+                for (int s = 0; s < 2; s++) {
+                    if (!stats.touched[s]) {
+                        continue;
+                    }
+                    double matchSeconds = stats.stageNanos[s][MATCH] / 1e9;
+                    json.append(first ? "" : ", ").append(quote(STRANDS[s])).append(": {");
+                    json.append("\"stageSeconds\": ").append(stageObject(stats.stageNanos[s], COMPLEMENT));
+                    json.append(", \"matchBasesPerSecond\": ")
+                            .append(number(stats.length / Math.max(matchSeconds, 1e-9)));
+                    json.append(", \"hits\": ").append(hitsObject(stats.hits[s]));
+                    json.append(", \"bytesWritten\": ").append(stats.bytes[s]);
+                    json.append("}");
+                    first = false;
+                }
+                json.append("}}");
+            }
+        }
+        json.append(list.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    /**
+     * 输出从 firstStage 开始的各阶段耗时（秒）；按链统计时没有 load 阶段。
+     */
+    private static String stageObject(long[] nanos, int firstStage) {
+        StringBuilder out = new StringBuilder("{");
+        for (int st = firstStage; st < STAGES.length; st++) {
+            out.append(st == firstStage ? "" : ", ").append(quote(STAGES[st])).append(": ")
+                    .append(number(nanos[st] / 1e9));
+        }
+        return out.append("}").toString();
+    }
+
+    private String hitsObject(long[] counts) {
+        StringBuilder out = new StringBuilder("{");
+        for (int t = 0; t < counts.length; t++) {
+            out.append(t == 0 ? "" : ", ").append(quote(types[t])).append(": ").append(counts[t]);
+        }
+        return out.append("}").toString();
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder out = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.append('"').toString();
+    }
+}
@@ -0,0 +1,248 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SequenceCache类管理缓存文件夹中的序列缓存（PackedSequenceStore），同一个缓存文件夹可以被多个进程同时使用，
+ * 一个进程生成的缓存可以被其他进程直接复用。
+ * <p>
+ * 每个FASTA文件对应一个条目（文件名.路径哈希.g4pack）和一个锁文件（条目名.lock）：
+ * 使用条目期间持有锁文件上的共享锁，生成和删除条目需要排他锁，因此正在被使用的条目不会被其他进程替换或淘汰，
+ * 两个进程同时需要同一个条目时只有一个进程生成，另一个等待后直接复用。条目先写入唯一的临时文件再原子地重命名。
+ * 锁文件是空文件，不随条目一起删除，避免等待中的进程锁住一个已经被删除的锁文件。
+ * 要求保留条目的运行在条目旁留下保留标记（条目名.keep），之后其他运行的 remove 不再删除它，只有 trim 会淘汰它。
+ * <p>
+ * 文件夹的总大小可以用 trim 限制：按最近使用时间（文件修改时间，每次打开时更新）淘汰最久未用的条目，
+ * 跳过正在被使用或生成的条目，同时删除中断的生成留下的临时文件。
+ */
+public class SequenceCache {
+    static final String SUFFIX = ".g4pack";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String KEEP_SUFFIX = ".keep";
+
+    private final Path dir;
+
+    /**
+     * 被使用的条目：关闭时释放共享锁，缓存文件仍然可以通过已经建立的内存映射读取。
+     */
+    public static final class Lease implements Closeable {
+        private final PackedSequenceStore store;
+        private final FileChannel lock;
+
+        Lease(PackedSequenceStore store, FileChannel lock) {
+            this.store = store;
+            this.lock = lock;
+        }
+
+        public PackedSequenceStore store() {
+            return store;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (lock != null) {
+                lock.close();
+            }
+        }
+    }
+
+    /**
+     * @param dir 缓存文件夹，不存在时创建。
+     */
+    public SequenceCache(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    /**
+     * 返回FASTA文件在缓存文件夹中对应的条目。文件名中加上绝对路径的哈希，不同目录中的同名文件不会相互覆盖。
+     */
+    static Path entryFile(Path fastaFile, Path dir) {
+        return dir.resolve(fastaFile.getFileName() + "." + pathHash(fastaFile) + SUFFIX);
+    }
+
+    /**
+     * 返回绝对路径的 SHA-256 的前8个十六进制字符，用于区分共用缓存文件夹的不同文件。
+     */
+    static String pathHash(Path file) {
+        String path = file.toAbsolutePath().normalize().toString();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(path.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hash = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                hash.append(String.format("%02x", digest[i]));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 打开FASTA文件对应的条目：条目由当前的FASTA文件生成时直接打开，否则在排他锁下生成。
+     * 返回的 Lease 持有共享锁，关闭之前条目不会被替换或淘汰。
+     *
+     * @param fastaFile 源FASTA文件。
+     * @return 打开的条目。
+     * @throws IOException 如果生成或读取缓存文件时发生I/O错误。
+     */
+    public Lease open(Path fastaFile) throws IOException {
+        Path entry = entryFile(fastaFile, dir);
+        while (true) {
+            FileChannel channel = openLock(entry);
+            try {
+                channel.lock(0, Long.MAX_VALUE, true);
+                if (PackedSequenceStore.isUpToDate(entry, fastaFile)) {
+                    Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+                    return new Lease(PackedSequenceStore.open(entry), channel);
+                }
+                channel.close();
+                // 需要生成：改为排他锁，拿到后再检查一次，其他进程可能已经生成完毕
+                channel = openLock(entry);
+                channel.lock();
+                if (!PackedSequenceStore.isUpToDate(entry, fastaFile)) {
+                    PackedSequenceStore.build(fastaFile, entry);
+                }
+                // 释放排他锁，回到循环开头以共享锁打开
+                channel.close();
+            } catch (OverlappingFileLockException e) {
+                // 本进程已经持有该条目的锁（同一个FASTA文件被同时打开两次），条目不会被其他进程替换
+                channel.close();
+                if (!PackedSequenceStore.isUpToDate(entry, fastaFile)) {
+                    PackedSequenceStore.build(fastaFile, entry);
+                }
+                return new Lease(PackedSequenceStore.open(entry), null);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 标记FASTA文件对应的条目需要保留，之后 remove 不再删除它。应在关闭条目的 Lease 之前调用，
+     * 此时 trim 拿不到排他锁，标记不会与条目的淘汰交错。
+     */
+    public void keep(Path fastaFile) throws IOException {
+        try {
+            Files.createFile(keepFile(entryFile(fastaFile, dir)));
+        } catch (FileAlreadyExistsException e) {
+            // 已经标记过
+        }
+    }
+
+    /**
+     * 没有其他进程使用、也没有运行要求保留时删除FASTA文件对应的条目。
+     *
+     * @return 条目已删除或不存在时返回 true；正在被使用或被标记为保留时返回 false。
+     */
+    public boolean remove(Path fastaFile) throws IOException {
+        Path entry = entryFile(fastaFile, dir);
+        if (!Files.exists(entry)) {
+            return true;
+        }
+        if (Files.exists(keepFile(entry))) {
+            return false;
+        }
+        return deleteIfUnused(entry);
+    }
+
+    /**
+     * 按最近使用时间淘汰条目，直到条目的总大小不超过 maxBytes；正在被使用或生成的条目跳过。
+     *
+     * @param maxBytes 条目总大小的上限（字节）。
+     * @return 淘汰后条目的总大小。
+     * @throws IOException 如果读取缓存文件夹时发生I/O错误。
+     */
+    public long trim(long maxBytes) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        Map<Path, FileTime> times = new HashMap<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    if (name.endsWith(SUFFIX)) {
+                        entries.add(file);
+                        times.put(file, Files.getLastModifiedTime(file));
+                        sizes.put(file, Files.size(file));
+                        total += sizes.get(file);
+                    } else if (name.endsWith(TEMP_SUFFIX) && name.contains(SUFFIX + ".")) {
+                        // 临时文件名为 条目名.随机数.tmp，条目的排他锁可以拿到时说明没有进程在生成
+                        Path entry = dir.resolve(name.substring(0, name.indexOf(SUFFIX + ".") + SUFFIX.length()));
+                        deleteIfUnused(entry, file);
+                    }
+                } catch (IOException e) {
+                    // 其他进程刚刚删除或替换了这个文件
+                }
+            }
+        }
+        entries.sort((a, b) -> times.get(a).compareTo(times.get(b)));
+        for (Path entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (deleteIfUnused(entry)) {
+                total -= sizes.get(entry);
+            }
+        }
+        return total;
+    }
+
+    private boolean deleteIfUnused(Path entry) throws IOException {
+        return deleteIfUnused(entry, entry);
+    }
+
+    /**
+     * 拿到条目的排他锁时删除 file（条目本身或它的临时文件），锁被其他进程或本进程持有时不删除。
+     */
+    private boolean deleteIfUnused(Path entry, Path file) throws IOException {
+        try (FileChannel channel = openLock(entry)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                return false;
+            }
+            if (lock == null) {
+                return false;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // 文件仍被内存映射时部分系统（Windows）不允许删除
+                return false;
+            }
+            if (file.equals(entry)) {
+                Files.deleteIfExists(keepFile(entry));
+            }
+            return true;
+        }
+    }
+
+    private static Path keepFile(Path entry) {
+        return entry.resolveSibling(entry.getFileName() + KEEP_SUFFIX);
+    }
+
+    private static FileChannel openLock(Path entry) throws IOException {
+        return FileChannel.open(entry.resolveSibling(entry.getFileName() + LOCK_SUFFIX), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+}
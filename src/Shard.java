@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shard类把一个基因组确定地分给 count 个分片，使一次扫描可以分散到多个节点上独立运行，再用 merge 合并结果。
+ * <p>
+ * 全部染色体按FASTA中的顺序首尾相连，在碱基数的 1/count、2/count……处切开，每个分片是其中连续的一段：
+ * 较短的染色体整条分给一个分片，较长的染色体在切开处分给相邻的两个分片。染色体内部的切开处移到之前最近的安全切分点
+ * （G4Engine.findCut），任何匹配都不会跨过分片的边界，因此各分片的结果合起来与整体运行完全相同。
+ * 切开处只取决于FASTA文件的内容和模式定义，各节点不需要通信；各分片必须使用相同的FASTA文件和 --motifs。
+ * <p>
+ * 分片的输出为BED文件名加上 .shard-i-of-n，每个分片内的行按FASTA中的顺序排列。
+ */
+public class Shard {
+    // 寻找切分点时第一次读取的窗口大小，找不到时加倍
+    private static final int CUT_WINDOW = 1 << 16;
+    private static final Pattern PART = Pattern.compile("(.+)\\.shard-(\\d+)-of-(\\d+)\\.bed");
+
+    final int index;
+    final int count;
+
+    /**
+     * @param index 分片的编号，从1开始。
+     * @param count 分片数。
+     */
+    public Shard(int index, int count) {
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard / 非法分片: " + index + "/" + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * 解析 i/n，如 2/8。
+     */
+    public static Shard parse(String spec) {
+        int slash = spec.indexOf('/');
+        try {
+            return new Shard(Integer.parseInt(spec.substring(0, slash)), Integer.parseInt(spec.substring(slash + 1)));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid shard / 非法分片: " + spec);
+        }
+    }
+
+    /**
+     * 返回分片输出文件名的后缀，加在BED文件名（不含 .bed）之后。
+     */
+    public String suffix() {
+        return ".shard-" + index + "-of-" + count + ".bed";
+    }
+
+    /**
+     * 返回本分片要匹配的区间，按FASTA中的顺序排列；分片数多于可切分的位置时可能为空。
+     *
+     * @param input  FASTA输入。
+     * @param engine 匹配引擎，决定安全切分点的位置。
+     * @return 本分片的区间。
+     * @throws IOException 如果读取序列时发生I/O错误。
+     */
+    public List<Region> regions(FastaInput input, G4Engine engine) throws IOException {
+        List<String> headers = new ArrayList<>(input.getChromosomeHeaders());
+        long total = 0;
+        for (String header : headers) {
+            total += input.getLength(header);
+        }
+        long from = boundary(input, engine, headers, total, index - 1);
+        long to = boundary(input, engine, headers, total, index);
+        List<Region> regions = new ArrayList<>();
+        long chromosomeStart = 0;
+        for (String header : headers) {
+            long chromosomeEnd = chromosomeStart + input.getLength(header);
+            long start = Math.max(from, chromosomeStart);
+            long end = Math.min(to, chromosomeEnd);
+            if (start < end) {
+                regions.add(new Region(header, (int) (start - chromosomeStart), (int) (end - chromosomeStart)));
+            }
+            chromosomeStart = chromosomeEnd;
+        }
+        return regions;
+    }
+
+    /**
+     * 第 k 个分片的终点（相连后的坐标）：total * k / count 处之前最近的安全切分点，染色体的起点总是安全的。
+     * 切分点取不超过给定位置的最后一个，因此边界随 k 单调不减。
+     */
+    private long boundary(FastaInput input, G4Engine engine, List<String> headers, long total, int k)
+            throws IOException {
+        if (k == 0 || k == count) {
+            return k == 0 ? 0 : total;
+        }
+        long nominal = total * k / count;
+        long chromosomeStart = 0;
+        for (String header : headers) {
+            int length = input.getLength(header);
+            if (nominal < chromosomeStart + length) {
+                int pos = (int) (nominal - chromosomeStart);
+                return chromosomeStart + lastCut(input, engine, header, pos);
+            }
+            chromosomeStart += length;
+        }
+        return total;
+    }
+
+    /**
+     * 染色体上不超过 pos 的最后一个安全切分点，从 pos 向前读取逐步加倍的窗口查找，找不到时为染色体的起点。
+     */
+    private static int lastCut(FastaInput input, G4Engine engine, String header, int pos) throws IOException {
+        int window = CUT_WINDOW;
+        while (true) {
+            int start = Math.max(0, pos - window);
+            byte[] bases = input.getRegionBytes(header, start, pos);
+            int cut = engine.findCut(bases, 0, bases.length);
+            if (cut >= 0) {
+                return start + cut;
+            }
+            if (start == 0) {
+                return 0;
+            }
+            window *= 2;
+        }
+    }
+
+    /**
+     * 合并输出文件夹中全部分片的输出：同一个BED文件的 n 个分片必须齐全，按分片顺序读入后外部排序为最终的BED文件
+     * （行按染色体、起点、终点排列，与 --sort 的输出相同），以 .gz 结尾时写出BGZF压缩的文件和 tabix 索引。
+     * 分片覆盖的是基因组中依次相连的片段，染色体在分片输出中第一次出现的顺序就是FASTA中的顺序。
+     *
+     * @param outputFolder 分片输出所在的文件夹，最终文件也写在这里。
+     * @param bgzf         是否写出BGZF压缩的文件。
+     * @param sortBuffer   外部排序的内存上限（字节）。
+     * @return 写出的最终文件。
+     * @throws IOException 如果某个BED文件的分片不齐全、分片数不一致，或读写文件时发生I/O错误。
+     */
+    public static List<Path> merge(Path outputFolder, boolean bgzf, long sortBuffer) throws IOException {
+        // 键为BED文件名（不含 .bed），值为分片数和按编号排列的分片文件
+        Map<String, Integer> counts = new TreeMap<>();
+        Map<String, TreeMap<Integer, Path>> parts = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(outputFolder)) {
+            for (Path file : stream) {
+                Matcher matcher = PART.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                String name = matcher.group(1);
+                int count = Integer.parseInt(matcher.group(3));
+                Integer previous = counts.putIfAbsent(name, count);
+                if (previous != null && previous != count) {
+                    throw new IOException("Shards of " + name + " have different counts / 分片数不一致: " + previous
+                            + ", " + count);
+                }
+                parts.computeIfAbsent(name, key -> new TreeMap<>()).put(Integer.parseInt(matcher.group(2)), file);
+            }
+        }
+        List<Path> merged = new ArrayList<>();
+        for (Map.Entry<String, TreeMap<Integer, Path>> entry : parts.entrySet()) {
+            String name = entry.getKey();
+            int count = counts.get(name);
+            for (int i = 1; i <= count; i++) {
+                if (!entry.getValue().containsKey(i)) {
+                    throw new IOException("Missing shard / 缺少分片 " + i + "/" + count + ": " + name);
+                }
+            }
+            Path output = outputFolder.resolve(name + (bgzf ? ".bed.gz" : ".bed"));
+            BedSorter sorter = new BedSorter(outputFolder, sortBuffer);
+            sorter.sort(new ArrayList<>(entry.getValue().values()), output, BedOutput.headerLine());
+            merged.add(output);
+        }
+        return merged;
+    }
+}
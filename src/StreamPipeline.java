@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * StreamPipeline类把流式模式分为依次衔接的阶段，各阶段在不同的线程上同时进行：
+ * <ol>
+ * <li>读取：读取线程解析（并解压）FASTA文件，在 G4Engine.findCut 给出的安全切分点处截断窗口；</li>
+ * <li>准备和匹配：threads 个工作线程查找 N 区段、计算互补序列并匹配；</li>
+ * <li>格式化：调用线程按窗口顺序把结果交给 WindowSink，编码为BED行；</li>
+ * <li>写盘：BedWriter 的I/O线程。</li>
+ * </ol>
+ * 读取和匹配之间是容量为 threads 的有界队列，队列中是按读取顺序排列的匹配任务，因此结果总是按窗口顺序交付。
+ * 队列满时读取线程等待；写盘跟不上时 BedWriter 的缓冲区先填满，格式化随之等待，队列不再被取走，读取也就暂停。
+ * 同时存在的窗口不超过 threads + 2 个（队列中的、正在读取的和正在格式化的），内存占用与基因组大小无关。
+ */
+public class StreamPipeline {
+    // 窗口扩大的上限（碱基数），同时不超过最大堆内存的 1/8
+    static final int MAX_WINDOW = 1 << 28;
+
+    private final G4Engine engine;
+    private final int threads;
+    private final RunMetrics metrics;
+
+    /**
+     * 接收一个窗口的匹配结果，总是在调用 run 的线程中按窗口顺序调用。
+     */
+    public interface WindowSink {
+        void accept(Window window) throws IOException;
+    }
+
+    /**
+     * 一个窗口及其匹配结果。结果中的序列引用 bases（负链为互补序列），交付之后不再被修改。
+     */
+    public static final class Window {
+        // 读取结束的标记
+        static final Window END = new Window(null, null, 0, 0);
+
+        final String header;
+        final byte[] bases;
+        final int length;
+        final int offset;
+        G4Hits forward;
+        G4Hits reverse;
+
+        Window(String header, byte[] bases, int length, int offset) {
+            this.header = header;
+            this.bases = bases;
+            this.length = length;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * @param engine  匹配引擎。
+     * @param threads 匹配线程数，同时也是读取与匹配之间队列的容量。
+     * @param metrics 运行指标。
+     */
+    public StreamPipeline(G4Engine engine, int threads, RunMetrics metrics) {
+        this.engine = engine;
+        this.threads = Math.max(1, threads);
+        this.metrics = metrics;
+    }
+
+    /**
+     * 流式匹配整个FASTA文件。
+     *
+     * @param stream     FASTA输入，由调用者关闭。
+     * @param windowSize 窗口的初始大小。
+     * @param forward    是否匹配正链。
+     * @param reverse    是否匹配负链；singleScan 为 true 时不匹配负链，由 sink 用正链的结果写出。
+     * @param sink       结果接收者。
+     * @throws IOException 如果读取FASTA文件或 sink 写出时发生I/O错误。
+     */
+    public void run(FastaStream stream, int windowSize, boolean forward, boolean reverse, WindowSink sink)
+            throws IOException {
+        BlockingQueue<Future<Window>> pending = new ArrayBlockingQueue<>(threads);
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "stream-match-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        int strands = (forward ? 1 : 0) + (reverse ? 1 : 0);
+        Thread reader = new Thread(() -> {
+            // 读取结束或出错时在队列末尾放入结束标记或错误，调用线程取到时停止
+            Future<Window> last;
+            try {
+                read(stream, windowSize, strands, window -> pending.put(workers.submit(() -> match(window,
+                        forward, reverse))));
+                last = CompletableFuture.completedFuture(Window.END);
+            } catch (InterruptedException e) {
+                // 调用线程已经放弃，不再交付
+                return;
+            } catch (Throwable e) {
+                // 包括扩大窗口时的 OutOfMemoryError，交给调用线程抛出，否则调用线程会一直等待
+                last = CompletableFuture.failedFuture(e);
+            }
+            try {
+                pending.put(last);
+            } catch (InterruptedException e) {
+                // 调用线程已经放弃
+            }
+        }, "stream-reader");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            while (true) {
+                Window window = pending.take().get();
+                if (window == Window.END) {
+                    return;
+                }
+                sink.accept(window);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // 出错时让读取线程和工作线程停下；正常结束时它们已经空闲
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * 读取阶段交付窗口的回调，队列满时阻塞。
+     */
+    private interface WindowQueue {
+        void put(Window window) throws InterruptedException;
+    }
+
+    /**
+     * 读取阶段：按顺序读取每条染色体，每个窗口在安全切分点处截断后交出，切分点之后的部分复制到新的窗口继续读取。
+     */
+    private void read(FastaStream stream, int windowSize, int strands, WindowQueue queue)
+            throws IOException, InterruptedException {
+        long maxWindow = Math.max(windowSize, Math.min(MAX_WINDOW, Runtime.getRuntime().maxMemory() / 8));
+        String header;
+        while ((header = stream.nextChromosome()) != null) {
+            byte[] window = new byte[windowSize];
+            int filled = 0; // 窗口中已有的碱基数
+            int offset = 0; // 窗口第一个碱基在染色体上的位置
+            boolean end = false;
+            while (!end) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                long started = metrics.start();
+                int n = stream.read(window, filled, window.length - filled);
+                if (n < 0) {
+                    end = true;
+                } else {
+                    filled += n;
+                    metrics.addLength(header, n);
+                    metrics.progress((long) n * strands);
+                }
+                metrics.record(header, RunMetrics.BOTH, RunMetrics.LOAD, started);
+                if (!end && filled < window.length) {
+                    continue;
+                }
+
+                int cut = end ? filled : engine.findCut(window, 0, filled);
+                if (cut <= 0) {
+                    // 整个窗口内都找不到安全切分点（极端富含GC的区域），扩大窗口后继续读取
+                    if (window.length * 2L > maxWindow) {
+                        throw new IOException("No safe split point in " + window.length + " bases of " + header
+                                + " from " + offset + ", use -aP or raise -Xmx / " + header + " 从 " + offset + " 起的 "
+                                + window.length + " 个碱基内没有安全切分点, 请使用 -aP 或调大 -Xmx");
+                    }
+                    window = Arrays.copyOf(window, window.length * 2);
+                    continue;
+                }
+                byte[] next = end ? null : new byte[Math.max(windowSize, filled - cut)];
+                if (next != null) {
+                    System.arraycopy(window, cut, next, 0, filled - cut);
+                }
+                queue.put(new Window(header, window, cut, offset));
+                window = next;
+                filled -= cut;
+                offset += cut;
+            }
+        }
+    }
+
+    /**
+     * 准备和匹配阶段：跳过 N 区段匹配一个窗口，负链先计算互补序列。
+     */
+    private Window match(Window window, boolean forward, boolean reverse) {
+        int[] gaps = FastaInput.findGaps(window.bases, 0, window.length);
+        if (forward) {
+            long started = metrics.start();
+            window.forward = engine.match(window.bases, 0, window.length, window.offset, gaps);
+            metrics.record(window.header, RunMetrics.FORWARD, RunMetrics.MATCH, started);
+        }
+        if (reverse) {
+            long started = metrics.start();
+            byte[] complement = new byte[window.length];
+            ConvertSequence.complement(window.bases, 0, window.length, complement, 0);
+            metrics.record(window.header, RunMetrics.REVERSE, RunMetrics.COMPLEMENT, started);
+            started = metrics.start();
+            window.reverse = engine.match(complement, 0, window.length, window.offset, gaps);
+            metrics.record(window.header, RunMetrics.REVERSE, RunMetrics.MATCH, started);
+        }
+        return window;
+    }
+}
@@ -0,0 +1,236 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * TabixIndex类在写出BGZF压缩的BED文件的同时生成 tabix 索引（.tbi），与 `tabix -p bed` 生成的索引格式相同。
+ * 每行按写出顺序加入索引，要求同一染色体的行连续、起点不递减。
+ * 索引中记录的是每行在未压缩数据中的位置，写出索引时再换算为 BGZF 虚拟偏移量，因此可以边压缩边建立索引。
+ * <p>
+ * 索引包括 UCSC 分箱（5 层，最小 16 kb）中每个箱的区块列表，以及每 16 kb 一项的线性索引。
+ * 文件的第一行为列标题，索引中记为跳过 1 行。
+ */
+public class TabixIndex {
+    private static final int MIN_SHIFT = 14;
+    // 记录每条染色体的统计信息的伪箱
+    private static final int META_BIN = 37450;
+    // 格式：通用格式，坐标从 0 开始、左闭右开（TBX_UCSC）
+    private static final int FORMAT = 0x10000;
+
+    private final List<Reference> references = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private Reference current;
+    private int lastStart;
+
+    /**
+     * 一条染色体的索引。
+     */
+    private static final class Reference {
+        final String name;
+        // 按箱号排序，每个箱的区块为成对的 [起点, 终点) 位置
+        final Map<Integer, LongList> bins = new TreeMap<>();
+        LongList linear = new LongList();
+        int saveBin = -1;
+        long saveOffset;
+        long firstOffset = -1;
+        long lastOffset;
+        long count;
+
+        Reference(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * 可增长的 long 数组。
+     */
+    private static final class LongList {
+        long[] values = new long[4];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * 加入一行。
+     *
+     * @param name        染色体名称。
+     * @param start       起点，从 0 开始。
+     * @param end         终点，不包含。
+     * @param startOffset 该行在未压缩数据中的起始位置。
+     * @param endOffset   该行（包括换行符）在未压缩数据中的结束位置。
+     * @throws IOException 如果行没有按染色体分组或按起点排序。
+     */
+    public void add(String name, int start, int end, long startOffset, long endOffset) throws IOException {
+        if (current == null || !current.name.equals(name)) {
+            if (!names.add(name)) {
+                throw new IOException("BGZF output must be sorted: rows of " + name + " are not contiguous");
+            }
+            finish();
+            current = new Reference(name);
+            references.add(current);
+            lastStart = 0;
+        }
+        if (start < lastStart) {
+            throw new IOException("BGZF output must be sorted: " + name + ":" + start + " after " + lastStart);
+        }
+        lastStart = start;
+        if (end <= start) {
+            end = start + 1;
+        }
+
+        // 线性索引：记录与每个 16 kb 窗口重叠的第一行
+        LongList linear = current.linear;
+        int last = (end - 1) >> MIN_SHIFT;
+        while (linear.size <= last) {
+            linear.add(-1);
+        }
+        for (int window = start >> MIN_SHIFT; window <= last; window++) {
+            if (linear.values[window] == -1) {
+                linear.values[window] = startOffset;
+            }
+        }
+
+        // 分箱：连续落在同一个箱中的行合并为一个区块
+        int bin = reg2bin(start, end);
+        if (bin != current.saveBin) {
+            if (current.saveBin != -1) {
+                addChunk(current, current.saveBin, current.saveOffset, current.lastOffset);
+            }
+            current.saveBin = bin;
+            current.saveOffset = startOffset;
+        }
+        if (current.firstOffset == -1) {
+            current.firstOffset = startOffset;
+        }
+        current.lastOffset = endOffset;
+        current.count++;
+    }
+
+    private void finish() {
+        if (current != null && current.saveBin != -1) {
+            addChunk(current, current.saveBin, current.saveOffset, current.lastOffset);
+            current.saveBin = -1;
+        }
+    }
+
+    private static void addChunk(Reference reference, int bin, long from, long to) {
+        LongList chunks = reference.bins.computeIfAbsent(bin, key -> new LongList());
+        chunks.add(from);
+        chunks.add(to);
+    }
+
+    /**
+     * 计算区间 [start, end) 所在的最小的箱。
+     */
+    static int reg2bin(int start, int end) {
+        end--;
+        if (start >> 14 == end >> 14) {
+            return ((1 << 15) - 1) / 7 + (start >> 14);
+        }
+        if (start >> 17 == end >> 17) {
+            return ((1 << 12) - 1) / 7 + (start >> 17);
+        }
+        if (start >> 20 == end >> 20) {
+            return ((1 << 9) - 1) / 7 + (start >> 20);
+        }
+        if (start >> 23 == end >> 23) {
+            return ((1 << 6) - 1) / 7 + (start >> 23);
+        }
+        if (start >> 26 == end >> 26) {
+            return ((1 << 3) - 1) / 7 + (start >> 26);
+        }
+        return 0;
+    }
+
+    /**
+     * 写出 BGZF 压缩的 .tbi 文件。
+     *
+     * @param path          索引文件的路径。
+     * @param virtualOffset 把未压缩数据中的位置换算为 BGZF 虚拟偏移量。
+     * @throws IOException 如果写出时发生I/O错误。
+     */
+    public void write(Path path, LongUnaryOperator virtualOffset) throws IOException {
+        finish();
+        ByteArrayOutputStream nameBytes = new ByteArrayOutputStream();
+        for (Reference reference : references) {
+            nameBytes.write(reference.name.getBytes(StandardCharsets.UTF_8));
+            nameBytes.write(0);
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        buffer.write(new byte[] { 'T', 'B', 'I', 1 });
+        writeInt(buffer, references.size());
+        writeInt(buffer, FORMAT);
+        writeInt(buffer, 1);
+        writeInt(buffer, 2);
+        writeInt(buffer, 3);
+        writeInt(buffer, '#');
+        writeInt(buffer, 1);
+        writeInt(buffer, nameBytes.size());
+        nameBytes.writeTo(buffer);
+
+        for (Reference reference : references) {
+            writeInt(buffer, reference.bins.size() + 1);
+            for (Map.Entry<Integer, LongList> entry : reference.bins.entrySet()) {
+                LongList chunks = entry.getValue();
+                writeInt(buffer, entry.getKey());
+                writeInt(buffer, chunks.size / 2);
+                for (int i = 0; i < chunks.size; i++) {
+                    writeLong(buffer, virtualOffset.applyAsLong(chunks.values[i]));
+                }
+            }
+            // 伪箱：该染色体数据的起止位置，以及行数和无坐标的行数
+            writeInt(buffer, META_BIN);
+            writeInt(buffer, 2);
+            writeLong(buffer, virtualOffset.applyAsLong(reference.firstOffset));
+            writeLong(buffer, virtualOffset.applyAsLong(reference.lastOffset));
+            writeLong(buffer, reference.count);
+            writeLong(buffer, 0);
+
+            // 线性索引中没有行的窗口沿用前一个窗口的值
+            LongList linear = reference.linear;
+            writeInt(buffer, linear.size);
+            long previous = 0;
+            for (int i = 0; i < linear.size; i++) {
+                if (linear.values[i] != -1) {
+                    previous = virtualOffset.applyAsLong(linear.values[i]);
+                }
+                writeLong(buffer, previous);
+            }
+        }
+        writeLong(buffer, 0);
+
+        try (OutputStream out = new BgzfOutputStream(Files.newOutputStream(path), 1)) {
+            buffer.writeTo(out);
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) value);
+        writeInt(out, (int) (value >>> 32));
+    }
+}